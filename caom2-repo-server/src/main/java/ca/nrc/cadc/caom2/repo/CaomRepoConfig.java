@@ -93,13 +93,30 @@ public class CaomRepoConfig
     private static final Logger log = Logger.getLogger(CaomRepoConfig.class);
 
     private List<CaomRepoConfig.Item> config;
+    private File file;
+    private long lastModified;
+    private long length;
 
     public CaomRepoConfig(File config)
         throws IOException
     {
+        this.file = config;
+        // capture file state before reading so a concurrent edit is detected later
+        this.lastModified = config.lastModified();
+        this.length = config.length();
         this.config = loadConfig(config);
     }
 
+    /**
+     * Check if the config file has been modified (or removed) since it was loaded.
+     * 
+     * @return true if the config should be reloaded
+     */
+    public boolean isStale()
+    {
+        return file.lastModified() != lastModified || file.length() != length;
+    }
+
     public Item getConfig(String collection)
     {
         Iterator<Item> i = config.iterator();
@@ -0,0 +1,312 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo;
+
+import ca.nrc.cadc.ac.GroupURI;
+import ca.nrc.cadc.ac.UserNotFoundException;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.Principal;
+import java.security.cert.CertificateException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.security.auth.Subject;
+import org.apache.log4j.Logger;
+
+/**
+ * Membership provider that caches the result of another provider per caller and
+ * group for a limited time. Positive and negative results have separate time-to-live
+ * values so that a newly granted membership takes effect quickly. Concurrent checks
+ * for the same caller and group wait for a single lookup. Failed lookups are not cached.
+ * Calls without a Subject are not cached.
+ * 
+ * @author pdowler
+ */
+public class MembershipCache implements MembershipProvider
+{
+    private static final Logger log = Logger.getLogger(MembershipCache.class);
+
+    /**
+     * System property for the time-to-live (seconds) of positive results; 0 disables the cache.
+     */
+    public static final String TTL_KEY = MembershipCache.class.getName() + ".ttl";
+    
+    /**
+     * System property for the time-to-live (seconds) of negative results; 0 disables negative caching.
+     */
+    public static final String NEGATIVE_TTL_KEY = MembershipCache.class.getName() + ".negativeTTL";
+    
+    public static final long DEFAULT_TTL = 60L;
+    public static final long DEFAULT_NEGATIVE_TTL = 10L;
+    
+    // expired entries are purged when the cache grows past this size
+    static final int PURGE_SIZE = 10000;
+    
+    private final MembershipProvider provider;
+    private final long ttl;
+    private final long negativeTTL;
+    
+    private final ConcurrentHashMap<Key,Entry> cache = new ConcurrentHashMap<Key,Entry>();
+    
+    private static class Key
+    {
+        private final Set<Principal> principals;
+        private final GroupURI group;
+        
+        Key(Set<Principal> principals, GroupURI group)
+        {
+            this.principals = principals;
+            this.group = group;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * principals.hashCode() + group.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof Key)
+            {
+                Key k = (Key) obj;
+                return principals.equals(k.principals) && group.equals(k.group);
+            }
+            return false;
+        }
+    }
+    
+    private static class Entry
+    {
+        final FutureTask<Boolean> task;
+        volatile long expires = Long.MAX_VALUE; // while in progress
+        
+        Entry(FutureTask<Boolean> task)
+        {
+            this.task = task;
+        }
+    }
+    
+    /**
+     * Create a cache with time-to-live values from system properties.
+     * 
+     * @param provider 
+     */
+    public MembershipCache(MembershipProvider provider)
+    {
+        this(provider, 1000L * getSeconds(TTL_KEY, DEFAULT_TTL), 
+                1000L * getSeconds(NEGATIVE_TTL_KEY, DEFAULT_NEGATIVE_TTL));
+    }
+    
+    /**
+     * @param provider provider that performs the actual check
+     * @param ttl time-to-live of positive results in milliseconds
+     * @param negativeTTL time-to-live of negative results in milliseconds
+     */
+    public MembershipCache(MembershipProvider provider, long ttl, long negativeTTL)
+    {
+        if (provider == null)
+            throw new IllegalArgumentException("provider cannot be null");
+        this.provider = provider;
+        this.ttl = ttl;
+        this.negativeTTL = negativeTTL;
+    }
+    
+    private static long getSeconds(String key, long def)
+    {
+        String val = System.getProperty(key);
+        if (val == null)
+            return def;
+        try
+        {
+            return Long.parseLong(val.trim());
+        }
+        catch(NumberFormatException ex)
+        {
+            log.warn("invalid " + key + "=" + val + ", using default: " + def);
+            return def;
+        }
+    }
+
+    @Override
+    public boolean isMember(final GroupURI group) 
+        throws UserNotFoundException, CertificateException, 
+               ResourceNotFoundException, IOException
+    {
+        Subject s = Subject.getSubject(AccessController.getContext());
+        if (ttl <= 0 || s == null || s.getPrincipals().isEmpty())
+            return provider.isMember(group);
+        
+        Key key = new Key(new HashSet<Principal>(s.getPrincipals()), group);
+        Entry e = cache.get(key);
+        if (e != null && e.expires < System.currentTimeMillis())
+        {
+            cache.remove(key, e);
+            e = null;
+        }
+        if (e == null)
+        {
+            FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>()
+            {
+                public Boolean call() throws Exception
+                {
+                    return provider.isMember(group);
+                }
+            });
+            Entry ne = new Entry(task);
+            e = cache.putIfAbsent(key, ne);
+            if (e == null)
+            {
+                // this thread does the lookup with the caller's access control context
+                e = ne;
+                if (cache.size() > PURGE_SIZE)
+                    purge();
+                task.run();
+            }
+        }
+        
+        try
+        {
+            boolean ret = e.task.get();
+            if (e.expires == Long.MAX_VALUE)
+            {
+                long t = (ret ? ttl : negativeTTL);
+                if (t > 0)
+                    e.expires = System.currentTimeMillis() + t;
+                else
+                    cache.remove(key, e);
+            }
+            return ret;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while checking membership: " + group, ex);
+        }
+        catch(ExecutionException ex)
+        {
+            // do not cache failures; every waiting thread sees the same failure
+            cache.remove(key, e);
+            throwCause(ex.getCause());
+            return false; // not reached
+        }
+    }
+    
+    private static void throwCause(Throwable t)
+        throws UserNotFoundException, CertificateException, 
+               ResourceNotFoundException, IOException
+    {
+        if (t instanceof UserNotFoundException)
+            throw (UserNotFoundException) t;
+        if (t instanceof CertificateException)
+            throw (CertificateException) t;
+        if (t instanceof ResourceNotFoundException)
+            throw (ResourceNotFoundException) t;
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new RuntimeException("unexpected failure checking membership", t);
+    }
+    
+    private void purge()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iter = cache.values().iterator();
+        while (iter.hasNext())
+        {
+            if (iter.next().expires < now)
+                iter.remove();
+        }
+        log.debug("purge: " + cache.size() + " remaining");
+    }
+    
+    public void clear()
+    {
+        cache.clear();
+    }
+    
+    /**
+     * @return number of cached (or in progress) results
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+}
@@ -0,0 +1,557 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo;
+
+import ca.nrc.cadc.caom2.ObservationURI;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Least-recently-used cache of serialized observation documents. Entries are keyed
+ * by observation URI and are only returned if the maxLastModified of the cached 
+ * document matches the current value, so a stale entry is never served even if an
+ * update bypassed this service. Entries evicted from memory are optionally written
+ * to a local directory and evicted from there when the disk budget is exceeded.
+ * 
+ * <p>The cache is configured with system properties and is disabled unless 
+ * MAX_BYTES_KEY is set to a positive value.
+ * 
+ * @author pdowler
+ */
+public class ResponseCache
+{
+    private static final Logger log = Logger.getLogger(ResponseCache.class);
+
+    /**
+     * Maximum total size (bytes) of documents kept in memory; enables the cache.
+     */
+    public static final String MAX_BYTES_KEY = ResponseCache.class.getName() + ".maxBytes";
+    
+    /**
+     * Optional directory for documents evicted from memory.
+     */
+    public static final String DIR_KEY = ResponseCache.class.getName() + ".dir";
+    
+    /**
+     * Maximum total size (bytes) of documents kept in DIR_KEY (default: 10 x maxBytes).
+     */
+    public static final String MAX_DISK_BYTES_KEY = ResponseCache.class.getName() + ".maxDiskBytes";
+    
+    /**
+     * Store documents gzip-compressed (true|false, default: true).
+     */
+    public static final String GZIP_KEY = ResponseCache.class.getName() + ".gzip";
+    
+    private static final String FILE_PREFIX = "caom2-response-";
+    
+    private static boolean initialized = false;
+    private static ResponseCache instance;
+    
+    private final long maxBytes;
+    private final File dir;
+    private final long maxDiskBytes;
+    private final boolean gzip;
+    
+    private long numBytes;
+    private long numDiskBytes;
+    private long seq;
+    
+    private long hits;
+    private long misses;
+    
+    // access-order for LRU
+    private final LinkedHashMap<ObservationURI,Entry> mem = new LinkedHashMap<ObservationURI,Entry>(16, 0.75f, true);
+    private final LinkedHashMap<ObservationURI,Entry> disk = new LinkedHashMap<ObservationURI,Entry>(16, 0.75f, true);
+    
+    // evicted from memory and being written to disk outside the lock
+    private final Map<ObservationURI,Entry> spilling = new HashMap<ObservationURI,Entry>();
+    
+    private static class Entry
+    {
+        Date maxLastModified;
+        byte[] data;
+        File file;
+        long length;
+        long docLength;
+    }
+    
+    /**
+     * Stream over a cached document.
+     */
+    public static class CachedDocument extends FilterInputStream
+    {
+        private final long docLength;
+        
+        CachedDocument(InputStream in, long docLength)
+        {
+            super(in);
+            this.docLength = docLength;
+        }
+        
+        /**
+         * @return length of the uncompressed document
+         */
+        public long getDocumentLength()
+        {
+            return docLength;
+        }
+    }
+    
+    private static class Spill
+    {
+        ObservationURI uri;
+        Entry entry;
+        File file;
+        
+        Spill(ObservationURI uri, Entry entry, File file)
+        {
+            this.uri = uri;
+            this.entry = entry;
+            this.file = file;
+        }
+    }
+    
+    /**
+     * @return the configured cache or null if caching is disabled
+     */
+    public static synchronized ResponseCache getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+            instance = createInstance();
+            log.info("response cache: " + instance);
+        }
+        return instance;
+    }
+    
+    private static ResponseCache createInstance()
+    {
+        try
+        {
+            String s = System.getProperty(MAX_BYTES_KEY);
+            if (s == null)
+                return null;
+            long max = Long.parseLong(s.trim());
+            if (max <= 0)
+                return null;
+            
+            File d = null;
+            s = System.getProperty(DIR_KEY);
+            if (s != null && s.trim().length() > 0)
+                d = new File(s.trim());
+            
+            long maxDisk = 10L * max;
+            s = System.getProperty(MAX_DISK_BYTES_KEY);
+            if (s != null)
+                maxDisk = Long.parseLong(s.trim());
+            
+            boolean gz = true;
+            s = System.getProperty(GZIP_KEY);
+            if (s != null)
+                gz = Boolean.parseBoolean(s.trim());
+            
+            return new ResponseCache(max, d, maxDisk, gz);
+        }
+        catch(NumberFormatException | IOException ex)
+        {
+            log.error("invalid response cache configuration, caching disabled", ex);
+            return null;
+        }
+    }
+    
+    /**
+     * @param maxBytes maximum size of documents kept in memory
+     * @param dir directory for documents evicted from memory, may be null
+     * @param maxDiskBytes maximum size of documents kept in dir
+     * @param gzip store documents gzip-compressed
+     * @throws IOException if dir cannot be created or written
+     */
+    public ResponseCache(long maxBytes, File dir, long maxDiskBytes, boolean gzip)
+        throws IOException
+    {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("invalid maxBytes: " + maxBytes);
+        this.maxBytes = maxBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.gzip = gzip;
+        if (dir != null && maxDiskBytes > 0)
+        {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("failed to create directory: " + dir);
+            if (!dir.canWrite())
+                throw new IOException("cannot write to directory: " + dir);
+            // remove documents left by a previous instance
+            File[] old = dir.listFiles();
+            if (old != null)
+            {
+                for (File f : old)
+                {
+                    if (f.getName().startsWith(FILE_PREFIX))
+                        f.delete();
+                }
+            }
+            this.dir = dir;
+        }
+        else
+            this.dir = null;
+    }
+
+    /**
+     * @return true if stored documents are gzip-compressed
+     */
+    public boolean isGzip()
+    {
+        return gzip;
+    }
+    
+    /**
+     * Get a cached document. The stream contains the stored bytes, which are gzip 
+     * compressed if isGzip() is true. The caller must close the stream.
+     * 
+     * @param uri
+     * @param maxLastModified current maxLastModified of the observation
+     * @return stream to read the document or null if not cached (or out of date)
+     */
+    public synchronized CachedDocument get(ObservationURI uri, Date maxLastModified)
+    {
+        Entry e = mem.get(uri);
+        if (e == null)
+            e = spilling.get(uri);
+        if (e == null)
+            e = disk.get(uri);
+        if (e != null && !e.maxLastModified.equals(maxLastModified))
+        {
+            log.debug("get: out of date " + uri);
+            remove(uri);
+            e = null;
+        }
+        if (e == null)
+        {
+            misses++;
+            return null;
+        }
+        
+        if (e.data != null)
+        {
+            hits++;
+            return new CachedDocument(new ByteArrayInputStream(e.data), e.docLength);
+        }
+        try
+        {
+            CachedDocument ret = new CachedDocument(new FileInputStream(e.file), e.docLength);
+            hits++;
+            return ret;
+        }
+        catch(FileNotFoundException ex)
+        {
+            log.warn("get: cached file not found: " + e.file);
+            remove(uri);
+            misses++;
+            return null;
+        }
+    }
+    
+    /**
+     * Add a document to the cache, replacing any previous document for the same
+     * observation.
+     * 
+     * @param uri
+     * @param maxLastModified maxLastModified of the serialized observation
+     * @param doc uncompressed document
+     */
+    public void put(ObservationURI uri, Date maxLastModified, byte[] doc)
+    {
+        byte[] data = doc;
+        if (gzip)
+        {
+            // compress outside the lock
+            try
+            {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(doc.length / 4);
+                GZIPOutputStream gz = new GZIPOutputStream(bos);
+                gz.write(doc);
+                gz.close();
+                data = bos.toByteArray();
+            }
+            catch(IOException ex)
+            {
+                throw new RuntimeException("BUG: failed to compress in memory", ex);
+            }
+        }
+        
+        Entry e = new Entry();
+        e.maxLastModified = maxLastModified;
+        e.data = data;
+        e.length = data.length;
+        e.docLength = doc.length;
+        
+        // pick evicted entries with the lock held and write them to disk without it
+        List<Spill> spills = new ArrayList<Spill>();
+        synchronized(this)
+        {
+            remove(uri);
+            if (e.length > maxBytes)
+            {
+                log.debug("put: too large for memory " + uri + " size: " + e.length);
+                evict(uri, e, spills);
+            }
+            else
+            {
+                mem.put(uri, e);
+                numBytes += e.length;
+
+                Iterator<Map.Entry<ObservationURI,Entry>> iter = mem.entrySet().iterator();
+                while (numBytes > maxBytes && iter.hasNext())
+                {
+                    Map.Entry<ObservationURI,Entry> me = iter.next();
+                    iter.remove();
+                    numBytes -= me.getValue().length;
+                    evict(me.getKey(), me.getValue(), spills);
+                }
+            }
+        }
+        
+        for (Spill sp : spills)
+        {
+            if (write(sp))
+                publish(sp);
+            else
+            {
+                synchronized(this)
+                {
+                    if (spilling.get(sp.uri) == sp.entry)
+                        spilling.remove(sp.uri);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove a document because the observation was modified or deleted.
+     * 
+     * @param uri
+     */
+    public synchronized void invalidate(ObservationURI uri)
+    {
+        remove(uri);
+    }
+    
+    public synchronized void clear()
+    {
+        mem.clear();
+        numBytes = 0L;
+        for (Entry e : disk.values())
+            e.file.delete();
+        disk.clear();
+        spilling.clear();
+        numDiskBytes = 0L;
+    }
+    
+    private void remove(ObservationURI uri)
+    {
+        Entry e = mem.remove(uri);
+        if (e != null)
+            numBytes -= e.length;
+        spilling.remove(uri);
+        e = disk.remove(uri);
+        if (e != null)
+        {
+            numDiskBytes -= e.length;
+            e.file.delete();
+        }
+    }
+    
+    // choose a file for an entry evicted from memory; called with the lock held
+    private void evict(ObservationURI uri, Entry e, List<Spill> spills)
+    {
+        if (dir == null || e.length > maxDiskBytes)
+            return;
+        
+        File f = new File(dir, FILE_PREFIX + Long.toString(seq++) + (gzip ? ".xml.gz" : ".xml"));
+        spilling.put(uri, e);
+        spills.add(new Spill(uri, e, f));
+    }
+    
+    // write an evicted entry to disk; called without the lock
+    private boolean write(Spill sp)
+    {
+        OutputStream os = null;
+        try
+        {
+            os = new FileOutputStream(sp.file);
+            os.write(sp.entry.data);
+            os.close();
+            os = null;
+            return true;
+        }
+        catch(IOException ex)
+        {
+            log.warn("spill: failed to write " + sp.file + ": " + ex);
+            sp.file.delete();
+            return false;
+        }
+        finally
+        {
+            if (os != null)
+            {
+                try { os.close(); }
+                catch(IOException ignore) { }
+            }
+        }
+    }
+    
+    // add a written entry to the disk cache unless it was removed or replaced meanwhile
+    private synchronized void publish(Spill sp)
+    {
+        if (spilling.get(sp.uri) != sp.entry)
+        {
+            log.debug("spill: discarded " + sp.uri);
+            sp.file.delete();
+            return;
+        }
+        spilling.remove(sp.uri);
+        
+        Entry e = sp.entry;
+        e.data = null;
+        e.file = sp.file;
+        disk.put(sp.uri, e);
+        numDiskBytes += e.length;
+        log.debug("spill: " + sp.uri + " -> " + sp.file);
+        
+        Iterator<Entry> iter = disk.values().iterator();
+        while (numDiskBytes > maxDiskBytes && iter.hasNext())
+        {
+            Entry old = iter.next();
+            iter.remove();
+            numDiskBytes -= old.length;
+            old.file.delete();
+        }
+    }
+    
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * @return number of cached documents in memory and on disk
+     */
+    public synchronized int size()
+    {
+        return mem.size() + disk.size();
+    }
+    
+    /**
+     * @return total size of documents in memory
+     */
+    public synchronized long getNumBytes()
+    {
+        return numBytes;
+    }
+    
+    /**
+     * @return total size of documents on disk
+     */
+    public synchronized long getNumDiskBytes()
+    {
+        return numDiskBytes;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ResponseCache[" + mem.size() + "," + numBytes + "/" + maxBytes 
+                + ",disk=" + disk.size() + "," + numDiskBytes + "/" + (dir == null ? 0L : maxDiskBytes) 
+                + ",gzip=" + gzip + ",hits=" + hits + ",misses=" + misses + "]";
+    }
+}
@@ -73,6 +73,7 @@ import org.apache.log4j.Logger;
 
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.repo.ResponseCache;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 
 /**
@@ -100,6 +101,9 @@ public class DeleteAction extends RepoAction
             throw new ResourceNotFoundException("not found: " + uri);
 
         dao.delete(uri);
+        ResponseCache cache = ResponseCache.getInstance();
+        if (cache != null)
+            cache.invalidate(uri);
 
         log.debug("DONE: " + uri);
     }
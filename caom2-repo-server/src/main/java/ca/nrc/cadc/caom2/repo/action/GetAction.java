@@ -69,12 +69,19 @@
 
 package ca.nrc.cadc.caom2.repo.action;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 
@@ -84,9 +91,11 @@ import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationState;
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.persistence.ResultHandler;
+import ca.nrc.cadc.caom2.persistence.SQLGenerator;
+import ca.nrc.cadc.caom2.repo.ResponseCache;
 import ca.nrc.cadc.caom2.xml.ObservationWriter;
 import ca.nrc.cadc.date.DateUtil;
-import ca.nrc.cadc.io.ByteCountOutputStream;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 
 /**
@@ -103,6 +112,20 @@ public class GetAction extends RepoAction
 
     public static final int MAX_OBS_LIST_SIZE = 100000;
 
+    /**
+     * System property to override the default (and maximum) number of observations 
+     * in a list response; 0 means no limit. The list is streamed to the client so 
+     * this is a soft limit rather than a memory safeguard.
+     */
+    public static final String MAX_LIST_SIZE_KEY = GetAction.class.getName() + ".maxListSize";
+
+    /**
+     * Parameter for keyset paging of the list. When the parameter is present (the value
+     * may be empty for the first page) each row includes a continuation token; the token 
+     * from the last row is the cursor value for the next page. Pages never overlap, 
+     * even when many observations have the same maxLastModified.
+     */
+    public static final String CURSOR_PARAM = "cursor";
 
     public GetAction() { }
 
@@ -120,11 +143,11 @@ public class GetAction extends RepoAction
         {
             // maxRec == null means list all
             String maxRecString = syncInput.getParameter("maxrec");
-            Integer maxRec = MAX_OBS_LIST_SIZE;
+            Integer maxRec = getMaxListSize();
             if (maxRecString != null)
             {
                 int m = Integer.valueOf(maxRecString);
-                if (m < maxRec)
+                if (maxRec == null || m < maxRec)
                     maxRec = m;
             }
 
@@ -142,7 +165,17 @@ public class GetAction extends RepoAction
                 if (endString != null)
                     end = df.parse(endString);
 
-                doList(maxRec, start, end);
+                // cursor is optional and replaces start
+                UUID afterID = null;
+                String cursorString = syncInput.getParameter(CURSOR_PARAM);
+                if (cursorString != null && cursorString.length() > 0)
+                {
+                    ObservationState cursor = decodeCursor(cursorString);
+                    start = cursor.getMaxLastModified();
+                    afterID = cursor.getID();
+                }
+
+                doList(maxRec, start, afterID, end, cursorString != null);
             } 
             catch (ParseException e)
             {
@@ -159,8 +192,46 @@ public class GetAction extends RepoAction
 
         checkReadPermission(uri.getCollection());
 
+        int depth = getDepth();
         ObservationDAO dao = getDAO();
-        Observation obs = dao.get(uri);
+        // cached documents are complete observations
+        ResponseCache cache = null;
+        if (depth == SQLGenerator.MAX_DEPTH)
+            cache = ResponseCache.getInstance();
+        
+        // check the current state with a single-row query
+        if (isConditional() || cache != null)
+        {
+            ObservationState state = dao.getState(uri);
+            if (state == null)
+                throw new ResourceNotFoundException("not found: " + uri);
+            if (isConditional() && isNotModified(getETag(state.getID(), state.getMaxLastModified(), depth, getContentEncoding()), state.getMaxLastModified()))
+            {
+                log.debug("not modified: " + uri);
+                setValidators(state.getID(), state.getMaxLastModified(), depth);
+                syncOutput.setCode(304);
+                return;
+            }
+            
+            if (cache != null)
+            {
+                ResponseCache.CachedDocument istream = cache.get(uri, state.getMaxLastModified());
+                if (istream != null)
+                {
+                    log.debug("cache hit: " + uri);
+                    setValidators(state.getID(), state.getMaxLastModified(), depth);
+                    writeCached(istream, cache.isGzip());
+                    log.debug("DONE: " + uri);
+                    return;
+                }
+            }
+        }
+        
+        Observation obs;
+        if (depth == SQLGenerator.MAX_DEPTH)
+            obs = dao.get(uri);
+        else
+            obs = dao.get(uri, depth);
 
         if (obs == null)
             throw new ResourceNotFoundException("not found: " + uri);
@@ -168,16 +239,198 @@ public class GetAction extends RepoAction
         // write with default schema
         ObservationWriter ow = new ObservationWriter();
 
+        setValidators(obs.getID(), obs.getMaxLastModified(), depth);
         syncOutput.setHeader("Content-Type", CAOM_MIMETYPE);
-        OutputStream os = syncOutput.getOutputStream();
-        ByteCountOutputStream bc = new ByteCountOutputStream(os);
-        ow.write(obs, bc);
-        logInfo.setBytes(bc.getByteCount());
+        if (cache != null)
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ow.write(obs, bos);
+            byte[] doc = bos.toByteArray();
+            cache.put(uri, obs.getMaxLastModified(), doc);
+            OutputStream os = openOutputStream();
+            try
+            {
+                os.write(doc);
+            }
+            finally
+            {
+                closeOutputStream();
+            }
+        }
+        else
+        {
+            OutputStream os = openOutputStream();
+            try
+            {
+                ow.write(obs, os);
+            }
+            finally
+            {
+                closeOutputStream();
+            }
+        }
 
         log.debug("DONE: " + uri);
     }
 
-    protected void doList(int maxRec, Date start, Date end)
+    // write a cached document; compressed documents are sent as-is if the response is gzip encoded
+    private void writeCached(ResponseCache.CachedDocument istream, boolean gzip)
+        throws IOException
+    {
+        InputStream in = istream;
+        try
+        {
+            syncOutput.setHeader("Content-Type", CAOM_MIMETYPE);
+            OutputStream os;
+            if (gzip && "gzip".equals(getContentEncoding()))
+                os = openPrecompressedOutputStream(istream.getDocumentLength());
+            else
+            {
+                if (gzip)
+                    in = new GZIPInputStream(istream);
+                os = openOutputStream();
+            }
+            try
+            {
+                copy(in, os);
+            }
+            finally
+            {
+                closeOutputStream();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void copy(InputStream istream, OutputStream os)
+        throws IOException
+    {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = istream.read(buf)) != -1)
+            os.write(buf, 0, n);
+    }
+
+    // ETag: maxLastModified changes whenever anything in the observation changes
+    static String getETag(UUID id, Date maxLastModified)
+    {
+        return getETag(id, maxLastModified, SQLGenerator.MAX_DEPTH, null);
+    }
+
+    static String getETag(UUID id, Date maxLastModified, int depth)
+    {
+        return getETag(id, maxLastModified, depth, null);
+    }
+
+    // partial representations and each content encoding have a different strong ETag (RFC 7232)
+    static String getETag(UUID id, Date maxLastModified, int depth, String contentEncoding)
+    {
+        String d = "";
+        if (depth != SQLGenerator.MAX_DEPTH)
+            d = "-" + depth;
+        if (contentEncoding != null)
+            d = d + "-" + contentEncoding;
+        return "\"" + id + "-" + Long.toHexString(maxLastModified.getTime()) + d + "\"";
+    }
+
+    private static DateFormat getHttpDateFormat()
+    {
+        DateFormat ret = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        ret.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return ret;
+    }
+
+    private void setValidators(UUID id, Date maxLastModified, int depth)
+    {
+        syncOutput.setHeader("ETag", getETag(id, maxLastModified, depth, getContentEncoding()));
+        syncOutput.setHeader("Last-Modified", getHttpDateFormat().format(maxLastModified));
+    }
+
+    private boolean isConditional()
+    {
+        return syncInput.getHeader("If-None-Match") != null
+            || syncInput.getHeader("If-Modified-Since") != null;
+    }
+
+    // If-None-Match takes precedence over If-Modified-Since (RFC 7232)
+    private boolean isNotModified(String etag, Date maxLastModified)
+    {
+        String inm = syncInput.getHeader("If-None-Match");
+        if (inm != null)
+        {
+            for (String tag : inm.split(","))
+            {
+                tag = tag.trim();
+                if (tag.startsWith("W/"))
+                    tag = tag.substring(2);
+                if ("*".equals(tag) || etag.equals(tag))
+                    return true;
+            }
+            return false;
+        }
+        
+        String ims = syncInput.getHeader("If-Modified-Since");
+        if (ims != null)
+        {
+            try
+            {
+                Date d = getHttpDateFormat().parse(ims);
+                // http dates have 1 second precision
+                return (maxLastModified.getTime() / 1000L) <= (d.getTime() / 1000L);
+            }
+            catch(ParseException ex)
+            {
+                log.debug("ignoring invalid If-Modified-Since: " + ims);
+            }
+        }
+        return false;
+    }
+
+    // configured limit, null for no limit
+    private Integer getMaxListSize()
+    {
+        String val = System.getProperty(MAX_LIST_SIZE_KEY);
+        if (val == null)
+            return MAX_OBS_LIST_SIZE;
+        try
+        {
+            int m = Integer.parseInt(val.trim());
+            if (m <= 0)
+                return null;
+            return m;
+        }
+        catch(NumberFormatException ex)
+        {
+            log.warn("invalid " + MAX_LIST_SIZE_KEY + "=" + val + ", using default: " + MAX_OBS_LIST_SIZE);
+            return MAX_OBS_LIST_SIZE;
+        }
+    }
+
+    // opaque continuation token: the key of the last observation in a page
+    static String encodeCursor(ObservationState state)
+    {
+        return Long.toHexString(state.getMaxLastModified().getTime()) + "-" + state.getID();
+    }
+
+    static ObservationState decodeCursor(String cursor)
+    {
+        try
+        {
+            int i = cursor.indexOf('-');
+            Date d = new Date(Long.parseLong(cursor.substring(0, i), 16));
+            UUID id = UUID.fromString(cursor.substring(i + 1));
+            return new ObservationState(null, null, d, id);
+        }
+        catch(IndexOutOfBoundsException | IllegalArgumentException ex)
+        {
+            throw new IllegalArgumentException("invalid " + CURSOR_PARAM + ": " + cursor);
+        }
+    }
+
+    protected void doList(Integer maxRec, Date start, UUID afterID, Date end, final boolean writeCursor)
             throws Exception
     {
         log.debug("START: " + getCollection());
@@ -186,27 +439,36 @@ public class GetAction extends RepoAction
 
         ObservationDAO dao = getDAO();
 
-        List<ObservationState> states = dao.getObservationList(
-                getCollection(), start, end, maxRec);
-
-        if (states == null)
-            throw new ResourceNotFoundException(
-                    "Collection not found: " + getCollection());
-
-        // write in csv format for now
+        // write in csv format for now; rows are written as they are read from the database
         syncOutput.setHeader("Content-Type", "text/csv");
-        OutputStream os = syncOutput.getOutputStream();
-        ByteCountOutputStream bc = new ByteCountOutputStream(os);
-        CsvWriter writer = new CsvWriter(bc, ',', Charset.defaultCharset());
-        for (ObservationState state : states)
+        OutputStream os = openOutputStream();
+        final CsvWriter writer = new CsvWriter(os, ',', Charset.defaultCharset());
+        try
         {
-            writer.write(state.getObservationID());
-            writer.write(df.format(state.getMaxLastModified()));
-            writer.endRecord();
+            dao.getObservationList(getCollection(), start, afterID, end, maxRec, new ResultHandler<ObservationState>()
+            {
+                public void handle(ObservationState state)
+                {
+                    try
+                    {
+                        writer.write(state.getObservationID());
+                        writer.write(df.format(state.getMaxLastModified()));
+                        if (writeCursor)
+                            writer.write(encodeCursor(state));
+                        writer.endRecord();
+                    }
+                    catch(IOException ex)
+                    {
+                        throw new RuntimeException("failed to write observation list", ex);
+                    }
+                }
+            });
+        }
+        finally
+        {
+            writer.flush();
+            closeOutputStream();
         }
-        writer.flush();
-
-        logInfo.setBytes(bc.getByteCount());
 
         log.debug("DONE: " + getCollection());
     }
@@ -0,0 +1,213 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo.action;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.ObservationURI;
+import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.persistence.ResultHandler;
+import ca.nrc.cadc.caom2.xml.ObservationWriter;
+import ca.nrc.cadc.rest.InlineContentHandler;
+
+/**
+ * Get multiple observations from one collection in a single request. The observations
+ * are specified with repeated uri parameters (GET or form POST) and/or a text/plain
+ * POST body with one value per line; each value is an observation URI in the collection 
+ * or just the observationID. The observations are read with batched queries and each one
+ * is written as a part of a multipart/mixed response as soon as it has been read; 
+ * observations that are not found are omitted. The Content-Location header of each 
+ * part is the observation URI.
+ * 
+ * @author pdowler
+ */
+public class GetObservationsAction extends RepoAction
+{
+    private static final Logger log = Logger.getLogger(GetObservationsAction.class);
+
+    public static final String URI_PARAM = "uri";
+    
+    public static final int MAX_URIS = 1000;
+    
+    private static final String CRLF = "\r\n";
+
+    public GetObservationsAction() { }
+
+    @Override
+    public void doAction()
+        throws Exception
+    {
+        if (getURI() != null)
+            throw new IllegalArgumentException("invalid request: expected collection only");
+        
+        final String collection = getCollection();
+        log.debug("START: " + collection);
+
+        checkReadPermission(collection);
+
+        int depth = getDepth();
+        Set<ObservationURI> uris = getInputURIs(collection);
+        ObservationDAO dao = getDAO();
+
+        final String boundary = "caom2-" + UUID.randomUUID().toString();
+        syncOutput.setHeader("Content-Type", "multipart/mixed; boundary=" + boundary);
+        final OutputStream os = openOutputStream();
+        final ObservationWriter ow = new ObservationWriter();
+        final int[] num = new int[1];
+        try
+        {
+            dao.getByURI(uris, depth, new ResultHandler<Observation>()
+            {
+                public void handle(Observation obs)
+                {
+                    try
+                    {
+                        String head = "--" + boundary + CRLF
+                            + "Content-Type: " + GetAction.CAOM_MIMETYPE + CRLF
+                            + "Content-Location: " + obs.getURI().getURI().toASCIIString() + CRLF
+                            + CRLF;
+                        os.write(head.getBytes("US-ASCII"));
+                        ow.write(obs, os);
+                        os.write(CRLF.getBytes("US-ASCII"));
+                        os.flush();
+                        num[0]++;
+                    }
+                    catch(IOException ex)
+                    {
+                        throw new RuntimeException("failed to write observation " + obs.getURI(), ex);
+                    }
+                }
+            });
+            os.write(("--" + boundary + "--" + CRLF).getBytes("US-ASCII"));
+            os.flush();
+        }
+        finally
+        {
+            closeOutputStream();
+        }
+
+        log.debug("DONE: " + collection + " " + num[0] + "/" + uris.size());
+    }
+
+    // requested observations in request order without duplicates
+    private Set<ObservationURI> getInputURIs(String collection)
+    {
+        List<String> vals = new ArrayList<String>();
+        List<String> params = syncInput.getParameters(URI_PARAM);
+        if (params != null)
+            vals.addAll(params);
+        Object body = syncInput.getContent(ObservationListInlineContentHandler.CONTENT_KEY);
+        if (body != null)
+            vals.addAll((List<String>) body);
+        
+        if (vals.isEmpty())
+            throw new IllegalArgumentException("no observations specified");
+        
+        Set<ObservationURI> ret = new LinkedHashSet<ObservationURI>();
+        for (String s : vals)
+        {
+            ObservationURI uri;
+            try
+            {
+                if (s.startsWith("caom:"))
+                    uri = new ObservationURI(new URI(s));
+                else
+                    uri = new ObservationURI(collection, s);
+            }
+            catch(URISyntaxException | IllegalArgumentException ex)
+            {
+                throw new IllegalArgumentException("invalid input: " + s, ex);
+            }
+            if (!collection.equals(uri.getCollection()))
+                throw new IllegalArgumentException("invalid input: " + s + " is not in collection " + collection);
+            ret.add(uri);
+            if (ret.size() > MAX_URIS)
+                throw new IllegalArgumentException("too many observations: limit is " + MAX_URIS);
+        }
+        return ret;
+    }
+
+    @Override
+    protected InlineContentHandler getInlineContentHandler()
+    {
+        return new ObservationListInlineContentHandler();
+    }
+}
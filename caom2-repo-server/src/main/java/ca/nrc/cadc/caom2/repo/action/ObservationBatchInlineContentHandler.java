@@ -0,0 +1,213 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo.action;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.util.CaomValidator;
+import ca.nrc.cadc.caom2.xml.ObservationParsingException;
+import ca.nrc.cadc.caom2.xml.ObservationReader;
+import ca.nrc.cadc.io.ByteCountInputStream;
+import ca.nrc.cadc.io.ByteLimitExceededException;
+import ca.nrc.cadc.rest.InlineContentException;
+import ca.nrc.cadc.rest.InlineContentHandler;
+
+/**
+ * Parse a multipart request with one observation document per part. Each document 
+ * is parsed as soon as its part is read and then validated by an executor supplied 
+ * by the calling action while the following parts are being received. Documents that 
+ * cannot be parsed are recorded as failed items rather than failing the whole request.
+ * 
+ * @author pdowler
+ */
+public class ObservationBatchInlineContentHandler implements InlineContentHandler
+{
+    private static Logger log = Logger.getLogger(ObservationBatchInlineContentHandler.class);
+
+    // 20MB XML Doc size limit
+    private static final long DOCUMENT_SIZE_MAX = 20971520L;
+    
+    public static final int MAX_ITEMS = 1000;
+
+    public static final String CONTENT_KEY = "obs_batch";
+    
+    private final ExecutorService validator;
+    
+    private final List<Item> items = new ArrayList<Item>();
+
+    /**
+     * One part of the request.
+     */
+    public static class Item
+    {
+        /**
+         * Name of the part.
+         */
+        public String name;
+        
+        /**
+         * The parsed observation, null if parsing failed.
+         */
+        public Observation observation;
+        
+        /**
+         * Parsing error, null if parsing succeeded.
+         */
+        public String error;
+        
+        Future<?> validation;
+        
+        /**
+         * Wait for validation of the observation to complete.
+         * 
+         * @throws IllegalArgumentException if the observation is invalid
+         * @throws InterruptedException 
+         */
+        public void checkValid()
+            throws InterruptedException
+        {
+            try
+            {
+                validation.get();
+            }
+            catch(ExecutionException ex)
+            {
+                Throwable cause = ex.getCause();
+                throw new IllegalArgumentException("invalid observation: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * @param validator executor used to validate observations; the caller is 
+     * responsible for shutting it down
+     */
+    public ObservationBatchInlineContentHandler(ExecutorService validator) 
+    { 
+        this.validator = validator;
+    }
+
+    public Content accept(String name, String contentType, InputStream inputStream)
+        throws InlineContentException, IOException
+    {
+        if (inputStream == null)
+            throw new IOException("The InputStream is closed");
+        if (items.size() >= MAX_ITEMS)
+            throw new InlineContentException("too many observations: limit is " + MAX_ITEMS);
+
+        Item item = new Item();
+        item.name = name;
+        items.add(item);
+        
+        // wrap the input stream in a byte counter to limit bytes read
+        ByteCountInputStream sizeLimitInputStream =
+            new ByteCountInputStream(inputStream, DOCUMENT_SIZE_MAX);
+        ObservationReader obsReader = new ObservationReader();
+        try
+        {
+            final Observation obs = obsReader.read(sizeLimitInputStream);
+            item.observation = obs;
+            item.validation = validator.submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    CaomValidator.validate(obs);
+                    return null;
+                }
+            });
+        }
+        catch(ObservationParsingException ex)
+        {
+            log.debug("failed to parse " + name, ex);
+            item.error = "failed to parse observation: " + ex.getMessage();
+        }
+        catch(ByteLimitExceededException ex)
+        {
+            log.debug(ex.getMessage(), ex);
+            item.error = "too large: limit is " + DOCUMENT_SIZE_MAX + " bytes";
+        }
+        
+        // the same list is returned for each part
+        InlineContentHandler.Content content = new InlineContentHandler.Content();
+        content.name = CONTENT_KEY;
+        content.value = items;
+        return content;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo.action;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.csvreader.CsvWriter;
+
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.persistence.TransactionManager;
+import ca.nrc.cadc.caom2.repo.ResponseCache;
+import ca.nrc.cadc.rest.InlineContentHandler;
+
+/**
+ * Store a batch of observations in one collection. The request is multipart with one
+ * observation document per part (see ObservationBatchInlineContentHandler); each 
+ * observation is inserted or updated. Observations are written in groups of COMMIT_SIZE
+ * per transaction; each observation is stored in a nested transaction so a failure only
+ * rolls back that observation, and the observations of a group that fails to commit are
+ * reported as failed. The response is a CSV status report with one row per part: name, 
+ * observation URI, status (OK|FAILED), and error message. Observations are validated 
+ * while the request is being read by a pool of threads owned by this action and shut 
+ * down when the request is done.
+ * 
+ * @author pdowler
+ */
+public class PostObservationsAction extends RepoAction
+{
+    private static final Logger log = Logger.getLogger(PostObservationsAction.class);
+
+    public static final int COMMIT_SIZE = 100;
+    
+    public static final String OK = "OK";
+    public static final String FAILED = "FAILED";
+    
+    private static final int MAX_VALIDATOR_THREADS = 4;
+    
+    private ExecutorService validator;
+
+    public PostObservationsAction() { }
+
+    @Override
+    public void doAction()
+        throws Exception
+    {
+        try
+        {
+            doPost();
+        }
+        finally
+        {
+            if (validator != null)
+            {
+                validator.shutdownNow();
+                validator = null;
+            }
+        }
+    }
+    
+    private void doPost()
+        throws Exception
+    {
+        if (getURI() != null)
+            throw new IllegalArgumentException("invalid request: expected collection only");
+        
+        String collection = getCollection();
+        log.debug("START: " + collection);
+
+        checkWritePermission(collection);
+
+        List<ObservationBatchInlineContentHandler.Item> items = (List<ObservationBatchInlineContentHandler.Item>) 
+                syncInput.getContent(ObservationBatchInlineContentHandler.CONTENT_KEY);
+        if (items == null || items.isEmpty())
+            throw new IllegalArgumentException("no observations found in request");
+        
+        ObservationDAO dao = getDAO();
+        TransactionManager txn = dao.getTransactionManager();
+        ResponseCache cache = ResponseCache.getInstance();
+        
+        String[] status = new String[items.size()];
+        String[] message = new String[items.size()];
+        // items stored in the current transaction
+        List<Integer> group = new ArrayList<Integer>();
+        int failed = 0;
+        long t = System.currentTimeMillis();
+        try
+        {
+            for (int i = 0; i < items.size(); i++)
+            {
+                ObservationBatchInlineContentHandler.Item item = items.get(i);
+                try
+                {
+                    if (item.error != null)
+                        throw new IllegalArgumentException(item.error);
+                    Observation obs = item.observation;
+                    if (!collection.equals(obs.getURI().getCollection()))
+                        throw new IllegalArgumentException("invalid input: " + obs.getURI() + " is not in collection " + collection);
+                    item.checkValid();
+                    
+                    if (!txn.isOpen())
+                        txn.startTransaction();
+                    dao.put(obs); // nested transaction
+                    status[i] = OK;
+                    group.add(i);
+                }
+                catch(IllegalArgumentException | UnsupportedOperationException ex)
+                {
+                    status[i] = FAILED;
+                    message[i] = ex.getMessage();
+                    failed++;
+                }
+                catch(RuntimeException ex)
+                {
+                    log.debug("failed to put " + item.name, ex);
+                    status[i] = FAILED;
+                    message[i] = ex.toString();
+                    failed++;
+                }
+                
+                if (group.size() == COMMIT_SIZE)
+                    failed += commit(txn, cache, items, group, status, message);
+            }
+            if (!group.isEmpty())
+                failed += commit(txn, cache, items, group, status, message);
+        }
+        catch(InterruptedException ex)
+        {
+            log.error("interrupted: rollback of uncommitted observations");
+            Thread.currentThread().interrupt();
+            if (txn.isOpen())
+                txn.rollbackTransaction();
+            String msg = "not stored: request was interrupted";
+            for (int i = 0; i < items.size(); i++)
+            {
+                if (status[i] == null || group.contains(i))
+                {
+                    status[i] = FAILED;
+                    message[i] = msg;
+                    failed++;
+                }
+            }
+        }
+        finally
+        {
+            if (txn.isOpen())
+            {
+                // unexpected failure: the current group was not stored
+                log.error("rollback of uncommitted observations after failure");
+                txn.rollbackTransaction();
+            }
+            long dt = System.currentTimeMillis() - t;
+            log.debug("stored " + (items.size() - failed) + " failed " + failed + " " + dt + "ms");
+        }
+
+        syncOutput.setHeader("Content-Type", "text/csv");
+        OutputStream os = openOutputStream();
+        CsvWriter writer = new CsvWriter(os, ',', Charset.defaultCharset());
+        try
+        {
+            for (int i = 0; i < items.size(); i++)
+            {
+                ObservationBatchInlineContentHandler.Item item = items.get(i);
+                writer.write(item.name);
+                if (item.observation != null)
+                    writer.write(item.observation.getURI().getURI().toASCIIString());
+                else
+                    writer.write("");
+                writer.write(status[i]);
+                writer.write(message[i] == null ? "" : message[i]);
+                writer.endRecord();
+            }
+        }
+        finally
+        {
+            writer.flush();
+            closeOutputStream();
+        }
+
+        log.debug("DONE: " + collection);
+    }
+
+    // commit the current group: on failure the items in the group are reported as FAILED;
+    // returns the number of failed items
+    private int commit(TransactionManager txn, ResponseCache cache, List<ObservationBatchInlineContentHandler.Item> items,
+            List<Integer> group, String[] status, String[] message)
+    {
+        int ret = 0;
+        try
+        {
+            if (txn.isOpen())
+                txn.commitTransaction();
+            log.debug("committed " + group.size());
+            
+            // invalidate only after the new state is visible to other requests
+            if (cache != null)
+            {
+                for (Integer i : group)
+                    cache.invalidate(items.get(i).observation.getURI());
+            }
+        }
+        catch(RuntimeException ex)
+        {
+            log.error("failed to commit " + group.size() + " observations", ex);
+            if (txn.isOpen())
+                txn.rollbackTransaction();
+            for (Integer i : group)
+            {
+                status[i] = FAILED;
+                message[i] = "commit failed: " + ex.toString();
+                ret++;
+            }
+        }
+        group.clear();
+        return ret;
+    }
+
+    @Override
+    protected InlineContentHandler getInlineContentHandler()
+    {
+        if (validator == null)
+        {
+            int n = Math.min(Runtime.getRuntime().availableProcessors(), MAX_VALIDATOR_THREADS);
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS, 
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "caom2-validator");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            // idle threads exit even if doAction is never called
+            tpe.allowCoreThreadTimeOut(true);
+            validator = tpe;
+        }
+        return new ObservationBatchInlineContentHandler(validator);
+    }
+}
@@ -74,6 +74,7 @@ import org.apache.log4j.Logger;
 import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.repo.ResponseCache;
 import ca.nrc.cadc.caom2.util.CaomValidator;
 import ca.nrc.cadc.net.ResourceAlreadyExistsException;
 import ca.nrc.cadc.rest.InlineContentHandler;
@@ -124,6 +125,9 @@ public class PutAction extends RepoAction
         }
 
         dao.put(obs);
+        ResponseCache cache = ResponseCache.getInstance();
+        if (cache != null)
+            cache.invalidate(uri);
 
         log.debug("DONE: " + uri);
     }
@@ -71,23 +71,30 @@ package ca.nrc.cadc.caom2.repo.action;
 
 import ca.nrc.cadc.ac.GroupURI;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.security.AccessControlException;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Logger;
 
 import ca.nrc.cadc.ac.UserNotFoundException;
-import ca.nrc.cadc.ac.client.GMSClient;
 import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.persistence.DatabaseObservationDAO;
 import ca.nrc.cadc.caom2.persistence.ObservationDAO;
 import ca.nrc.cadc.caom2.persistence.SQLGenerator;
 import ca.nrc.cadc.caom2.repo.CaomRepoConfig;
+import ca.nrc.cadc.caom2.repo.GMSMembershipProvider;
+import ca.nrc.cadc.caom2.repo.MembershipCache;
+import ca.nrc.cadc.caom2.repo.MembershipProvider;
 import ca.nrc.cadc.cred.client.CredUtil;
+import ca.nrc.cadc.io.ByteCountOutputStream;
 import ca.nrc.cadc.net.ResourceNotFoundException;
 import ca.nrc.cadc.rest.InlineContentHandler;
 import ca.nrc.cadc.rest.RestAction;
@@ -113,11 +120,49 @@ public abstract class RepoAction extends RestAction
 
     public static final String ERROR_MIMETYPE = "text/plain";
 
+    /**
+     * Parameter to get observations to a specified depth: 1 (observation only), 
+     * 2 (planes), 3 (artifacts), 4 (parts), or 5 (chunks, the default). Levels below 
+     * the requested depth are not loaded or serialized.
+     */
+    public static final String DEPTH_PARAM = "depth";
+
+    /**
+     * System property to set the compression level (1-9) of compressed responses; 
+     * 0 disables compression. The default is the zlib default level (6); lower 
+     * levels trade compression for throughput.
+     */
+    public static final String COMPRESSION_LEVEL_KEY = RepoAction.class.getName() + ".compressionLevel";
+
+    /**
+     * System property to set the size of the observation cache of each collection as 
+     * the maximum number of cached entities (observations, planes, artifacts, parts, 
+     * and chunks); 0 disables the cache. The default is DEFAULT_CACHE_SIZE.
+     */
+    public static final String CACHE_SIZE_KEY = RepoAction.class.getName() + ".cacheSize";
+    
+    public static final int DEFAULT_CACHE_SIZE = 20000;
+
     private final GroupURI CADC_GROUP_URI  = new GroupURI("ivo://cadc.nrc.ca/gms?CADC");
 
     private String collection;
     protected ObservationURI uri;
 
+    // parsed config and DAO setup shared by all requests, keyed by config file
+    private static final Map<File,SharedConfig> sharedConfigs = new HashMap<File,SharedConfig>();
+
+    private static MembershipProvider membershipProvider;
+
+    // response output stream state
+    private transient Integer compressionLevel;
+    private transient String contentEncoding;
+    private transient long precompressedLength = -1L;
+    private transient ByteCountOutputStream rawOutput;
+    private transient ByteCountOutputStream encodedOutput;
+    private transient DeflaterOutputStream compressor;
+    private transient Deflater deflater;
+
+    private transient SharedConfig sharedConfig;
     private transient CaomRepoConfig.Item repoConfig;
     private transient ObservationDAO dao;
 
@@ -164,6 +209,22 @@ public abstract class RepoAction extends RestAction
         }
     }
     
+    // depth parameter, default SQLGenerator.MAX_DEPTH
+    protected int getDepth()
+    {
+        String s = syncInput.getParameter(DEPTH_PARAM);
+        if (s == null)
+            return SQLGenerator.MAX_DEPTH;
+        try
+        {
+            int ret = Integer.parseInt(s.trim());
+            if (ret >= 1 && ret <= SQLGenerator.MAX_DEPTH)
+                return ret;
+        }
+        catch(NumberFormatException ignore) { }
+        throw new IllegalArgumentException("invalid " + DEPTH_PARAM + ": " + s + " (expected 1-" + SQLGenerator.MAX_DEPTH + ")");
+    }
+
     // return uri for get-observation, null for get-list, and throw for invalid
     protected ObservationURI getURI()
     {
@@ -236,22 +297,13 @@ public abstract class RepoAction extends RestAction
         {
             if ( CredUtil.checkCredentials() )
             {
-                GroupURI grw = i.getReadWriteGroup();
-                GMSClient gms = new GMSClient(grw.getServiceID());                
-                if (gms.isMember(grw.getName()))
-                	return;
-                
-                GroupURI gro = i.getReadOnlyGroup();
-                if (!grw.getServiceID().equals(gro.getServiceID()))
-                    gms = new GMSClient(gro.getServiceID());
-                    
-                if (gms.isMember(gro.getName()))
-                	return;
-
-                if (!gro.getServiceID().equals(CADC_GROUP_URI.getServiceID()))
-                    gms = new GMSClient(CADC_GROUP_URI.getServiceID());
-                if (gms.isMember(CADC_GROUP_URI.getName()))
-                	return;
+                MembershipProvider mp = getMembershipProvider();
+                if (mp.isMember(i.getReadWriteGroup()))
+                    return;
+                if (mp.isMember(i.getReadOnlyGroup()))
+                    return;
+                if (mp.isMember(CADC_GROUP_URI))
+                    return;
             }
         }
         catch(AccessControlException ex)
@@ -277,6 +329,22 @@ public abstract class RepoAction extends RestAction
     protected void checkWritePermission(ObservationURI uri)
         throws AccessControlException, CertificateException,
                ResourceNotFoundException, IOException
+    {
+        checkWritePermission(uri.getCollection());
+    }
+
+    /**
+     * Check if the caller can create or modify resources in the specified collection.
+     *
+     * @param collection
+     * @throws AccessControlException
+     * @throws java.security.cert.CertificateException
+     * @throws ca.nrc.cadc.net.ResourceNotFoundException
+     * @throws java.io.IOException
+     */
+    protected void checkWritePermission(String collection)
+        throws AccessControlException, CertificateException,
+               ResourceNotFoundException, IOException
     {
         initState();
         if (!writable)
@@ -286,19 +354,16 @@ public abstract class RepoAction extends RestAction
             throw new IllegalStateException(OFFLINE_MSG);
         }
 
-        CaomRepoConfig.Item i = getConfig(uri.getCollection());
+        CaomRepoConfig.Item i = getConfig(collection);
         if (i == null)
             throw new ResourceNotFoundException(
-                    "not found: " + uri);
+                    "not found: " + collection);
 
         try
         {
             if ( CredUtil.checkCredentials() )
             {
-                GroupURI guri = i.getReadWriteGroup();
-                URI gmsURI = guri.getServiceID();
-                GMSClient gms = new GMSClient(gmsURI);                
-                if (gms.isMember(guri.getName()))
+                if (getMembershipProvider().isMember(i.getReadWriteGroup()))
                     return;
             }
         }
@@ -314,6 +379,239 @@ public abstract class RepoAction extends RestAction
         throw new AccessControlException("permission denied: " + getURI());
     }
 
+    /**
+     * Open the response output stream, compressed with gzip or deflate if the client 
+     * accepts it. The Content-Type header must be set before calling this method and 
+     * closeOutputStream() must be called after writing.
+     * 
+     * @return output stream for the uncompressed response
+     * @throws IOException 
+     */
+    protected OutputStream openOutputStream()
+        throws IOException
+    {
+        String enc = getContentEncoding();
+        int level = compressionLevel;
+        if (level != 0)
+            syncOutput.setHeader("Vary", "Accept-Encoding");
+        if (enc != null)
+            syncOutput.setHeader("Content-Encoding", enc);
+        
+        this.encodedOutput = new ByteCountOutputStream(syncOutput.getOutputStream());
+        if ("gzip".equals(contentEncoding))
+        {
+            LevelGZIPOutputStream gz = new LevelGZIPOutputStream(encodedOutput, level);
+            this.deflater = gz.getDeflater();
+            this.compressor = gz;
+            this.rawOutput = new ByteCountOutputStream(compressor);
+        }
+        else if ("deflate".equals(contentEncoding))
+        {
+            this.deflater = new Deflater(level);
+            this.compressor = new DeflaterOutputStream(encodedOutput, deflater, 8192);
+            this.rawOutput = new ByteCountOutputStream(compressor);
+        }
+        else
+            this.rawOutput = encodedOutput;
+        return rawOutput;
+    }
+
+    /**
+     * Open the response output stream for content that is already compressed with 
+     * the encoding returned by getContentEncoding(); the bytes are sent as-is. 
+     * closeOutputStream() must be called after writing.
+     * 
+     * @param rawLength uncompressed length of the content
+     * @return output stream for the compressed response
+     * @throws IOException 
+     */
+    protected OutputStream openPrecompressedOutputStream(long rawLength)
+        throws IOException
+    {
+        String enc = getContentEncoding();
+        if (enc == null)
+            throw new IllegalStateException("BUG: no content encoding accepted for precompressed output");
+        syncOutput.setHeader("Vary", "Accept-Encoding");
+        syncOutput.setHeader("Content-Encoding", enc);
+        
+        this.encodedOutput = new ByteCountOutputStream(syncOutput.getOutputStream());
+        this.rawOutput = encodedOutput;
+        this.precompressedLength = rawLength;
+        return rawOutput;
+    }
+    
+    /**
+     * Get the content encoding of the response: gzip or deflate if compression is 
+     * enabled and the client accepts it, otherwise null (identity). Validators of 
+     * the response must depend on this value.
+     * 
+     * @return gzip, deflate, or null
+     */
+    protected String getContentEncoding()
+    {
+        if (compressionLevel == null)
+        {
+            int level = getCompressionLevel();
+            if (level != 0)
+                this.contentEncoding = getAcceptedEncoding(syncInput.getHeader("Accept-Encoding"));
+            this.compressionLevel = level;
+        }
+        return contentEncoding;
+    }
+
+    /**
+     * Finish writing the response and record the number of bytes written. For 
+     * compressed responses the uncompressed size is recorded in the log message.
+     * The compressor is released even if writing fails.
+     * 
+     * @throws IOException 
+     */
+    protected void closeOutputStream()
+        throws IOException
+    {
+        if (rawOutput == null)
+            return;
+        try
+        {
+            rawOutput.flush();
+            if (compressor != null)
+            {
+                compressor.finish();
+                logInfo.setMessage(contentEncoding + " " + rawOutput.getByteCount() + " -> " + encodedOutput.getByteCount());
+            }
+            else if (precompressedLength >= 0L)
+                logInfo.setMessage(contentEncoding + " " + precompressedLength + " -> " + encodedOutput.getByteCount());
+            encodedOutput.flush();
+            logInfo.setBytes(encodedOutput.getByteCount());
+        }
+        finally
+        {
+            // release native memory now rather than when collected, even if the client went away
+            if (deflater != null)
+            {
+                deflater.end();
+                this.deflater = null;
+            }
+            this.compressor = null;
+            this.rawOutput = null;
+        }
+    }
+
+    private static class LevelGZIPOutputStream extends GZIPOutputStream
+    {
+        LevelGZIPOutputStream(OutputStream out, int level)
+            throws IOException
+        {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+        
+        Deflater getDeflater()
+        {
+            return def;
+        }
+    }
+
+    private static int getCompressionLevel()
+    {
+        String val = System.getProperty(COMPRESSION_LEVEL_KEY);
+        if (val == null)
+            return Deflater.DEFAULT_COMPRESSION;
+        try
+        {
+            int ret = Integer.parseInt(val.trim());
+            if (ret >= 0 && ret <= 9)
+                return ret;
+        }
+        catch(NumberFormatException ignore) { }
+        log.warn("invalid " + COMPRESSION_LEVEL_KEY + "=" + val + ", using default");
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    private static int getCacheSize()
+    {
+        String val = System.getProperty(CACHE_SIZE_KEY);
+        if (val == null)
+            return DEFAULT_CACHE_SIZE;
+        try
+        {
+            int ret = Integer.parseInt(val.trim());
+            if (ret >= 0)
+                return ret;
+        }
+        catch(NumberFormatException ignore) { }
+        log.warn("invalid " + CACHE_SIZE_KEY + "=" + val + ", using default");
+        return DEFAULT_CACHE_SIZE;
+    }
+
+    /**
+     * Choose gzip or deflate from an Accept-Encoding header value. Entries with q=0 
+     * are not acceptable; gzip is preferred when q values are equal.
+     * 
+     * @param acceptEncoding header value, may be null
+     * @return gzip, deflate, or null for no encoding
+     */
+    static String getAcceptedEncoding(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+            return null;
+        double gzip = -1.0;
+        double deflate = -1.0;
+        double any = -1.0;
+        for (String enc : acceptEncoding.split(","))
+        {
+            String[] parts = enc.split(";");
+            String name = parts[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++)
+            {
+                String p = parts[i].trim();
+                if (p.startsWith("q="))
+                {
+                    try
+                    {
+                        q = Double.parseDouble(p.substring(2).trim());
+                    }
+                    catch(NumberFormatException ex)
+                    {
+                        q = 0.0;
+                    }
+                }
+            }
+            if ("gzip".equals(name) || "x-gzip".equals(name))
+                gzip = q;
+            else if ("deflate".equals(name))
+                deflate = q;
+            else if ("*".equals(name))
+                any = q;
+        }
+        if (gzip < 0.0)
+            gzip = any;
+        if (deflate < 0.0)
+            deflate = any;
+        if (gzip > 0.0 && gzip >= deflate)
+            return "gzip";
+        if (deflate > 0.0)
+            return "deflate";
+        return null;
+    }
+
+    /**
+     * Get the provider used to check group membership of the caller. The default
+     * is a MembershipCache shared by all requests in front of GMS.
+     * 
+     * @return membership provider
+     */
+    protected MembershipProvider getMembershipProvider()
+    {
+        synchronized(RepoAction.class)
+        {
+            if (membershipProvider == null)
+                membershipProvider = new MembershipCache(new GMSMembershipProvider());
+            return membershipProvider;
+        }
+    }
+
     @Override
     protected InlineContentHandler getInlineContentHandler()
     {
@@ -329,11 +627,9 @@ public abstract class RepoAction extends RestAction
         
         String serviceName = syncInput.getContextPath();
         File config = new File(System.getProperty("user.home") + "/config", serviceName + ".properties");
-        CaomRepoConfig rc = new CaomRepoConfig(config);
-        if (rc.isEmpty())
-            throw new IllegalStateException("no RepoConfig.Item(s)found");
+        this.sharedConfig = getSharedConfig(config);
 
-        this.repoConfig = rc.getConfig(collection);
+        this.repoConfig = sharedConfig.config.getConfig(collection);
         return repoConfig;
     }
 
@@ -343,16 +639,67 @@ public abstract class RepoAction extends RestAction
     {
         CaomRepoConfig.Item i = getConfig(collection);
         if (i != null)
+            return sharedConfig.getDAO(i);
+        throw new IllegalArgumentException("unknown collection: " + collection);
+    }
+
+    // parse the config file once and again only when it changes
+    private static SharedConfig getSharedConfig(File config)
+        throws IOException
+    {
+        synchronized(sharedConfigs)
         {
-            ObservationDAO ret = new DatabaseObservationDAO();
-            Map<String,Object> props = new HashMap<String,Object>();
-            props.put("jndiDataSourceName", i.getDataSourceName());
-            props.put("database", i.getDatabase());
-            props.put("schema", i.getSchema());
-            props.put(SQLGenerator.class.getName(), i.getSqlGenerator());
-            ret.setConfig(props);
+            SharedConfig ret = sharedConfigs.get(config);
+            if (ret == null || ret.config.isStale())
+            {
+                CaomRepoConfig rc = new CaomRepoConfig(config);
+                if (rc.isEmpty())
+                    throw new IllegalStateException("no RepoConfig.Item(s)found");
+                ret = new SharedConfig(rc);
+                sharedConfigs.put(config, ret);
+                log.info("loaded " + config);
+            }
             return ret;
         }
-        throw new IllegalArgumentException("unknown collection: " + collection);
+    }
+
+    private static class SharedConfig
+    {
+        final CaomRepoConfig config;
+        
+        // configured DAO per collection: holds the DataSource, SQLGenerator, and observation
+        // cache shared by the per-request DAOs (the DAO transaction manager is not thread safe)
+        private final Map<String,DatabaseObservationDAO> templates = new HashMap<String,DatabaseObservationDAO>();
+
+        SharedConfig(CaomRepoConfig config)
+        {
+            this.config = config;
+        }
+        
+        ObservationDAO getDAO(CaomRepoConfig.Item i)
+        {
+            DatabaseObservationDAO template;
+            synchronized(templates)
+            {
+                template = templates.get(i.getCollection());
+                if (template == null)
+                {
+                    template = new DatabaseObservationDAO();
+                    Map<String,Object> props = new HashMap<String,Object>();
+                    props.put("jndiDataSourceName", i.getDataSourceName());
+                    props.put("database", i.getDatabase());
+                    props.put("schema", i.getSchema());
+                    props.put(SQLGenerator.class.getName(), i.getSqlGenerator());
+                    props.put("batchPut", Boolean.TRUE);
+                    int cacheSize = getCacheSize();
+                    if (cacheSize > 0)
+                        props.put("cacheSize", cacheSize);
+                    template.setConfig(props);
+                    templates.put(i.getCollection(), template);
+                    log.debug("configured DAO for " + i.getCollection());
+                }
+            }
+            return new DatabaseObservationDAO(template);
+        }
     }
 }
@@ -71,6 +71,7 @@ package ca.nrc.cadc.caom2.repo;
 
 import ca.nrc.cadc.caom2.persistence.SybaseSQLGenerator;
 import java.io.File;
+import java.io.FileWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
@@ -330,4 +331,44 @@ public class CaomRepoConfigTest
         }
     }
 
+    @Test
+    public void testIsStale()
+    {
+        File cf = null;
+        try
+        {
+            cf = File.createTempFile("CaomRepoConfigTest", ".properties");
+            String line = "TEST_OK = dsname database schema caom2obs ivo://cadc.nrc.ca/gms?group1 ivo://cadc.nrc.ca/gms?group2 ca.nrc.cadc.caom2.repo.DummySQLGeneratorImpl\n";
+            FileWriter w = new FileWriter(cf);
+            w.write(line);
+            w.close();
+            
+            CaomRepoConfig rc = new CaomRepoConfig(cf);
+            Assert.assertFalse(rc.isEmpty());
+            Assert.assertFalse(rc.isStale());
+            
+            w = new FileWriter(cf, true);
+            w.write(line.replace("TEST_OK", "TEST_TWO"));
+            w.close();
+            Assert.assertTrue(rc.isStale());
+            
+            rc = new CaomRepoConfig(cf);
+            Assert.assertFalse(rc.isStale());
+            Assert.assertNotNull(rc.getConfig("TEST_TWO"));
+            
+            cf.delete();
+            Assert.assertTrue(rc.isStale());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+        finally
+        {
+            if (cf != null)
+                cf.delete();
+        }
+    }
+
 }
@@ -80,8 +80,10 @@ import ca.nrc.cadc.caom2.persistence.SQLGenerator;
 import ca.nrc.cadc.caom2.persistence.skel.Skeleton;
 import java.net.URI;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -137,6 +139,12 @@ public class DummySQLGeneratorImpl implements SQLGenerator
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public String getSelectLastModifiedRangeSQL(Class type, Date date, UUID uuid, Date date1, Integer intgr)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
     @Override
     public String getSelectSQL(Class type, Date date, Date date1, Integer intgr)
     {
@@ -149,12 +157,90 @@ public class DummySQLGeneratorImpl implements SQLGenerator
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public String getSelectSQL(Class type, Date date, UUID uuid, Date date1, Integer intgr, String string)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
     @Override
     public String getObservationSelectSQL(Class type, Date date, Date date1, int i)
     {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public String getObservationSelectSQL(Class type, Date date, UUID uuid, Date date1, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public String getObservationIteratorSQL(String string, Date date, Date date1, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectStatement(ObservationURI ouri, int i, boolean bln)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectStatement(UUID uuid, int i, boolean bln)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getStateSelectStatement(ObservationURI ouri)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectStatement(String string, List<String> list, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectStatement(List<UUID> list, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectLastModifiedRangeStatement(Class type, Date date, Date date1, Integer intgr)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getSelectLastModifiedRangeStatement(Class type, Date date, UUID uuid, Date date1, Integer intgr)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getObservationSelectStatement(Class type, Date date, Date date1, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getObservationSelectStatement(Class type, Date date, UUID uuid, Date date1, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public PreparedStatementCreator getObservationIteratorStatement(String string, Date date, Date date1, int i)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
     @Override
     public ResultSetExtractor getObservationExtractor()
     {
@@ -209,6 +295,18 @@ public class DummySQLGeneratorImpl implements SQLGenerator
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> type)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> type, List<UUID> ids)
+    {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
     @Override
     public String literal(Object o)
     {
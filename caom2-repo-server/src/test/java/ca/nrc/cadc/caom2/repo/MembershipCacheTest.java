@@ -0,0 +1,292 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo;
+
+import java.io.IOException;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.security.auth.Subject;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.nrc.cadc.ac.GroupURI;
+import ca.nrc.cadc.ac.UserNotFoundException;
+import ca.nrc.cadc.util.Log4jInit;
+
+/**
+ *
+ * @author pdowler
+ */
+public class MembershipCacheTest 
+{
+    private static final Logger log = Logger.getLogger(MembershipCacheTest.class);
+
+    static
+    {
+        Log4jInit.setLevel("ca.nrc.cadc.caom2", Level.INFO);
+    }
+
+    private final GroupURI group1 = new GroupURI("ivo://cadc.nrc.ca/gms?group1");
+    private final GroupURI group2 = new GroupURI("ivo://cadc.nrc.ca/gms?group2");
+    private final X500Principal alice = new X500Principal("CN=alice,OU=test,O=org,C=ca");
+    private final X500Principal bob = new X500Principal("CN=bob,OU=test,O=org,C=ca");
+
+    private static Subject subject(X500Principal p)
+    {
+        Subject ret = new Subject();
+        ret.getPrincipals().add(p);
+        return ret;
+    }
+
+    private static boolean isMember(final MembershipProvider mp, Subject s, final GroupURI g)
+        throws Exception
+    {
+        try
+        {
+            return Subject.doAs(s, new PrivilegedExceptionAction<Boolean>()
+            {
+                public Boolean run() throws Exception
+                {
+                    return mp.isMember(g);
+                }
+            });
+        }
+        catch(PrivilegedActionException ex)
+        {
+            throw ex.getException();
+        }
+    }
+
+    @Test
+    public void testPositiveNegative()
+    {
+        try
+        {
+            LocalMembershipProvider local = new LocalMembershipProvider();
+            local.addMember(alice, group1);
+            MembershipCache mc = new MembershipCache(local, 60000L, 60000L);
+
+            Assert.assertTrue(isMember(mc, subject(alice), group1));
+            Assert.assertTrue(isMember(mc, subject(alice), group1));
+            Assert.assertEquals(1, local.getCalls());
+
+            // negative result is cached
+            Assert.assertFalse(isMember(mc, subject(alice), group2));
+            Assert.assertFalse(isMember(mc, subject(alice), group2));
+            Assert.assertEquals(2, local.getCalls());
+
+            // keyed by caller
+            Assert.assertFalse(isMember(mc, subject(bob), group1));
+            Assert.assertEquals(3, local.getCalls());
+            Assert.assertEquals(3, mc.size());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testExpiry()
+    {
+        try
+        {
+            LocalMembershipProvider local = new LocalMembershipProvider();
+            local.addMember(alice, group1);
+            MembershipCache mc = new MembershipCache(local, 60000L, 100L);
+
+            Assert.assertFalse(isMember(mc, subject(alice), group2));
+            local.addMember(alice, group2);
+            Assert.assertFalse(isMember(mc, subject(alice), group2));
+            Assert.assertEquals(1, local.getCalls());
+
+            Thread.sleep(200L);
+            Assert.assertTrue(isMember(mc, subject(alice), group2));
+            Assert.assertEquals(2, local.getCalls());
+
+            // negative caching disabled
+            mc = new MembershipCache(local, 60000L, 0L);
+            Assert.assertFalse(isMember(mc, subject(bob), group1));
+            Assert.assertFalse(isMember(mc, subject(bob), group1));
+            Assert.assertEquals(4, local.getCalls());
+            Assert.assertEquals(0, mc.size());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testFailureNotCached()
+    {
+        try
+        {
+            LocalMembershipProvider local = new LocalMembershipProvider();
+            local.addMember(alice, group1);
+            local.setFailure(new IOException("service unavailable"));
+            MembershipCache mc = new MembershipCache(local, 60000L, 60000L);
+
+            try
+            {
+                isMember(mc, subject(alice), group1);
+                Assert.fail("expected IOException");
+            }
+            catch(IOException expected)
+            {
+                log.debug("caught expected: " + expected);
+            }
+            Assert.assertEquals(0, mc.size());
+
+            local.setFailure(null);
+            Assert.assertTrue(isMember(mc, subject(alice), group1));
+            Assert.assertEquals(2, local.getCalls());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsCoalesce()
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            final LocalMembershipProvider local = new LocalMembershipProvider();
+            local.addMember(alice, group1);
+            local.setDelay(500L);
+            final MembershipCache mc = new MembershipCache(local, 60000L, 60000L);
+
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 4; i++)
+            {
+                results.add(pool.submit(new Callable<Boolean>()
+                {
+                    public Boolean call() throws Exception
+                    {
+                        return isMember(mc, subject(alice), group1);
+                    }
+                }));
+            }
+            for (Future<Boolean> f : results)
+                Assert.assertTrue(f.get());
+            Assert.assertEquals(1, local.getCalls());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoSubject()
+    {
+        try
+        {
+            LocalMembershipProvider local = new LocalMembershipProvider();
+            MembershipCache mc = new MembershipCache(local, 60000L, 60000L);
+            try
+            {
+                mc.isMember(group1);
+                Assert.fail("expected UserNotFoundException");
+            }
+            catch(UserNotFoundException expected)
+            {
+                log.debug("caught expected: " + expected);
+            }
+            Assert.assertEquals(0, mc.size());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo;
+
+import ca.nrc.cadc.caom2.ObservationURI;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.nrc.cadc.util.Log4jInit;
+
+/**
+ *
+ * @author pdowler
+ */
+public class ResponseCacheTest 
+{
+    private static final Logger log = Logger.getLogger(ResponseCacheTest.class);
+
+    static
+    {
+        Log4jInit.setLevel("ca.nrc.cadc.caom2", Level.INFO);
+    }
+
+    private static byte[] read(InputStream istream, boolean gzip)
+        throws IOException
+    {
+        if (gzip)
+            istream = new GZIPInputStream(istream);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = istream.read(buf)) != -1)
+            bos.write(buf, 0, n);
+        istream.close();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testGetPut()
+    {
+        try
+        {
+            for (boolean gzip : new boolean[] { false, true })
+            {
+                ResponseCache cache = new ResponseCache(1024L*1024L, null, 0L, gzip);
+                ObservationURI uri = new ObservationURI("FOO", "bar");
+                Date d1 = new Date();
+                Date d2 = new Date(d1.getTime() + 1000L);
+                byte[] doc = "<observation>foo</observation>".getBytes("UTF-8");
+
+                Assert.assertNull(cache.get(uri, d1));
+                cache.put(uri, d1, doc);
+                Assert.assertEquals(1, cache.size());
+
+                InputStream istream = cache.get(uri, d1);
+                Assert.assertNotNull(istream);
+                Assert.assertArrayEquals(doc, read(istream, gzip));
+
+                // out of date entry is removed
+                Assert.assertNull(cache.get(uri, d2));
+                Assert.assertEquals(0, cache.size());
+
+                cache.put(uri, d2, doc);
+                Assert.assertNotNull(cache.get(uri, d2));
+                cache.invalidate(uri);
+                Assert.assertNull(cache.get(uri, d2));
+                Assert.assertEquals(0L, cache.getNumBytes());
+
+                Assert.assertEquals(2L, cache.getHits());
+                Assert.assertEquals(3L, cache.getMisses());
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testEvictAndSpill()
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ResponseCacheTest-" + System.currentTimeMillis());
+        try
+        {
+            byte[] doc = new byte[100];
+            Date d = new Date();
+            ObservationURI u1 = new ObservationURI("FOO", "obs1");
+            ObservationURI u2 = new ObservationURI("FOO", "obs2");
+            ObservationURI u3 = new ObservationURI("FOO", "obs3");
+
+            // memory only: least-recently-used is dropped
+            ResponseCache cache = new ResponseCache(250L, null, 0L, false);
+            cache.put(u1, d, doc);
+            cache.put(u2, d, doc);
+            read(cache.get(u1, d), false); // u2 is now LRU
+            cache.put(u3, d, doc);
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(200L, cache.getNumBytes());
+            Assert.assertNull(cache.get(u2, d));
+            Assert.assertNotNull(cache.get(u1, d));
+            Assert.assertNotNull(cache.get(u3, d));
+
+            // with spill: evicted documents are served from disk
+            cache = new ResponseCache(250L, dir, 150L, false);
+            cache.put(u1, d, doc);
+            cache.put(u2, d, doc);
+            cache.put(u3, d, doc);
+            Assert.assertEquals(3, cache.size());
+            Assert.assertEquals(100L, cache.getNumDiskBytes());
+            Assert.assertArrayEquals(doc, read(cache.get(u1, d), false));
+            Assert.assertEquals(1, dir.listFiles().length);
+
+            cache.invalidate(u1);
+            Assert.assertEquals(0L, cache.getNumDiskBytes());
+            Assert.assertEquals(0, dir.listFiles().length);
+            
+            cache.clear();
+            Assert.assertEquals(0, cache.size());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+        finally
+        {
+            File[] files = dir.listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                    f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -128,6 +128,12 @@ public class TestSyncOutput extends SyncOutput
         return new String(bytes);
     }
 
+    public byte[] getBytes()
+    {
+        ByteArrayOutputStream myOut = (ByteArrayOutputStream) outputStream;
+        return myOut.toByteArray();
+    }
+
     public int getCode()
     {
         return code;
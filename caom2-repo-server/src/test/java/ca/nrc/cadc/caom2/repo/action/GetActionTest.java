@@ -74,6 +74,8 @@ import static org.easymock.EasyMock.mock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.AccessControlException;
 import java.security.cert.CertificateException;
@@ -83,6 +85,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -90,15 +94,22 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.easymock.EasyMock;
 import org.easymock.EasyMockRunner;
+import org.easymock.IAnswer;
 import org.easymock.MockType;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationState;
+import ca.nrc.cadc.caom2.ObservationURI;
+import ca.nrc.cadc.caom2.SimpleObservation;
 import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.persistence.ResultHandler;
+import ca.nrc.cadc.caom2.persistence.SQLGenerator;
 import ca.nrc.cadc.caom2.repo.TestSyncOutput;
+import ca.nrc.cadc.caom2.util.CaomUtil;
 import ca.nrc.cadc.date.DateUtil;
 import ca.nrc.cadc.log.WebServiceLogInfo;
 import ca.nrc.cadc.net.ResourceNotFoundException;
@@ -130,25 +141,29 @@ public class GetActionTest
         mockDao = EasyMock.createMock(MockType.NICE, ObservationDAO.class);
     }
 
-    @Test(expected=ResourceNotFoundException.class)
-    public void testCollectionNotFoundException() throws Exception
+    @Test
+    public void testEmptyCollection() throws Exception
     {
-
+        // the list is streamed so an unknown or empty collection is an empty list
         HttpServletRequest mockRequest = mock(HttpServletRequest.class);
 
         GetAction getAction = new TestGetAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
 
         reset(mockDao);
         expect(mockRequest.getMethod()).andReturn("GET");
         expect(mockRequest.getPathInfo()).andReturn("/BLAH");
-        expect(mockDao.getObservationList("BLAH", null, null, null))
-            .andReturn(null);
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
+        expectObservationList("BLAH", null, null, GetAction.MAX_OBS_LIST_SIZE, 
+                new ArrayList<ObservationState>());
 
         Enumeration<String> params = Collections.emptyEnumeration();
         expect(mockRequest.getParameterNames()).andReturn(params);
         replay(mockDao, mockRequest);
         getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
-        getAction.doAction();
+        getAction.run();
+        Assert.assertEquals("", out.getContent());
     }
 
     @Test
@@ -167,6 +182,7 @@ public class GetActionTest
 
         expect(mockRequest.getMethod()).andReturn("GET");
         expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
 
         // build the list of observations for the mock dao to return
         List<ObservationState> obsList = new ArrayList<ObservationState>();
@@ -178,8 +194,7 @@ public class GetActionTest
         expect(mockRequest.getParameterNames()).andReturn(params);
 
         // since no maxRec argument given, expect the default one
-        expect(mockDao.getObservationList("TEST", null, null,
-                GetAction.MAX_OBS_LIST_SIZE)).andReturn(obsList);
+        expectObservationList("TEST", null, null, GetAction.MAX_OBS_LIST_SIZE, obsList);
 
         replay(mockDao, mockRequest);
 
@@ -203,6 +218,7 @@ public class GetActionTest
         // build the list of observations for the mock dao to return
         expect(mockRequest.getMethod()).andReturn("GET");
         expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
         List<String> keys = new ArrayList<String>();
         keys.add("MAXREC");
         keys.add("Start");
@@ -219,8 +235,7 @@ public class GetActionTest
             andReturn(new String[]{endDate});
 
         // all arguments given
-        expect(mockDao.getObservationList("TEST", df.parse(startDate),
-                df.parse(endDate), 3)).andReturn(obsList);
+        expectObservationList("TEST", df.parse(startDate), df.parse(endDate), 3, obsList);
 
         replay(mockDao, mockRequest);
 
@@ -231,6 +246,216 @@ public class GetActionTest
 
 
 
+    @Test
+    public void testCursor() throws Exception
+    {
+        DateFormat df = DateUtil.getDateFormat(DateUtil.IVOA_DATE_FORMAT, DateUtil.UTC);
+        Date date0 = df.parse("2010-10-10T10:10:10.100");
+        UUID id0 = new UUID(0L, 100L);
+        String cursor = GetAction.encodeCursor(new ObservationState("TEST", "0000", date0, id0));
+        ObservationState rt = GetAction.decodeCursor(cursor);
+        Assert.assertEquals(date0, rt.getMaxLastModified());
+        Assert.assertEquals(id0, rt.getID());
+
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        GetAction getAction = new TestGetAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
+
+        reset(mockDao);
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
+        List<String> keys = new ArrayList<String>();
+        keys.add(GetAction.CURSOR_PARAM);
+        expect(mockRequest.getParameterNames()).andReturn(Collections.enumeration(keys));
+        expect(mockRequest.getParameterValues(GetAction.CURSOR_PARAM)).andReturn(new String[] { cursor });
+
+        // same timestamp as the cursor: only the ID makes it the next row
+        List<ObservationState> obsList = new ArrayList<ObservationState>();
+        ObservationState s1 = new ObservationState("TEST", "1234", date0, new UUID(0L, 200L));
+        obsList.add(s1);
+        Date date2 = df.parse("2011-11-11T11:11:11.111");
+        ObservationState s2 = new ObservationState("TEST", "6789", date2, new UUID(0L, 300L));
+        obsList.add(s2);
+        expectObservationList("TEST", date0, id0, null, GetAction.MAX_OBS_LIST_SIZE, obsList);
+
+        replay(mockDao, mockRequest);
+        getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
+        getAction.run();
+
+        String expected = "1234" + "," + df.format(date0) + "," + GetAction.encodeCursor(s1) + "\n" +
+                          "6789" + "," + df.format(date2) + "," + GetAction.encodeCursor(s2) + "\n";
+        Assert.assertEquals(expected, out.getContent());
+    }
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        DateFormat df = DateUtil.getDateFormat(DateUtil.IVOA_DATE_FORMAT, DateUtil.UTC);
+        Date date1 = df.parse("2010-10-10T10:10:10.100");
+        UUID id = new UUID(0L, 100L);
+        ObservationURI uri = new ObservationURI("TEST", "1234");
+        String etag = GetAction.getETag(id, date1);
+
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        GetAction getAction = new TestGetAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
+
+        reset(mockDao);
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST/1234");
+        Enumeration<String> params = Collections.emptyEnumeration();
+        expect(mockRequest.getParameterNames()).andReturn(params);
+        expect(mockRequest.getHeader("If-None-Match")).andReturn(etag).anyTimes();
+        expect(mockRequest.getHeader("If-Modified-Since")).andReturn(null).anyTimes();
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
+
+        // the state is enough: no call to get the observation
+        expect(mockDao.getState(uri)).andReturn(new ObservationState("TEST", "1234", date1, id));
+
+        replay(mockDao, mockRequest);
+        getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
+        getAction.run();
+
+        Assert.assertEquals(304, out.getCode());
+        Assert.assertEquals(etag, out.getHeaders().get("ETag"));
+        Assert.assertNotNull(out.getHeaders().get("Last-Modified"));
+        EasyMock.verify(mockDao);
+    }
+
+    @Test
+    public void testETagEncoding() throws Exception
+    {
+        UUID id = new UUID(0L, 100L);
+        Date date1 = new Date();
+        String identity = GetAction.getETag(id, date1);
+        String gzip = GetAction.getETag(id, date1, SQLGenerator.MAX_DEPTH, "gzip");
+        String deflate = GetAction.getETag(id, date1, SQLGenerator.MAX_DEPTH, "deflate");
+        Assert.assertEquals(identity, GetAction.getETag(id, date1, SQLGenerator.MAX_DEPTH, null));
+        Assert.assertFalse(identity.equals(gzip));
+        Assert.assertFalse(identity.equals(deflate));
+        Assert.assertFalse(gzip.equals(deflate));
+        Assert.assertFalse(gzip.equals(GetAction.getETag(id, date1, 2, "gzip")));
+    }
+
+    @Test
+    public void testDepth() throws Exception
+    {
+        ObservationURI uri = new ObservationURI("TEST", "1234");
+        Observation obs = new SimpleObservation("TEST", "1234");
+        Date date1 = new Date();
+        CaomUtil.assignLastModified(obs, date1, "maxLastModified");
+
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        GetAction getAction = new TestGetAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
+
+        reset(mockDao);
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST/1234");
+        List<String> keys = new ArrayList<String>();
+        keys.add(GetAction.DEPTH_PARAM);
+        expect(mockRequest.getParameterNames()).andReturn(Collections.enumeration(keys));
+        expect(mockRequest.getParameterValues(GetAction.DEPTH_PARAM)).andReturn(new String[] { "2" });
+        expect(mockRequest.getHeader(EasyMock.anyString())).andReturn(null).anyTimes();
+
+        expect(mockDao.get(uri, 2)).andReturn(obs);
+
+        replay(mockDao, mockRequest);
+        getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
+        getAction.run();
+
+        Assert.assertTrue(out.getContent().contains("1234"));
+        // partial representation has its own ETag
+        String etag = (String) out.getHeaders().get("ETag");
+        Assert.assertEquals(GetAction.getETag(obs.getID(), date1, 2), etag);
+        Assert.assertFalse(GetAction.getETag(obs.getID(), date1).equals(etag));
+        EasyMock.verify(mockDao);
+
+        // invalid depth
+        getAction = new TestGetAction(mockDao);
+        out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
+        reset(mockDao);
+        reset(mockRequest);
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST/1234");
+        expect(mockRequest.getParameterNames()).andReturn(Collections.enumeration(keys));
+        expect(mockRequest.getParameterValues(GetAction.DEPTH_PARAM)).andReturn(new String[] { "6" });
+        replay(mockDao, mockRequest);
+        getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
+        getAction.run();
+        Assert.assertEquals(400, out.getCode());
+    }
+
+    @Test
+    public void testCompressedList() throws Exception
+    {
+        DateFormat df = DateUtil.getDateFormat(DateUtil.IVOA_DATE_FORMAT, DateUtil.UTC);
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        GetAction getAction = new TestGetAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        getAction.setSyncOutput(out);
+
+        reset(mockDao);
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn("deflate;q=0.5, gzip").anyTimes();
+        Enumeration<String> params = Collections.emptyEnumeration();
+        expect(mockRequest.getParameterNames()).andReturn(params);
+
+        List<ObservationState> obsList = new ArrayList<ObservationState>();
+        Date date1 = df.parse("2010-10-10T10:10:10.10");
+        for (int i = 0; i < 100; i++)
+            obsList.add(new ObservationState("TEST", "obs" + i, date1));
+        expectObservationList("TEST", null, null, GetAction.MAX_OBS_LIST_SIZE, obsList);
+
+        replay(mockDao, mockRequest);
+        getAction.setSyncInput(new SyncInput(mockRequest, getAction.getInlineContentHandler()));
+        getAction.run();
+
+        Assert.assertEquals("gzip", out.getHeaders().get("Content-Encoding"));
+        byte[] compressed = out.getBytes();
+        GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = gz.read(buf)) != -1)
+            bos.write(buf, 0, n);
+        String content = new String(bos.toByteArray());
+        Assert.assertTrue(content.startsWith("obs0," + df.format(date1) + "\n"));
+        Assert.assertEquals(100, content.split("\n").length);
+        Assert.assertTrue(compressed.length < bos.size());
+    }
+
+    // the mock dao streams the states to the handler passed in by the action
+    private void expectObservationList(String collection, Date start, Date end, Integer maxRec,
+            final List<ObservationState> states)
+    {
+        expectObservationList(collection, start, null, end, maxRec, states);
+    }
+
+    private void expectObservationList(String collection, Date start, UUID afterID, Date end, Integer maxRec,
+            final List<ObservationState> states)
+    {
+        mockDao.getObservationList(EasyMock.eq(collection), EasyMock.eq(start), EasyMock.eq(afterID), 
+                EasyMock.eq(end), EasyMock.eq(maxRec), (ResultHandler<ObservationState>) EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>()
+        {
+            public Object answer() throws Throwable
+            {
+                ResultHandler<ObservationState> handler = 
+                        (ResultHandler<ObservationState>) EasyMock.getCurrentArguments()[5];
+                for (ObservationState s : states)
+                    handler.handle(s);
+                return null;
+            }
+        });
+    }
+
     private class TestLogInfo extends WebServiceLogInfo
     {
 
@@ -0,0 +1,233 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo.action;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.mock;
+import static org.easymock.EasyMock.replay;
+
+import java.io.IOException;
+import java.security.AccessControlException;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.MockType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.ObservationURI;
+import ca.nrc.cadc.caom2.SimpleObservation;
+import ca.nrc.cadc.caom2.persistence.ObservationDAO;
+import ca.nrc.cadc.caom2.persistence.ResultHandler;
+import ca.nrc.cadc.caom2.persistence.SQLGenerator;
+import ca.nrc.cadc.caom2.repo.TestSyncOutput;
+import ca.nrc.cadc.log.WebServiceLogInfo;
+import ca.nrc.cadc.net.ResourceNotFoundException;
+import ca.nrc.cadc.rest.SyncInput;
+import ca.nrc.cadc.util.Log4jInit;
+
+/**
+ *
+ * @author pdowler
+ */
+public class GetObservationsActionTest
+{
+    private static final Logger log = Logger.getLogger(GetObservationsActionTest.class);
+
+    static
+    {
+        Log4jInit.setLevel("ca.nrc.cadc.caom2", Level.INFO);
+    }
+
+    @Test
+    public void testMultipleObservations() throws Exception
+    {
+        ObservationDAO mockDao = EasyMock.createMock(MockType.NICE, ObservationDAO.class);
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+
+        GetObservationsAction action = new TestGetObservationsAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        action.setSyncOutput(out);
+
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        expect(mockRequest.getHeader("Accept-Encoding")).andReturn(null).anyTimes();
+        List<String> keys = new ArrayList<String>();
+        keys.add(GetObservationsAction.URI_PARAM);
+        expect(mockRequest.getParameterNames()).andReturn(Collections.enumeration(keys));
+        // full URI, observationID, duplicate, and one that is not found
+        expect(mockRequest.getParameterValues(GetObservationsAction.URI_PARAM))
+            .andReturn(new String[] { "caom:TEST/obs1", "obs2", "obs1", "obs3" });
+
+        final List<Observation> found = new ArrayList<Observation>();
+        found.add(new SimpleObservation("TEST", "obs1"));
+        found.add(new SimpleObservation("TEST", "obs2"));
+        final List<ObservationURI> expected = new ArrayList<ObservationURI>();
+        expected.add(new ObservationURI("TEST", "obs1"));
+        expected.add(new ObservationURI("TEST", "obs2"));
+        expected.add(new ObservationURI("TEST", "obs3"));
+        
+        mockDao.getByURI((Collection<ObservationURI>) EasyMock.anyObject(), 
+                EasyMock.eq(SQLGenerator.MAX_DEPTH), (ResultHandler<Observation>) EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>()
+        {
+            public Object answer() throws Throwable
+            {
+                Collection<ObservationURI> uris = (Collection<ObservationURI>) EasyMock.getCurrentArguments()[0];
+                Assert.assertEquals(expected, new ArrayList<ObservationURI>(uris));
+                ResultHandler<Observation> handler = (ResultHandler<Observation>) EasyMock.getCurrentArguments()[2];
+                for (Observation o : found)
+                    handler.handle(o);
+                return null;
+            }
+        });
+
+        replay(mockDao, mockRequest);
+        action.setSyncInput(new SyncInput(mockRequest, action.getInlineContentHandler()));
+        action.run();
+        EasyMock.verify(mockDao);
+
+        String ct = (String) out.getHeaders().get("Content-Type");
+        Assert.assertNotNull(ct);
+        Assert.assertTrue(ct.startsWith("multipart/mixed; boundary="));
+        String boundary = ct.substring(ct.indexOf('=') + 1);
+        
+        String content = out.getContent();
+        log.debug(content);
+        Assert.assertTrue(content.contains("Content-Location: caom:TEST/obs1"));
+        Assert.assertTrue(content.contains("Content-Location: caom:TEST/obs2"));
+        Assert.assertFalse(content.contains("Content-Location: caom:TEST/obs3"));
+        Assert.assertEquals(3, content.split("--" + boundary).length - 1);
+        Assert.assertTrue(content.trim().endsWith("--" + boundary + "--"));
+    }
+
+    @Test
+    public void testWrongCollection() throws Exception
+    {
+        ObservationDAO mockDao = EasyMock.createMock(MockType.NICE, ObservationDAO.class);
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+
+        GetObservationsAction action = new TestGetObservationsAction(mockDao);
+        TestSyncOutput out = new TestSyncOutput();
+        action.setSyncOutput(out);
+
+        expect(mockRequest.getMethod()).andReturn("GET");
+        expect(mockRequest.getPathInfo()).andReturn("/TEST");
+        List<String> keys = new ArrayList<String>();
+        keys.add(GetObservationsAction.URI_PARAM);
+        expect(mockRequest.getParameterNames()).andReturn(Collections.enumeration(keys));
+        expect(mockRequest.getParameterValues(GetObservationsAction.URI_PARAM))
+            .andReturn(new String[] { "caom:OTHER/obs1" });
+
+        replay(mockDao, mockRequest);
+        action.setSyncInput(new SyncInput(mockRequest, action.getInlineContentHandler()));
+        action.run();
+        Assert.assertEquals(400, out.getCode());
+    }
+
+    private class TestLogInfo extends WebServiceLogInfo
+    {
+
+    }
+
+    private class TestGetObservationsAction extends GetObservationsAction
+    {
+        ObservationDAO dao;
+
+        TestGetObservationsAction(ObservationDAO dao)
+        {
+            super();
+            setLogInfo(new TestLogInfo());
+            this.dao = dao;
+        }
+
+        @Override
+        protected void checkReadPermission(String collection)
+                throws AccessControlException, CertificateException,
+                       ResourceNotFoundException, IOException
+        { }
+
+        @Override
+        protected ObservationDAO getDAO()
+        {
+            return dao;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2016.                            (c) 2016.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.repo.action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.SimpleObservation;
+import ca.nrc.cadc.caom2.xml.ObservationWriter;
+import ca.nrc.cadc.rest.InlineContentHandler;
+import ca.nrc.cadc.util.Log4jInit;
+
+/**
+ *
+ * @author pdowler
+ */
+public class ObservationBatchInlineContentHandlerTest
+{
+    private static final Logger log = Logger.getLogger(ObservationBatchInlineContentHandlerTest.class);
+
+    static
+    {
+        Log4jInit.setLevel("ca.nrc.cadc.caom2", Level.INFO);
+    }
+
+    @Test
+    public void testAcceptParts()
+    {
+        ExecutorService validator = Executors.newFixedThreadPool(2);
+        try
+        {
+            ObservationBatchInlineContentHandler handler = new ObservationBatchInlineContentHandler(validator);
+            ObservationWriter w = new ObservationWriter();
+
+            Observation o1 = new SimpleObservation("TEST", "obs1");
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            w.write(o1, bos);
+            handler.accept("part1", "text/xml", new ByteArrayInputStream(bos.toByteArray()));
+
+            handler.accept("part2", "text/xml", new ByteArrayInputStream("<not an observation".getBytes("UTF-8")));
+
+            Observation o3 = new SimpleObservation("TEST", "obs3");
+            bos = new ByteArrayOutputStream();
+            w.write(o3, bos);
+            InlineContentHandler.Content c = handler.accept("part3", "text/xml", new ByteArrayInputStream(bos.toByteArray()));
+
+            Assert.assertEquals(ObservationBatchInlineContentHandler.CONTENT_KEY, c.name);
+            List<ObservationBatchInlineContentHandler.Item> items = (List<ObservationBatchInlineContentHandler.Item>) c.value;
+            Assert.assertEquals(3, items.size());
+
+            ObservationBatchInlineContentHandler.Item i1 = items.get(0);
+            Assert.assertEquals("part1", i1.name);
+            Assert.assertNull(i1.error);
+            Assert.assertEquals(o1.getURI(), i1.observation.getURI());
+            i1.checkValid();
+
+            ObservationBatchInlineContentHandler.Item i2 = items.get(1);
+            Assert.assertEquals("part2", i2.name);
+            Assert.assertNull(i2.observation);
+            Assert.assertNotNull(i2.error);
+
+            ObservationBatchInlineContentHandler.Item i3 = items.get(2);
+            Assert.assertEquals(o3.getURI(), i3.observation.getURI());
+            i3.checkValid();
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+        finally
+        {
+            validator.shutdownNow();
+        }
+    }
+}
@@ -111,6 +111,30 @@ public class RepoActionTest
         }
     }
 
+    @Test
+    public void testAcceptedEncoding()
+    {
+        try
+        {
+            Assert.assertNull(RepoAction.getAcceptedEncoding(null));
+            Assert.assertNull(RepoAction.getAcceptedEncoding("identity"));
+            Assert.assertNull(RepoAction.getAcceptedEncoding("gzip;q=0"));
+            Assert.assertNull(RepoAction.getAcceptedEncoding("*;q=0"));
+            Assert.assertEquals("gzip", RepoAction.getAcceptedEncoding("gzip"));
+            Assert.assertEquals("gzip", RepoAction.getAcceptedEncoding("x-gzip"));
+            Assert.assertEquals("gzip", RepoAction.getAcceptedEncoding("deflate, gzip"));
+            Assert.assertEquals("gzip", RepoAction.getAcceptedEncoding("*"));
+            Assert.assertEquals("deflate", RepoAction.getAcceptedEncoding("deflate"));
+            Assert.assertEquals("deflate", RepoAction.getAcceptedEncoding("gzip;q=0.5, deflate"));
+            Assert.assertEquals("deflate", RepoAction.getAcceptedEncoding("gzip;q=0, *"));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     // test the exception handling in RepoAction.run()
 
     @Test
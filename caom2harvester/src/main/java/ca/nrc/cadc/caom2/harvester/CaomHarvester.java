@@ -10,7 +10,14 @@ import ca.nrc.cadc.caom2.access.PlaneDataReadAccess;
 import ca.nrc.cadc.caom2.access.PlaneMetaReadAccess;
 import ca.nrc.cadc.wcs.Transform;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 
 /**
@@ -34,6 +41,8 @@ public class CaomHarvester implements Runnable
     private DeletionHarvester planeMetaDeleter;
     
     private boolean init;
+    private boolean concurrent;
+    private volatile boolean stopped;
     
     private CaomHarvester() { }
 
@@ -93,6 +102,50 @@ public class CaomHarvester implements Runnable
         this.init = init;
     }
 
+    /**
+     * @param maxEntities maximum number of entities to prefetch from the source while 
+     * writing to the destination (plus at most one batch being read), 0 to disable
+     */
+    public void setPrefetch(int maxEntities)
+    {
+        if (obsHarvester != null)
+            obsHarvester.setPrefetch(maxEntities);
+    }
+
+    /**
+     * @param threads number of threads writing observations to the destination
+     */
+    public void setThreads(int threads)
+    {
+        if (obsHarvester != null)
+            obsHarvester.setThreads(threads);
+    }
+
+    /**
+     * @param batchDelete delete each batch of deleted entities in one transaction
+     */
+    public void setBatchDelete(boolean batchDelete)
+    {
+        if (obsDeleter != null)
+            obsDeleter.setBatchDelete(batchDelete);
+        if (observationMetaDeleter != null)
+            observationMetaDeleter.setBatchDelete(batchDelete);
+        if (planeDataDeleter != null)
+            planeDataDeleter.setBatchDelete(batchDelete);
+        if (planeMetaDeleter != null)
+            planeMetaDeleter.setBatchDelete(batchDelete);
+    }
+
+    /**
+     * @param commitSize maximum number of observations per destination transaction
+     * @param commitInterval maximum time (ms) a destination transaction stays open, 0 for no limit
+     */
+    public void setGroupCommit(int commitSize, long commitInterval)
+    {
+        if (obsHarvester != null)
+            obsHarvester.setGroupCommit(commitSize, commitInterval);
+    }
+
     
     public static CaomHarvester getTestHarvester(boolean dryrun, String[] src, String[] dest, 
             Integer batchSize, Integer batchFactor, boolean full, boolean skip, Date maxdate)
@@ -114,6 +167,156 @@ public class CaomHarvester implements Runnable
         return ret;
     }
     
+    /**
+     * @param concurrent run independent harvesters concurrently
+     */
+    public void setConcurrent(boolean concurrent)
+    {
+        this.concurrent = concurrent;
+    }
+    
+    private List<Harvester> getHarvesters()
+    {
+        List<Harvester> ret = new ArrayList<Harvester>();
+        Harvester[] all = new Harvester[] 
+        { 
+            obsDeleter, obsHarvester, 
+            observationMetaDeleter, planeDataDeleter, planeMetaDeleter,
+            observationMetaHarvester, planeDataHarvester, planeMetaHarvester
+        };
+        for (Harvester h : all)
+        {
+            if (h != null)
+                ret.add(h);
+        }
+        return ret;
+    }
+    
+    /**
+     * Request that all harvesters stop after the entity that is currently being 
+     * processed. This is safe to call from another thread (e.g. a shutdown hook).
+     */
+    public void stop()
+    {
+        this.stopped = true;
+        for (Harvester h : getHarvesters())
+            h.stop();
+        synchronized(this)
+        {
+            notifyAll(); // wake up runDaemon
+        }
+    }
+    
+    /**
+     * Run continuously until stopped. Connections are kept open between runs. The
+     * next run starts after minInterval if the previous run found anything to harvest 
+     * and the interval is doubled (up to maxInterval) after each run that found nothing.
+     * 
+     * @param minInterval minimum time between runs (ms)
+     * @param maxInterval maximum time between runs (ms)
+     */
+    public void runDaemon(long minInterval, long maxInterval)
+    {
+        for (Harvester h : getHarvesters())
+            h.setKeepAlive(true);
+        
+        long interval = minInterval;
+        while (!stopped)
+        {
+            long t = System.currentTimeMillis();
+            int found = 0;
+            try
+            {
+                run();
+                for (Harvester h : getHarvesters())
+                    found += h.getFound();
+                if (found > 0)
+                    interval = minInterval;
+                else
+                    interval = Math.min(2*interval, maxInterval);
+            }
+            catch(RuntimeException ex)
+            {
+                log.error("harvest failed, will retry", ex);
+                interval = maxInterval;
+            }
+            long dt = System.currentTimeMillis() - t;
+            log.info("daemon: found " + found + " in " + dt + "ms, next run in " + interval + "ms");
+            
+            long wakeup = System.currentTimeMillis() + interval;
+            synchronized(this)
+            {
+                long w = interval;
+                while (!stopped && w > 0)
+                {
+                    try
+                    {
+                        wait(w);
+                    }
+                    catch(InterruptedException ex)
+                    {
+                        log.warn("interrupted: stopping");
+                        stopped = true;
+                    }
+                    w = wakeup - System.currentTimeMillis();
+                }
+            }
+        }
+        log.info("daemon: stopped");
+    }
+    
+    // a harvester and the tasks that must complete before it starts
+    private static class Task implements Callable<Object>
+    {
+        final String name;
+        final Harvester harvester;
+        final List<Task> after = new ArrayList<Task>();
+        Future<Object> future;
+        
+        Task(String name, Harvester harvester, Task... after)
+        {
+            this.name = name;
+            this.harvester = harvester;
+            for (Task t : after)
+            {
+                if (t != null)
+                    this.after.add(t);
+            }
+        }
+        
+        public Object call()
+            throws Exception
+        {
+            for (Task t : after)
+            {
+                try
+                {
+                    t.future.get();
+                }
+                catch(ExecutionException ex)
+                {
+                    throw new IllegalStateException("skipped " + name + ": " + t.name + " failed");
+                }
+            }
+            if (harvester.isStopped())
+            {
+                log.info("stopped: skipping " + name);
+                return null;
+            }
+            String tn = Thread.currentThread().getName();
+            Thread.currentThread().setName(name);
+            try
+            {
+                harvester.run();
+            }
+            finally
+            {
+                Thread.currentThread().setName(tn);
+            }
+            return null;
+        }
+    }
+    
     public void run()
     {
         // make sure wcslib can be loaded
@@ -123,55 +326,113 @@ public class CaomHarvester implements Runnable
             throw new RuntimeException("FATAL - failed to load WCSLib JNI binding", t);
         }
 
+        // tasks in dependency order: each harvester has its own connections so 
+        // independent harvesters can run at the same time
+        List<Task> tasks = new ArrayList<Task>();
+        
         // delete observations before harvest to avoid observationURI conflicts 
         // from delete+create
+        Task obsDelete = null;
         if (obsDeleter != null)
         {
             obsDeleter.setInitHarvestState(init);
-            obsDeleter.run();
+            obsDelete = new Task("DeletedObservation", obsDeleter);
+            tasks.add(obsDelete);
         }
+        Task obsHarvest = null;
         if (obsHarvester != null)
         {
             obsHarvester.setInitHarvest(init);
-            obsHarvester.run();
+            obsHarvest = new Task("Observation", obsHarvester, obsDelete);
+            tasks.add(obsHarvest);
         }
         
         // clean up old access control tuples before harvest to avoid conflicts
         // from delete+create
+        Task omDelete = null;
         if (observationMetaDeleter != null)
         {
             observationMetaDeleter.setInitHarvestState(init);
-            observationMetaDeleter.run();
+            omDelete = new Task("DeletedObservationMetaReadAccess", observationMetaDeleter, obsHarvest);
+            tasks.add(omDelete);
         }
+        Task pdDelete = null;
         if (planeDataDeleter != null)
         {
             planeDataDeleter.setInitHarvestState(init);
-            planeDataDeleter.run();
+            pdDelete = new Task("DeletedPlaneDataReadAccess", planeDataDeleter, obsHarvest);
+            tasks.add(pdDelete);
         }
+        Task pmDelete = null;
         if (planeMetaDeleter != null)
         {
             planeMetaDeleter.setInitHarvestState(init);
-            planeMetaDeleter.run();
+            pmDelete = new Task("DeletedPlaneMetaReadAccess", planeMetaDeleter, obsHarvest);
+            tasks.add(pmDelete);
         }
         
-        if (init)
-            return; // no point in trying to harvest a batch of ReadAccess tuples
+        // no point in trying to harvest a batch of ReadAccess tuples in init mode
+        if (!init)
+        {
+            // make sure access control tuples are harvested after observations
+            // because they update asset tables and fail if asset is missing
+            if (observationMetaHarvester != null)
+                tasks.add(new Task("ObservationMetaReadAccess", observationMetaHarvester, obsHarvest, omDelete));
+            if (planeDataHarvester != null)
+                tasks.add(new Task("PlaneDataReadAccess", planeDataHarvester, obsHarvest, pdDelete));
+            if (planeMetaHarvester != null)
+                tasks.add(new Task("PlaneMetaReadAccess", planeMetaHarvester, obsHarvest, pmDelete));
+        }
+        
+        if (tasks.isEmpty())
+            return;
         
-        // make sure access control tuples are harvested after observations
-        // because they update asset tables and fail if asset is missing
-        if (observationMetaHarvester != null)
+        run(tasks);
+    }
+    
+    // tasks are submitted in dependency order and wait for their dependencies, so there
+    // must be a thread per task to run them concurrently; with one thread they run in order
+    private void run(List<Task> tasks)
+    {
+        int threads = 1;
+        if (concurrent)
+            threads = tasks.size();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long t = System.currentTimeMillis();
+        try
         {
-            observationMetaHarvester.run();
+            for (Task task : tasks)
+                task.future = pool.submit(task);
+            
+            Throwable fail = null;
+            for (Task task : tasks)
+            {
+                try
+                {
+                    task.future.get();
+                }
+                catch(ExecutionException ex)
+                {
+                    log.error("harvester failed: " + task.name, ex.getCause());
+                    if (fail == null)
+                        fail = ex.getCause();
+                }
+            }
+            if (fail instanceof RuntimeException)
+                throw (RuntimeException) fail;
+            if (fail instanceof Error)
+                throw (Error) fail;
+            if (fail != null)
+                throw new RuntimeException(fail);
         }
-        if (planeDataHarvester != null)
+        catch(InterruptedException ex)
         {
-            planeDataHarvester.run();
+            throw new RuntimeException("interrupted while waiting for harvesters", ex);
         }
-        if (planeMetaHarvester != null)
+        finally
         {
-            planeMetaHarvester.run();
+            pool.shutdownNow();
+            log.debug("time to run " + tasks.size() + " harvesters: " + (System.currentTimeMillis() - t) + "ms");
         }
-        
-        
     }
 }
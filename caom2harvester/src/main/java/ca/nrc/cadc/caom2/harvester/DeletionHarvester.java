@@ -17,6 +17,7 @@ import ca.nrc.cadc.caom2.persistence.TransactionManager;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.ListIterator;
@@ -39,6 +40,7 @@ public class DeletionHarvester extends Harvester implements Runnable
     
     private boolean initHarvestState;
     private Date initDate;
+    private boolean batchDelete;
     
     private DeletionHarvester() { }
 
@@ -69,9 +71,24 @@ public class DeletionHarvester extends Harvester implements Runnable
             this.initDate = new Date(); // timestamp at startup, not when run
     }
     
+    /**
+     * Enable batched deletion: each batch of deleted entities is removed in one 
+     * transaction (with set-based statements per table for observations) and the 
+     * harvest state is updated once per batch. If that fails, the entities in the
+     * batch are deleted one at a time.
+     * 
+     * @param batchDelete 
+     */
+    public void setBatchDelete(boolean batchDelete)
+    {
+        this.batchDelete = batchDelete;
+    }
+    
     private void init()
         throws IOException
     {
+        if (initialized)
+            return;
         Map<String,Object> config1 = getConfigDAO(src);
         Map<String,Object> config2 = getConfigDAO(dest);
 
@@ -112,6 +129,7 @@ public class DeletionHarvester extends Harvester implements Runnable
         }
         else
             throw new UnsupportedOperationException("unsupported class: " + entityClass.getName());
+        this.initialized = true;
     }
 
     private void close()
@@ -120,11 +138,12 @@ public class DeletionHarvester extends Harvester implements Runnable
         // TODO
     }
 
-    // invoke delete(Long) method on an arbitrary object via reflection
+    // invoke delete(UUID) and delete(List<UUID>) methods on an arbitrary object via reflection
     private class WrapperDAO
     {
         private Object dao;
         private Method deleteMethod;
+        private Method deleteListMethod;
         private Class<?> targetClass;
 
         WrapperDAO(Object dao, Class<?> targetClass)
@@ -135,9 +154,15 @@ public class DeletionHarvester extends Harvester implements Runnable
             try
             {
                 if (targetClass != null)
+                {
                     this.deleteMethod = dao.getClass().getMethod("delete", Class.class, UUID.class);
+                    this.deleteListMethod = dao.getClass().getMethod("delete", Class.class, List.class);
+                }
                 else
+                {
                     this.deleteMethod = dao.getClass().getMethod("delete", UUID.class);
+                    this.deleteListMethod = dao.getClass().getMethod("delete", List.class);
+                }
             }
             catch(NoSuchMethodException bug)  { throw new RuntimeException("BUG", bug); }
             log.debug("created wrapper to call " + dao.getClass().getSimpleName() + ".delete(Long)");
@@ -156,6 +181,26 @@ public class DeletionHarvester extends Harvester implements Runnable
             catch(IllegalAccessException bug) { throw new RuntimeException("BUG", bug); }
             catch(InvocationTargetException bug) { throw new RuntimeException("BUG", bug); }
         }
+        
+        public void delete(List<UUID> ids)
+        {
+            log.debug("invoking " + deleteListMethod + " with " + ids.size() + " ids");
+            try
+            {
+                if (targetClass != null)
+                    deleteListMethod.invoke(dao, targetClass, ids);
+                else
+                    deleteListMethod.invoke(dao, ids);
+            }
+            catch(IllegalAccessException bug) { throw new RuntimeException("BUG", bug); }
+            catch(InvocationTargetException ex) 
+            { 
+                // failure in the DAO: the caller falls back to one at a time
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) ex.getCause();
+                throw new RuntimeException("BUG", ex); 
+            }
+        }
         @Override
         public String toString() { return deleteMethod.toString(); }
     }
@@ -171,10 +216,12 @@ public class DeletionHarvester extends Harvester implements Runnable
         {
             throw new RuntimeException("failed to init connections and state", oops);
         }
-        boolean go = true;
+        this.found = 0;
+        boolean go = !isStopped();
         while (go)
         {
             Progress num = doit();
+            found += num.found;
             if (num.found > 0)
                 log.info("finished batch: " + num);
             if (num.failed > num.found/2) // more than half failed
@@ -188,10 +235,13 @@ public class DeletionHarvester extends Harvester implements Runnable
             full = false; // do not start at min(lastModified) again
             if (dryrun)
                 go = false; // no state update -> infinite loop
+            if (isStopped())
+                go = false;
         }
         try
         {
-            close();
+            if (!keepAlive)
+                close();
         }
         catch(Throwable oops)
         {
@@ -250,9 +300,35 @@ public class DeletionHarvester extends Harvester implements Runnable
 
             ret.found = entityList.size();
             log.info("found: " + entityList.size());
+            
+            if (batchDelete && !dryrun)
+            {
+                List<DeletedEntity> page = new ArrayList<DeletedEntity>(entityList.size());
+                for (DeletedEntity de : entityList)
+                {
+                    if (de.id.equals(state.curID))
+                    {
+                        log.info("skip: " + de.getClass().getSimpleName() + " " + de.id + " -- was end of last batch");
+                        break;
+                    }
+                    page.add(de);
+                }
+                if (deleteBatch(page, state))
+                {
+                    ret.ingested = page.size();
+                    entityList.clear();
+                }
+                //else: fall back to one at a time below
+            }
+            
             ListIterator<DeletedEntity> iter = entityList.listIterator();
             while ( iter.hasNext() )
             {
+                if (isStopped())
+                {
+                    log.info("stopped: " + entityList.size() + " remaining in batch");
+                    return ret;
+                }
                 DeletedEntity de = iter.next();
                 iter.remove(); // allow garbage collection asap
 
@@ -327,6 +403,57 @@ public class DeletionHarvester extends Harvester implements Runnable
         return ret;
     }
 
+    // delete a batch of entities and update the harvest state in one transaction
+    private boolean deleteBatch(List<DeletedEntity> page, HarvestState state)
+    {
+        if (page.isEmpty())
+            return true;
+        
+        List<UUID> ids = new ArrayList<UUID>(page.size());
+        for (DeletedEntity de : page)
+            ids.add(de.id);
+        DeletedEntity last = page.get(page.size() - 1);
+        Date prevLastModified = state.curLastModified;
+        UUID prevID = state.curID;
+        
+        long t = System.currentTimeMillis();
+        txnManager.startTransaction();
+        boolean ok = false;
+        try
+        {
+            log.info("delete: " + entityClass.getSimpleName() + " " + ids.size() + " ids " 
+                    + format(page.get(0).lastModified) + " :: " + format(last.lastModified));
+            entityDAO.delete(ids);
+            
+            state.curLastModified = last.lastModified;
+            state.curID = last.id;
+            harvestState.put(state);
+            
+            log.debug("committing transaction");
+            txnManager.commitTransaction();
+            log.debug("commit: OK");
+            ok = true;
+        }
+        catch(Throwable oops)
+        {
+            log.warn("batch delete failed, trying one at a time: " + oops);
+        }
+        finally
+        {
+            if (!ok)
+            {
+                txnManager.rollbackTransaction();
+                log.warn("rollback: OK");
+                
+                // restore state to match the database
+                state.curLastModified = prevLastModified;
+                state.curID = prevID;
+            }
+            log.debug("time to delete batch: " + ids.size() + " " + (System.currentTimeMillis() - t) + "ms");
+        }
+        return ok;
+    }
+    
     private void detectLoop(List<DeletedEntity> entityList)
     {
         if (entityList.size() < 2)
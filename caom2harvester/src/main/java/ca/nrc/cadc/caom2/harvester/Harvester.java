@@ -44,6 +44,11 @@ public abstract class Harvester implements Runnable
     protected HarvestStateDAO harvestState;
     protected HarvestSkipDAO harvestSkip;
     
+    protected boolean initialized;  // connections and state trackers created
+    protected boolean keepAlive;    // keep connections open between runs
+    protected int found;            // number of entities found by the last run
+    private volatile boolean stopped;
+    
     protected Harvester() { }
     
     protected Harvester(Class entityClass, String[] src, String[] dest, Integer batchSize, boolean full, boolean dryrun)
@@ -57,6 +62,40 @@ public abstract class Harvester implements Runnable
         this.dryrun = dryrun;
     }
 
+    /**
+     * Keep connections (and the DAOs that use them) open when run() finishes so
+     * they can be used again by the next run. 
+     * 
+     * @param keepAlive 
+     */
+    public void setKeepAlive(boolean keepAlive)
+    {
+        this.keepAlive = keepAlive;
+    }
+    
+    /**
+     * Request that the harvester stop as soon as possible. The entity that is currently
+     * being processed is committed (or rolled back) normally and the harvest state is
+     * left consistent so the next run continues where this one stopped.
+     */
+    public void stop()
+    {
+        this.stopped = true;
+    }
+
+    protected boolean isStopped()
+    {
+        return stopped;
+    }
+    
+    /**
+     * @return number of entities found in the source by the last run
+     */
+    public int getFound()
+    {
+        return found;
+    }
+    
     protected Map<String,Object> getConfigDAO(String[] desc)
         throws IOException
     {
@@ -75,6 +114,7 @@ public abstract class Harvester implements Runnable
         {
             ret.put(SQLGenerator.class.getName(), PostgreSQLGenerator.class);
             ret.put("disableHashJoin", Boolean.TRUE);
+            ret.put("subtreeDelete", Boolean.TRUE); // needs planeID indices
         }
         else
             throw new IllegalArgumentException("unknown SQL dialect: " + desc[0]);
@@ -103,7 +143,7 @@ public abstract class Harvester implements Runnable
     }
     
     DateFormat df = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
-    protected String format(Date d)
+    protected synchronized String format(Date d)
     {
         if (d == null)
             return "null";
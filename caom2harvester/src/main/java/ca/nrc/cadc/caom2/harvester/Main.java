@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -21,8 +23,15 @@ public class Main
     
     private static final Integer DEFAULT_BATCH_SIZE = new Integer(100);
     private static final Integer DEFAULT_BATCH_FACTOR = new Integer(2500);
+    private static final long DEFAULT_POLL_INTERVAL = 10L;        // seconds
+    private static final long DEFAULT_MAX_POLL_INTERVAL = 300L;   // seconds
+    private static final long SHUTDOWN_TIMEOUT = 120L;            // seconds
     private static int exitValue = 0;
     
+    // daemon mode: stopped by the shutdown hook
+    private static volatile CaomHarvester daemon;
+    private static final CountDownLatch finished = new CountDownLatch(1);
+    
     public static void main(String[] args)
     {
         try
@@ -56,6 +65,9 @@ public class Main
             boolean full = am.isSet("full");
             boolean skip = am.isSet("skip");
             boolean dryrun = am.isSet("dryrun");
+            boolean batchDelete = am.isSet("batchDelete");
+            boolean concurrent = am.isSet("concurrent");
+            boolean runDaemon = am.isSet("daemon");
             
             if (full && skip)
             {
@@ -140,6 +152,76 @@ public class Main
             }
             log.info("batchSize: " + batchSize + "  batchFactor: " + batchFactor);
             
+            int prefetch = 0;
+            String sPrefetch = am.getValue("prefetch");
+            if (sPrefetch != null && sPrefetch.trim().length() > 0)
+            {
+                try { prefetch = Integer.parseInt(sPrefetch); }
+                catch(NumberFormatException nex)
+                {
+                    usage();
+                    log.error("value for --prefetch must be an integer, found: " + sPrefetch);
+                    System.exit(1);
+                }
+            }
+            
+            int threads = 1;
+            String sThreads = am.getValue("threads");
+            if (sThreads != null && sThreads.trim().length() > 0)
+            {
+                try { threads = Integer.parseInt(sThreads); }
+                catch(NumberFormatException nex)
+                {
+                    usage();
+                    log.error("value for --threads must be an integer, found: " + sThreads);
+                    System.exit(1);
+                }
+                if (threads < 1)
+                {
+                    usage();
+                    log.error("value for --threads must be > 0, found: " + sThreads);
+                    System.exit(1);
+                }
+            }
+            
+            int commitSize = 1;
+            String sCommitSize = am.getValue("commitSize");
+            if (sCommitSize != null && sCommitSize.trim().length() > 0)
+            {
+                try { commitSize = Integer.parseInt(sCommitSize); }
+                catch(NumberFormatException nex)
+                {
+                    usage();
+                    log.error("value for --commitSize must be an integer, found: " + sCommitSize);
+                    System.exit(1);
+                }
+                if (commitSize < 1)
+                {
+                    usage();
+                    log.error("value for --commitSize must be > 0, found: " + sCommitSize);
+                    System.exit(1);
+                }
+            }
+            
+            long commitInterval = 0L;
+            String sCommitInterval = am.getValue("commitInterval");
+            if (sCommitInterval != null && sCommitInterval.trim().length() > 0)
+            {
+                try { commitInterval = Long.parseLong(sCommitInterval); }
+                catch(NumberFormatException nex)
+                {
+                    usage();
+                    log.error("value for --commitInterval must be an integer, found: " + sCommitInterval);
+                    System.exit(1);
+                }
+                if (commitInterval < 0L)
+                {
+                    usage();
+                    log.error("value for --commitInterval must be >= 0, found: " + sCommitInterval);
+                    System.exit(1);
+                }
+            }
+            
             Date maxDate = null;
             String maxDateStr = am.getValue("maxDate");
             if (maxDateStr != null && maxDateStr.trim().length() > 0)
@@ -157,6 +239,41 @@ public class Main
                 }
             }
             
+            long pollInterval = DEFAULT_POLL_INTERVAL;
+            long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+            if (runDaemon)
+            {
+                if (init || skip || dryrun || recomp || test || maxDate != null)
+                {
+                    usage();
+                    log.error("--daemon cannot be used with --init, --skip, --dryrun, --recompute, --test, or --maxDate");
+                    System.exit(1);
+                }
+                String sPoll = am.getValue("pollInterval");
+                String sMaxPoll = am.getValue("maxPollInterval");
+                try
+                {
+                    if (sPoll != null && sPoll.trim().length() > 0)
+                        pollInterval = Long.parseLong(sPoll);
+                    if (sMaxPoll != null && sMaxPoll.trim().length() > 0)
+                        maxPollInterval = Long.parseLong(sMaxPoll);
+                }
+                catch(NumberFormatException nex)
+                {
+                    usage();
+                    log.error("value for --pollInterval and --maxPollInterval must be an integer, found: " 
+                            + sPoll + " " + sMaxPoll);
+                    System.exit(1);
+                }
+                if (pollInterval < 1 || maxPollInterval < pollInterval)
+                {
+                    usage();
+                    log.error("invalid poll interval: must have 0 < --pollInterval <= --maxPollInterval, found: " 
+                            + pollInterval + " " + maxPollInterval);
+                    System.exit(1);
+                }
+            }
+            
             CaomHarvester ch = null;
             try
             {
@@ -175,11 +292,30 @@ public class Main
             }
             
             ch.setInitHarvesters(init);
+            ch.setPrefetch(prefetch);
+            ch.setThreads(threads);
+            ch.setGroupCommit(commitSize, commitInterval);
+            ch.setBatchDelete(batchDelete);
+            ch.setConcurrent(concurrent);
             
             exitValue = 2; // in case we get killed
             Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHook()));
-            ch.run();
-            exitValue = 0; // finished cleanly
+            try
+            {
+                if (runDaemon)
+                {
+                    log.info("daemon: poll interval " + pollInterval + "-" + maxPollInterval + " sec");
+                    daemon = ch;
+                    ch.runDaemon(pollInterval*1000L, maxPollInterval*1000L);
+                }
+                else
+                    ch.run();
+                exitValue = 0; // finished cleanly
+            }
+            finally
+            {
+                finished.countDown();
+            }
         }
         catch(Throwable t)
         {
@@ -196,6 +332,21 @@ public class Main
         
         public void run()
         {
+            if (daemon != null)
+            {
+                // let the current transaction(s) finish
+                log.info("daemon: stopping...");
+                daemon.stop();
+                try
+                {
+                    if (!finished.await(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+                        log.error("daemon: failed to stop within " + SHUTDOWN_TIMEOUT + " sec");
+                }
+                catch(InterruptedException ex)
+                {
+                    log.error("daemon: interrupted while waiting to stop");
+                }
+            }
             if (exitValue != 0)
                 log.error("terminating with exit status " + exitValue);
         }
@@ -216,6 +367,15 @@ public class Main
         sb.append("\n     --maxDate=<max Observation.maxLastModfied to consider (UTC timestamp)");
         sb.append("\n     --batchSize=<number of observations per batch> (default: (").append(DEFAULT_BATCH_SIZE).append(")");
         sb.append("\n     --batchFactor=<multiplier to batchSize when getting single-table entities> (default: ").append(DEFAULT_BATCH_FACTOR).append(")");
+        sb.append("\n     --prefetch=<max entities to read ahead from source while writing to destination; up to one more batch may be held while waiting> (default: 0 = disabled)");
+        sb.append("\n     --threads=<number of threads writing observations to destination> (default: 1)");
+        sb.append("\n     --commitSize=<max observations per destination transaction> (default: 1)");
+        sb.append("\n     --commitInterval=<max milliseconds per destination transaction when commitSize > 1> (default: 0 = no limit)");
+        sb.append("\n     --daemon : run continuously, stop cleanly on SIGTERM (default: run once)");
+        sb.append("\n     --pollInterval=<min seconds between runs in daemon mode> (default: ").append(DEFAULT_POLL_INTERVAL).append(")");
+        sb.append("\n     --maxPollInterval=<max seconds between runs when idle in daemon mode> (default: ").append(DEFAULT_MAX_POLL_INTERVAL).append(")");
+        sb.append("\n     --concurrent : run independent harvesters (e.g. the access control harvesters) concurrently (default: false)");
+        sb.append("\n     --batchDelete : delete each batch of deleted entities in one transaction (default: one per transaction)");
         //sb.append("\n     --forceUpdate : force update of destination row even if checksum says it did not change");
         sb.append("\n     --dryrun : check for work but don't do anything");
         log.warn(sb.toString());
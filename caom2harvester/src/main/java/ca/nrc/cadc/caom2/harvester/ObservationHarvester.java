@@ -2,13 +2,16 @@
 package ca.nrc.cadc.caom2.harvester;
 
 import ca.nrc.cadc.caom2.harvester.state.HarvestSkip;
+import ca.nrc.cadc.caom2.harvester.state.HarvestSkipDAO;
 import ca.nrc.cadc.caom2.harvester.state.HarvestState;
+import ca.nrc.cadc.caom2.harvester.state.HarvestStateDAO;
 import ca.nrc.cadc.caom2.Artifact;
 import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.Part;
 import ca.nrc.cadc.caom2.Plane;
 import ca.nrc.cadc.caom2.persistence.DatabaseObservationDAO;
+import ca.nrc.cadc.caom2.persistence.ResultHandler;
 import ca.nrc.cadc.caom2.util.CaomValidator;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -16,10 +19,21 @@ import java.io.InputStreamReader;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -43,6 +57,15 @@ public class ObservationHarvester extends Harvester
     private Date maxDate;
     private boolean doCollisionCheck = false;
     private boolean initHarvest = false;
+    private int prefetch = 0;
+    private int threads = 1;
+    private int commitSize = 1;
+    private long commitInterval = 0L;
+    
+    private Writer writer;
+    private List<Writer> writers;   // threads > 1
+    private ExecutorService pool;
+    private DatabaseObservationDAO prefetchDAO;
 
     private ObservationHarvester() { }
     
@@ -58,6 +81,49 @@ public class ObservationHarvester extends Harvester
         this.initHarvest = initHarvest;
     }
     
+    /**
+     * Enable prefetch mode: a separate thread reads the next batch(es) from the source
+     * while the current batch is written to the destination. The amount of prefetched
+     * content is bounded by the total number of entities (observations, planes, artifacts,
+     * parts, and chunks) waiting to be written. The producer does not read a batch until 
+     * there is room for at least one entity per observation, but the batch it has just read 
+     * is held in addition to the buffer while it waits for room for the rest of its entities,
+     * so the real bound is maxEntities plus one batch.
+     * 
+     * @param maxEntities maximum number of prefetched entities, 0 to disable
+     */
+    public void setPrefetch(int maxEntities)
+    {
+        this.prefetch = maxEntities;
+    }
+    
+    /**
+     * Enable parallel writes: observations from each batch are put by the specified number
+     * of writer threads, each with its own destination connection and transaction.
+     * 
+     * @param threads number of writer threads, 1 to disable
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+    
+    /**
+     * Enable group commit: several observations are put in one destination transaction,
+     * each inside a savepoint so a failed observation is rolled back by itself and recorded
+     * as skipped without losing the rest of the group. The transaction and the harvest state
+     * are committed when the group has the specified number of observations or has been
+     * open for the specified time, and at the end of each batch.
+     * 
+     * @param commitSize maximum number of observations per transaction, 1 to disable
+     * @param commitInterval maximum time (ms) a transaction stays open, 0 for no limit
+     */
+    public void setGroupCommit(int commitSize, long commitInterval)
+    {
+        this.commitSize = commitSize;
+        this.commitInterval = commitInterval;
+    }
+    
     public void setSkipped(boolean skipped)
     {
         this.skipped = skipped;
@@ -81,6 +147,8 @@ public class ObservationHarvester extends Harvester
     private void init()
         throws IOException
     {
+        if (initialized)
+            return;
         Map<String,Object> config1 = getConfigDAO(src);
         Map<String,Object> config2 = getConfigDAO(dest);
         this.srcObservationDAO = new DatabaseObservationDAO();
@@ -89,12 +157,63 @@ public class ObservationHarvester extends Harvester
         destObservationDAO.setConfig(config2);
         destObservationDAO.setComputeLastModified(false); // copy as-is
         initHarvestState(destObservationDAO.getDataSource(), Observation.class);
+        this.writer = new Writer(srcObservationDAO, destObservationDAO, harvestSkip, harvestState);
+        
+        if (threads > 1)
+        {
+            // each writer needs separate connections and transaction manager; the harvest 
+            // state is tracked with the main destination connection
+            this.writers = new ArrayList<Writer>(threads);
+            for (int i = 0; i < threads; i++)
+            {
+                DatabaseObservationDAO s = new DatabaseObservationDAO();
+                s.setConfig(getConfigDAO(src));
+                DatabaseObservationDAO d = new DatabaseObservationDAO();
+                d.setConfig(getConfigDAO(dest));
+                d.setComputeLastModified(false); // copy as-is
+                HarvestSkipDAO hs = new HarvestSkipDAO(d.getDataSource(), dest[1], dest[2], batchSize);
+                writers.add(new Writer(s, d, hs, null));
+            }
+            this.pool = Executors.newFixedThreadPool(threads);
+            log.info("writer threads: " + threads);
+        }
+        this.initialized = true;
     }
 
     private void close()
         throws IOException
     {
-        // TODO
+        if (pool != null)
+            pool.shutdownNow();
+        this.pool = null;
+        this.writers = null;
+        this.prefetchDAO = null;
+        this.initialized = false;
+    }
+    
+    // connections used to put observations: one per writer thread
+    private static class Writer
+    {
+        DatabaseObservationDAO srcDAO;
+        DatabaseObservationDAO destDAO;
+        HarvestSkipDAO skipDAO;
+        HarvestStateDAO stateDAO; // null: harvest state is tracked by the caller
+        
+        // group commit: open transaction with one savepoint per observation
+        boolean grouped;
+        int groupNum;
+        long groupStart;
+        UUID doneID;            // last observation committed or skipped in the group
+        Date doneLastModified;
+        
+        Writer(DatabaseObservationDAO srcDAO, DatabaseObservationDAO destDAO, 
+                HarvestSkipDAO skipDAO, HarvestStateDAO stateDAO)
+        {
+            this.srcDAO = srcDAO;
+            this.destDAO = destDAO;
+            this.skipDAO = skipDAO;
+            this.stateDAO = stateDAO;
+        }
     }
     
     private String format(UUID id)
@@ -116,10 +235,16 @@ public class ObservationHarvester extends Harvester
             throw new RuntimeException("failed to init connections and state", oops);
         }
         
-        boolean go = true;
+        this.found = 0;
+        boolean usePrefetch = (prefetch > 0 && !skipped && !dryrun && !initHarvest && !interactive);
+        if (usePrefetch && !isStopped())
+            runPrefetch();
+        
+        boolean go = !usePrefetch && !isStopped();
         while (go)
         {
             Progress num = doit();
+            found += num.found;
             if (num.found > 0)
                 log.info("finished batch: " + num);
             
@@ -139,10 +264,13 @@ public class ObservationHarvester extends Harvester
                 go = false; // no state update -> infinite loop
             if (initHarvest)
                 go = false; // single batch
+            if (isStopped())
+                go = false;
         }
         try
         {
-            close();
+            if (!keepAlive)
+                close();
         }
         catch(Throwable oops)
         {
@@ -152,6 +280,170 @@ public class ObservationHarvester extends Harvester
         log.info("DONE: " + entityClass.getSimpleName() + "\n");
     }
 
+    // read batches from the source in a separate thread and write them in this one
+    private void runPrefetch()
+    {
+        HarvestState state = harvestState.get(source, Observation.class.getSimpleName());
+        Date start = state.curLastModified;
+        if (full)
+            start = null;
+        full = false;
+        
+        if (prefetchDAO == null)
+        {
+            try
+            {
+                // separate connection for the producer thread
+                DatabaseObservationDAO dao = new DatabaseObservationDAO();
+                dao.setConfig(getConfigDAO(src));
+                this.prefetchDAO = dao;
+            }
+            catch(IOException ex)
+            {
+                throw new RuntimeException("failed to init prefetch connection", ex);
+            }
+        }
+        
+        BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+        Semaphore permits = new Semaphore(prefetch);
+        Producer producer = new Producer(prefetchDAO, queue, permits, start, state.curID, state.curLastModified);
+        Thread pt = new Thread(producer, "prefetch");
+        pt.setDaemon(true);
+        pt.start();
+        try
+        {
+            boolean go = true;
+            while (go)
+            {
+                Batch b = queue.take();
+                if (b.failure != null)
+                {
+                    log.error("prefetch failed", b.failure);
+                    break;
+                }
+                
+                Progress num = new Progress();
+                num.found = b.found;
+                found += b.found;
+                log.info("found: " + b.found + " prefetched: " + (prefetch - permits.availablePermits()) + " entities");
+                try
+                {
+                    state = harvestState.get(source, Observation.class.getSimpleName());
+                    ingest(b.entities, state, num);
+                }
+                finally
+                {
+                    permits.release(b.permits);
+                }
+                if (num.found > 0)
+                    log.info("finished batch: " + num);
+                if (num.abort)
+                    log.error("batched aborted");
+                go = !num.abort && !b.last && !isStopped();
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            log.warn("interrupted while waiting for prefetch");
+        }
+        finally
+        {
+            producer.stop = true;
+            pt.interrupt();
+        }
+    }
+    
+    private class Producer implements Runnable
+    {
+        private final DatabaseObservationDAO dao;
+        private final BlockingQueue<Batch> queue;
+        private final Semaphore permits;
+        private Date start;
+        private UUID prevID;
+        private Date prevLastModified;
+        volatile boolean stop = false;
+        
+        Producer(DatabaseObservationDAO dao, BlockingQueue<Batch> queue, Semaphore permits, 
+                Date start, UUID prevID, Date prevLastModified)
+        {
+            this.dao = dao;
+            this.queue = queue;
+            this.permits = permits;
+            this.start = start;
+            this.prevID = prevID;
+            this.prevLastModified = prevLastModified;
+        }
+
+        public void run()
+        {
+            try
+            {
+                boolean go = true;
+                while (go && !stop)
+                {
+                    // back-pressure: reserve room for at least one entity per observation
+                    // before reading so a full buffer stops the producer from fetching
+                    int reserved = prefetch;
+                    if (batchSize != null)
+                        reserved = Math.min(batchSize.intValue(), prefetch);
+                    permits.acquire(reserved);
+                    
+                    Batch b = getBatch(dao, start, prevID, prevLastModified);
+                    for (SkippedWrapper<Observation> ow : b.entities)
+                        b.numEntities += countEntities(ow.entity);
+                    
+                    // adjust the reservation to the actual size of the batch
+                    b.permits = Math.min(b.numEntities, prefetch);
+                    if (b.permits > reserved)
+                        permits.acquire(b.permits - reserved);
+                    else if (b.permits < reserved)
+                        permits.release(reserved - b.permits);
+                    
+                    go = (b.found > 0 && b.found >= b.expectedNum);
+                    if (batchSize != null && b.found < batchSize.intValue()/2)
+                        go = false;
+                    b.last = !go;
+                    
+                    if (!b.entities.isEmpty())
+                    {
+                        // the writer sets the same values in HarvestState when it gets here
+                        Observation last = b.entities.get(b.entities.size() - 1).entity;
+                        start = last.getMaxLastModified();
+                        prevID = last.getID();
+                        prevLastModified = last.getMaxLastModified();
+                    }
+                    queue.put(b);
+                }
+            }
+            catch(InterruptedException ex)
+            {
+                log.debug("prefetch interrupted");
+            }
+            catch(Throwable t)
+            {
+                Batch b = new Batch();
+                b.failure = t;
+                queue.offer(b);
+            }
+        }
+    }
+    
+    private int countEntities(Observation o)
+    {
+        int ret = 1;
+        for (Plane p : o.getPlanes())
+        {
+            ret++;
+            for (Artifact a : p.getArtifacts())
+            {
+                ret++;
+                for (Part pa : a.getParts())
+                    ret += 1 + pa.getChunks().size();
+            }
+        }
+        return ret;
+    }
+    
     private static class Progress
     {
         boolean done = false;
@@ -160,22 +452,29 @@ public class ObservationHarvester extends Harvester
         int ingested = 0;
         int failed = 0;
         int handled = 0;
+        int unchanged = 0;
         @Override
-        public String toString() { return found + " ingested: " + ingested + " failed: " + failed; }
+        public String toString() { return found + " ingested: " + ingested + " unchanged: " + unchanged + " failed: " + failed; }
     }
 
     private Date startDate;
     
+    // one window of observations from the source
+    private static class Batch
+    {
+        List<SkippedWrapper<Observation>> entities;
+        int expectedNum;    // size of a full batch
+        int found;
+        int numEntities;    // total entities in the tree (prefetch mode)
+        int permits;        // prefetch buffer permits held by this batch
+        Throwable failure;  // prefetch failed
+        boolean last;       // no more batches
+    }
+    
     private Progress doit()
     {
         Progress ret = new Progress();
 
-        BufferedReader stdin = null;
-        if (interactive)
-        {
-            stdin = new BufferedReader(new InputStreamReader(System.in));
-        }
-        
         long t = System.currentTimeMillis();
         long tState = -1;
         long tQuery = -1;
@@ -202,62 +501,18 @@ public class ObservationHarvester extends Harvester
                 startDate = state.curLastModified;
             //else: skipped: keep startDate across multiple batches since we don't persist harvest state
             
-            
-            Date end = maxDate;
             List<SkippedWrapper<Observation>> entityList = null;
             if (skipped)
-                entityList = getSkipped(startDate);
-            else
             {
-                Date fiveMinAgo = new Date(System.currentTimeMillis() - 5*60000L); // 5 minutes ago;
-                if (end == null)
-                    end = fiveMinAgo;
-                else
-                {
-                    log.info("harvest limit: min( " + format(fiveMinAgo) + " " + format(end) + " )");
-                    if (end.getTime() > fiveMinAgo.getTime())
-                        end = fiveMinAgo;
-                }
-            
-                log.info("harvest window: " + format(startDate) + " :: " + format(end) + " [" + batchSize + "]");
-                List<Observation> tmp = srcObservationDAO.getList(Observation.class, startDate, end, batchSize+1);
-                entityList = wrap(tmp);
-            }
-
-            if (entityList.size() >= expectedNum)
-            {
-                try
-                {
+                entityList = getSkipped(startDate);
+                if (entityList.size() >= expectedNum)
                     detectLoop(entityList);
-                }
-                catch(RuntimeException rex)
-                {
-                    if (!skipped)
-                    {
-                        Integer tmpBatchSize = entityList.size() + 1;
-                        log.info("(loop) temporary harvest window: " + format(startDate) + " :: " + format(end) + " [" + tmpBatchSize + "]");
-                        List<Observation> tmp = srcObservationDAO.getList(Observation.class, startDate, end, tmpBatchSize);
-                        entityList = wrap(tmp);
-                        detectLoop(entityList);
-                    }
-                    else
-                        throw rex;
-                }
             }
-            
-            // avoid re-processing the last successful one stored in HarvestState
-            if ( !entityList.isEmpty() && !skipped )
-            {
-                ListIterator<SkippedWrapper<Observation>> iter = entityList.listIterator();
-                Observation curBatchLeader = iter.next().entity;
-                log.debug("currentBatch: " + format(curBatchLeader.getID()) + " " + format(curBatchLeader.getMaxLastModified()));
-                log.debug("harvestState: " + format(state.curID) + " " + format(state.curLastModified));
-                if (curBatchLeader.getID().equals(state.curID)                                 // same obs as last time
-                        && curBatchLeader.getMaxLastModified().equals(state.curLastModified) ) // not modified since
-                {
-                    iter.remove(); // processed in last batch but picked up by lastModified query
-                    expectedNum--;
-                }
+            else
+            {
+                Batch b = getBatch(srcObservationDAO, startDate, state.curID, state.curLastModified);
+                entityList = b.entities;
+                expectedNum = b.expectedNum;
             }
 
             ret.found = entityList.size();
@@ -266,269 +521,739 @@ public class ObservationHarvester extends Harvester
             tQuery = System.currentTimeMillis() - t;
             t = System.currentTimeMillis();
             
+            // init mode: the destination is empty so try a bulk load of the whole batch 
+            // and fall back to one observation per transaction if that fails
+            if (initHarvest && !skipped && !dryrun && !entityList.isEmpty() 
+                    && destObservationDAO.isBulkLoadSupported())
+            {
+                if (bulkLoad(entityList, state))
+                {
+                    ret.ingested = entityList.size();
+                    entityList.clear();
+                }
+            }
+            
+            ingest(entityList, state, ret);
+            if (ret.abort)
+                return ret;
+            if (ret.found < expectedNum)
+                ret.done = true;
+        }
+        finally
+        {
+            tTransaction = System.currentTimeMillis() - t;
+            log.debug("time to get HarvestState: " + tState + "ms");
+            log.debug("time to run ObservationListQuery: " + tQuery + "ms");
+            log.debug("time to run transactions: " + tTransaction + "ms");
+        }
+        return ret;
+    }
+    
+    /**
+     * Get the next window of observations from the source. The window starts after the 
+     * observation identified by (prevID, prevLastModified) in (maxLastModified, obsID) order
+     * if that is where start is, so there is no overlap with the previous batch and no 
+     * need to detect loops when many observations have the same maxLastModified.
+     */
+    private Batch getBatch(DatabaseObservationDAO dao, Date start, UUID prevID, Date prevLastModified)
+    {
+        Batch ret = new Batch();
+        ret.expectedNum = Integer.MAX_VALUE;
+        if (batchSize != null)
+            ret.expectedNum = batchSize.intValue();
+        
+        Date end = maxDate;
+        Date fiveMinAgo = new Date(System.currentTimeMillis() - 5*60000L); // 5 minutes ago;
+        if (end == null)
+            end = fiveMinAgo;
+        else
+        {
+            log.info("harvest limit: min( " + format(fiveMinAgo) + " " + format(end) + " )");
+            if (end.getTime() > fiveMinAgo.getTime())
+                end = fiveMinAgo;
+        }
+
+        // keyset: start after the last successful one stored in HarvestState
+        UUID afterID = null;
+        if (start != null && prevID != null && start.equals(prevLastModified))
+            afterID = prevID;
+        
+        log.info("harvest window: " + format(start) + " " + format(afterID) + " :: " + format(end) + " [" + batchSize + "]");
+        List<Observation> tmp = dao.getList(Observation.class, start, afterID, end, batchSize);
+        List<SkippedWrapper<Observation>> entityList = wrap(tmp);
+        
+        if (!entityList.isEmpty())
+        {
+            Observation curBatchLeader = entityList.get(0).entity;
+            log.debug("currentBatch: " + format(curBatchLeader.getID()) + " " + format(curBatchLeader.getMaxLastModified()));
+            log.debug("harvestState: " + format(prevID) + " " + format(prevLastModified));
+        }
+        ret.entities = entityList;
+        ret.found = entityList.size();
+        return ret;
+    }
+    
+    // put each observation in its own transaction (or savepoint in group commit mode) 
+    // and track progress and failures
+    private void ingest(List<SkippedWrapper<Observation>> entityList, HarvestState state, Progress ret)
+    {
+        if (writers != null && !skipped && !dryrun && !interactive)
+        {
+            ingestParallel(entityList, state, ret);
+            return;
+        }
+
+        BufferedReader stdin = null;
+        if (interactive)
+        {
+            stdin = new BufferedReader(new InputStreamReader(System.in));
+        }
+
+        Map<ObservationURI,Observation> destState = getDestState(writer.destDAO, entityList);
+        boolean group = useGroupCommit();
+        try
+        {
             ListIterator<SkippedWrapper<Observation>> iter = entityList.listIterator();
             while ( iter.hasNext() )
             {
                 SkippedWrapper<Observation> ow = iter.next();
-                Observation o = ow.entity;
-                HarvestSkip hs = ow.skip;
                 iter.remove(); // allow garbage collection during loop
-                
-                String lastMsg = null;
-                String skipMsg = null;
-                
-                if (!dryrun)
-                {
-                    if (destObservationDAO.getTransactionManager().isOpen())
-                        throw new RuntimeException("BUG: found open trasnaction at start of next observation");
-                    log.debug("starting transaction");
-                    destObservationDAO.getTransactionManager().startTransaction();
-                }
-                boolean ok = false;
-                try
+
+                if (group)
+                    startGroup(writer);
+                put(writer, ow, state, destState, ret);
+                if (group && (ret.abort || isStopped() || isGroupFull(writer)))
+                    commitGroup(writer, state, ret);
+
+                if (interactive)
                 {
-                    // o could be null in skip mode cleanup
-                    if (o != null)
-                    {
-                        String treeSize = computeTreeSize(o);
-                        log.info("put: " + o.getClass().getSimpleName() + " " + format(o.getID()) 
-                                + " " + format(o.getMaxLastModified()) + " " + treeSize);
-                    }
-                    if (!dryrun) 
+                    try
                     {
-                        if (skipped)
-                            startDate = hs.lastModified;
-                        if (o != null)
+                        String str = "";
+                        while (str != null)
                         {
-                            if (state != null)
+                            System.out.print("\n\n(n=next, q=quit): ");
+                            str = stdin.readLine();
+                            if ("n".equals(str))
+                                break;
+                            else if ("q".equals(str))
                             {
-                                state.curLastModified = o.getMaxLastModified();
-                                state.curID = o.getID();
-                            }
-                            
-                            // try to avoid DataIntegrityViolationException due to missed deletion of an observation
-                            UUID curID = destObservationDAO.getID(o.getURI());
-                            if ( curID != null && !curID.equals(o.getID()) )
-                            {
-                                ObservationURI oldSrc = srcObservationDAO.getURI(curID); // still in src?
-                                if (oldSrc == null)
-                                {
-                                    // missed harvesting a deletion
-                                    log.info("delete: " + o.getClass().getSimpleName() + " " + format(curID) 
-                                        + " (ObservationURI conflict avoided)");
-                                    destObservationDAO.delete(curID);
-                                }
-                                //else: the put below with throw a valid exception because source is not enforcing
-                                // unique ID and URI
-                            }
-                            if (doCollisionCheck)
-                            {
-                                Observation cc = destObservationDAO.getShallow(o.getID());
-                                log.info("collision check: " + o.getURI() 
-                                    + " " + format(o.getMaxLastModified()) + " vs " 
-                                    + format(cc.getMaxLastModified()));
-                                if ( !cc.getMaxLastModified().equals(o.getMaxLastModified()) )
-                                    throw new IllegalStateException("detected harvesting collision: " + o.getURI() 
-                                            + " maxLastModified: " + format(o.getMaxLastModified()));
-                            }
-                            
-                            // advannce the date before put as there are usually lots of fails
-                            if (skipped)
-                                startDate = hs.lastModified;
-                            
-                            // temporary validation hack to avoid tickmarks in the keywords columns
-                            CaomValidator.validateKeywords(o);
-                            
-                            destObservationDAO.put(o);
-                      
-                        
-                            if (hs != null) // success in redo mode
-                            {
-                                log.info("delete: " + hs + " " + format(hs.lastModified));
-                                harvestSkip.delete(hs);
+                                ret.abort = true;
+                                break;
                             }
                             else
-                                harvestState.put(state);
-                        }
-                        else if (skipped) // observation is gone from  src
-                        {
-                            log.info("delete: " + hs + " " + format(hs.lastModified));
-                            harvestSkip.delete(hs);
+                                System.out.println("unexpected input: " + str);
                         }
+                    }
+                    catch (IOException e)
+                    {
 
-                        
-                        log.debug("committing transaction");
-                        destObservationDAO.getTransactionManager().commitTransaction();
-                        log.debug("commit: OK");
                     }
-                    ok = true;
-                    ret.ingested++;
                 }
-                catch(Throwable oops)
+                if (ret.abort)
+                    return;
+                if (isStopped())
                 {
-                    lastMsg = oops.getMessage();
-                    String str = oops.toString();
-                    if (oops instanceof Error)
+                    log.info("stopped: " + entityList.size() + " remaining in batch");
+                    return;
+                }
+            }
+            if (group)
+                commitGroup(writer, state, ret);
+        }
+        finally
+        {
+            if (group)
+                abortGroup(writer);
+        }
+    }
+
+    // the observations are claimed in order by the writer threads and the HarvestState only
+    // advances past observations that were committed (or recorded as skipped) along with
+    // all the observations before them, so a restart never misses an observation
+    private void ingestParallel(List<SkippedWrapper<Observation>> entityList, HarvestState state, Progress ret)
+    {
+        final List<SkippedWrapper<Observation>> work = entityList;
+        final int num = entityList.size();
+        final Watermark watermark = new Watermark(entityList, state);
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicBoolean abort = new AtomicBoolean(false);
+        final boolean group = useGroupCommit();
+        final Map<ObservationURI,Observation> destState = getDestState(writer.destDAO, entityList);
+
+        List<Future<Progress>> results = new ArrayList<Future<Progress>>(writers.size());
+        for (final Writer w : writers)
+        {
+            results.add(pool.submit(new Callable<Progress>()
+            {
+                public Progress call()
+                {
+                    Progress p = new Progress();
+                    List<Integer> pending = new ArrayList<Integer>(); // done but not committed
+                    try
                     {
-                        log.error("FATAL - probably installation or environment", oops);
-                        ret.abort = true;
+                        int i = next.getAndIncrement();
+                        while (i < num && !abort.get() && !isStopped())
+                        {
+                            SkippedWrapper<Observation> ow = work.get(i);
+                            work.set(i, null); // allow garbage collection during loop
+                            if (group)
+                                startGroup(w);
+                            if (put(w, ow, null, destState, p))
+                            {
+                                if (group)
+                                    pending.add(i);
+                                else
+                                    watermark.committed(i);
+                            }
+                            if (p.abort)
+                                abort.set(true);
+                            if (group && (p.abort || isGroupFull(w)))
+                                commitGroup(w, pending, watermark, p);
+                            i = next.getAndIncrement();
+                        }
+                        if (group)
+                            commitGroup(w, pending, watermark, p);
+                        return p;
                     }
-                    else if (oops instanceof NullPointerException)
+                    catch(RuntimeException ex)
                     {
-                        log.error("BUG", oops);
-                        ret.abort = true;
+                        abort.set(true);
+                        throw ex;
                     }
-                    else if (oops instanceof BadSqlGrammarException)
+                    finally
                     {
-                        log.error("BUG", oops);
-                        BadSqlGrammarException bad = (BadSqlGrammarException) oops;
-                        SQLException sex1 = bad.getSQLException();
-
-                        if (sex1 != null)
-                        {
-                            log.error("CAUSE", sex1);
-                            SQLException sex2 = sex1.getNextException();
-                            log.error("NEXT CAUSE", sex2);
-                        }
-                        ret.abort = true;
+                        if (group)
+                            abortGroup(w);
                     }
-                    else if (oops instanceof DataAccessResourceFailureException)
+                }
+            }));
+        }
+
+        for (Future<Progress> f : results)
+        {
+            try
+            {
+                Progress p = f.get();
+                ret.ingested += p.ingested;
+                ret.unchanged += p.unchanged;
+                ret.failed += p.failed;
+                ret.handled += p.handled;
+                ret.abort = ret.abort || p.abort;
+            }
+            catch(ExecutionException ex)
+            {
+                log.error("writer failed", ex.getCause());
+                ret.abort = true;
+            }
+            catch(InterruptedException ex)
+            {
+                log.warn("interrupted while waiting for writers");
+                abort.set(true);
+                ret.abort = true;
+            }
+        }
+        entityList.clear();
+        log.debug("harvest state: " + watermark);
+    }
+
+    // low watermark of contiguously committed observations in a batch
+    private class Watermark
+    {
+        private final HarvestState state;
+        private final UUID[] ids;
+        private final Date[] lastModified;
+        private final boolean[] committed;
+        private int low = -1;
+
+        Watermark(List<SkippedWrapper<Observation>> entityList, HarvestState state)
+        {
+            this.state = state;
+            int n = entityList.size();
+            this.ids = new UUID[n];
+            this.lastModified = new Date[n];
+            this.committed = new boolean[n];
+            for (int i = 0; i < n; i++)
+            {
+                Observation o = entityList.get(i).entity;
+                ids[i] = o.getID();
+                lastModified[i] = o.getMaxLastModified();
+            }
+        }
+
+        synchronized void committed(int i)
+        {
+            committed[i] = true;
+            int prev = low;
+            while (low + 1 < committed.length && committed[low + 1])
+                low++;
+            if (low > prev)
+            {
+                state.curLastModified = lastModified[low];
+                state.curID = ids[low];
+                harvestState.put(state);
+            }
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return (low + 1) + "/" + committed.length + " " + format(state.curID) + " " + format(state.curLastModified);
+        }
+    }
+
+    /**
+     * Get the current destination state (observation only: ID, URI, and maxLastModified) 
+     * of all the observations in a batch in one query per MAX_IN_LIST URIs. An observation
+     * that is not in the returned map is not in the destination.
+     * 
+     * @return map of destination observations (depth 1) or null if not available
+     */
+    private Map<ObservationURI,Observation> getDestState(DatabaseObservationDAO dao, List<SkippedWrapper<Observation>> entityList)
+    {
+        if (dryrun || entityList.isEmpty())
+            return null;
+        
+        List<ObservationURI> uris = new ArrayList<ObservationURI>(entityList.size());
+        for (SkippedWrapper<Observation> ow : entityList)
+        {
+            if (ow.entity != null)
+                uris.add(ow.entity.getURI());
+        }
+        
+        final Map<ObservationURI,Observation> ret = new HashMap<ObservationURI,Observation>();
+        long t = System.currentTimeMillis();
+        try
+        {
+            dao.getByURI(uris, 1, new ResultHandler<Observation>()
+            {
+                public void handle(Observation o)
+                {
+                    ret.put(o.getURI(), o);
+                }
+            });
+            return ret;
+        }
+        catch(RuntimeException ex)
+        {
+            log.warn("failed to get destination state, checking each observation: " + ex);
+            return null;
+        }
+        finally
+        {
+            log.debug("time to get destination state: " + uris.size() + " " + (System.currentTimeMillis() - t) + "ms");
+        }
+    }
+    
+    private boolean useGroupCommit()
+    {
+        return (commitSize > 1 && !dryrun && !interactive);
+    }
+    
+    // start the outer transaction of a group unless one is already open
+    private void startGroup(Writer w)
+    {
+        if (w.grouped)
+            return;
+        log.debug("starting group transaction");
+        w.destDAO.getTransactionManager().startTransaction();
+        w.grouped = true;
+        w.groupNum = 0;
+        w.groupStart = System.currentTimeMillis();
+        w.doneID = null;
+        w.doneLastModified = null;
+    }
+    
+    private boolean isGroupFull(Writer w)
+    {
+        if (w.groupNum >= commitSize)
+            return true;
+        return (commitInterval > 0L && System.currentTimeMillis() - w.groupStart >= commitInterval);
+    }
+    
+    // commit the group along with the harvest state of the last observation done in the group
+    private void commitGroup(Writer w, HarvestState state, Progress ret)
+    {
+        if (!w.grouped)
+            return;
+        try
+        {
+            if (state != null && w.stateDAO != null && w.doneID != null)
+            {
+                state.curID = w.doneID;
+                state.curLastModified = w.doneLastModified;
+                w.stateDAO.put(state);
+            }
+            commitGroup(w, ret);
+        }
+        catch(Throwable oops)
+        {
+            log.error("failed to update harvest state", oops);
+            ret.abort = true;
+        }
+    }
+    
+    // commit the group and then advance the watermark past the observations in it
+    private void commitGroup(Writer w, List<Integer> pending, Watermark watermark, Progress ret)
+    {
+        if (!w.grouped)
+            return;
+        if (commitGroup(w, ret))
+        {
+            for (Integer i : pending)
+                watermark.committed(i);
+        }
+        pending.clear();
+    }
+    
+    private boolean commitGroup(Writer w, Progress ret)
+    {
+        long t = System.currentTimeMillis();
+        try
+        {
+            log.debug("committing group transaction");
+            w.grouped = false;
+            w.destDAO.getTransactionManager().commitTransaction();
+            log.debug("commit group: " + w.groupNum + " OK");
+            return true;
+        }
+        catch(Throwable oops)
+        {
+            log.error("failed to commit group of " + w.groupNum + " observations", oops);
+            ret.abort = true;
+            return false;
+        }
+        finally
+        {
+            log.debug("time to commit group: " + (System.currentTimeMillis() - t) + "ms");
+        }
+    }
+    
+    // roll back a group that was not committed because of an unexpected failure
+    private void abortGroup(Writer w)
+    {
+        if (!w.grouped)
+            return;
+        w.grouped = false;
+        try
+        {
+            w.destDAO.getTransactionManager().rollbackTransaction();
+            log.warn("rollback group of " + w.groupNum + " observations: OK");
+        }
+        catch(Throwable oops)
+        {
+            log.error("failed to rollback group transaction", oops);
+        }
+    }
+
+    /**
+     * Put one observation in its own transaction. In group commit mode the transaction
+     * is a savepoint inside the group transaction and the harvest state is updated when
+     * the group is committed. If the destination state was prefetched (destState not null), 
+     * an observation with the same ID and maxLastModified in the destination is unchanged
+     * and is not put again. In skip mode (o == null) this removes
+     * the HarvestSkip record for an observation that is gone from the source.
+     *
+     * @return true if the observation was committed or recorded as skipped
+     */
+    private boolean put(Writer w, SkippedWrapper<Observation> ow, HarvestState state, 
+            Map<ObservationURI,Observation> destState, Progress ret)
+    {
+        Observation o = ow.entity;
+        HarvestSkip hs = ow.skip;
+
+        String lastMsg = null;
+        String skipMsg = null;
+
+        if (!dryrun)
+        {
+            if (!w.grouped && w.destDAO.getTransactionManager().isOpen())
+                throw new RuntimeException("BUG: found open trasnaction at start of next observation");
+            log.debug("starting transaction" + (w.grouped ? " (savepoint)" : ""));
+            w.destDAO.getTransactionManager().startTransaction();
+        }
+        boolean ok = false;
+        boolean done = false;
+        try
+        {
+            // o could be null in skip mode cleanup
+            if (o != null)
+            {
+                String treeSize = computeTreeSize(o);
+                log.info("put: " + o.getClass().getSimpleName() + " " + format(o.getID()) 
+                        + " " + format(o.getMaxLastModified()) + " " + treeSize);
+            }
+            if (!dryrun) 
+            {
+                if (skipped)
+                    startDate = hs.lastModified;
+                if (o != null)
+                {
+                    if (state != null)
                     {
-                        log.error("SEVERE PROBLEM - probably out of space in database", oops);
-                        ret.abort = true;
+                        state.curLastModified = o.getMaxLastModified();
+                        state.curID = o.getID();
                     }
-                    else if (oops instanceof DataIntegrityViolationException
-                            && str.contains("duplicate key value violates unique constraint \"i_observationuri\""))
+                    
+                    // try to avoid DataIntegrityViolationException due to missed deletion of an observation
+                    Observation cur = null;
+                    UUID curID;
+                    if (destState != null)
                     {
-                        log.error("CONTENT PROBLEM - duplicate observation: " + format(o.getID()) + " "
-                                + o.getURI().getURI().toASCIIString());
-                        ret.handled++;
+                        cur = destState.get(o.getURI());
+                        curID = (cur == null ? null : cur.getID());
                     }
-                    else if  (oops instanceof UncategorizedSQLException)
+                    else
+                        curID = w.destDAO.getID(o.getURI());
+                    if ( curID != null && !curID.equals(o.getID()) )
                     {
-                        if (str.contains("spherepoly_from_array"))
+                        ObservationURI oldSrc = w.srcDAO.getURI(curID); // still in src?
+                        if (oldSrc == null)
                         {
-                            log.error("UNDETECTED illegal polygon: " + o.getURI());
-                            ret.handled++;
+                            // missed harvesting a deletion
+                            log.info("delete: " + o.getClass().getSimpleName() + " " + format(curID) 
+                                + " (ObservationURI conflict avoided)");
+                            w.destDAO.delete(curID);
                         }
-                        else
-                            log.error("unexpected exception", oops);
+                        //else: the put below with throw a valid exception because source is not enforcing
+                        // unique ID and URI
+                    }
+                    boolean sameID = (cur != null && cur.getID().equals(o.getID()));
+                    boolean unchanged = sameID && cur.getMaxLastModified() != null
+                            && cur.getMaxLastModified().getTime() == o.getMaxLastModified().getTime();
+                    if (doCollisionCheck)
+                    {
+                        Observation cc = (sameID ? cur : w.destDAO.getShallow(o.getID()));
+                        log.info("collision check: " + o.getURI() 
+                            + " " + format(o.getMaxLastModified()) + " vs " 
+                            + format(cc.getMaxLastModified()));
+                        if ( !cc.getMaxLastModified().equals(o.getMaxLastModified()) )
+                            throw new IllegalStateException("detected harvesting collision: " + o.getURI() 
+                                    + " maxLastModified: " + format(o.getMaxLastModified()));
                     }
-                    else if (oops instanceof IllegalArgumentException
-                            && str.contains("CaomValidator") && str.contains("keywords"))
+                    
+                    // advannce the date before put as there are usually lots of fails
+                    if (skipped)
+                        startDate = hs.lastModified;
+                    
+                    if (unchanged)
                     {
-                        log.error("CONTENT PROBLEM - invalid keywords: " + format(o.getID()) + " "
-                                + o.getURI().getURI().toASCIIString());
-                        ret.handled++;
+                        log.info("unchanged: " + o.getClass().getSimpleName() + " " + format(o.getID()) 
+                                + " " + format(o.getMaxLastModified()));
+                        ret.unchanged++;
                     }
                     else
-                        log.error("unexpected exception", oops);
+                    {
+                        // temporary validation hack to avoid tickmarks in the keywords columns
+                        CaomValidator.validateKeywords(o);
+
+                        w.destDAO.put(o);
+                    }
+              
+                
+                    if (hs != null) // success in redo mode
+                    {
+                        log.info("delete: " + hs + " " + format(hs.lastModified));
+                        w.skipDAO.delete(hs);
+                    }
+                    else if (w.stateDAO != null && !w.grouped)
+                        w.stateDAO.put(state);
                 }
-                finally
+                else if (skipped) // observation is gone from  src
                 {
-                    if (!ok && !dryrun)
-                    {
-                        log.warn("failed to insert " + o + ": " + lastMsg);
-                        skipMsg = o + ": " + lastMsg;
-                        lastMsg = null;
-                        destObservationDAO.getTransactionManager().rollbackTransaction();
-                        log.warn("rollback: OK");
-                        tTransaction += System.currentTimeMillis() - t;
-                        
-                        try
-                        {
-                            log.debug("starting HarvestSkip transaction");
-                            boolean putSkip = true;
-                            HarvestSkip skip = harvestSkip.get(source, cname, o.getID());
-                            if (skip == null)
-                                skip = new HarvestSkip(source, cname, o.getID(), skipMsg);
-                            else
-                            {
-                                if (skipMsg != null && !skipMsg.equals(skip.errorMessage))
-                                {
-                                    skip.errorMessage = skipMsg; // possible update
-                                }
-                                else
-                                {
-                                    log.info("no change in status: " + hs);
-                                    putSkip = false; // avoid timestamp update
-                                }
-                            }
-                            
+                    log.info("delete: " + hs + " " + format(hs.lastModified));
+                    w.skipDAO.delete(hs);
+                }
 
-                            destObservationDAO.getTransactionManager().startTransaction();
+                
+                log.debug("committing transaction");
+                w.destDAO.getTransactionManager().commitTransaction();
+                log.debug("commit: OK");
+            }
+            ok = true;
+            done = true;
+            ret.ingested++;
+        }
+        catch(Throwable oops)
+        {
+            lastMsg = oops.getMessage();
+            String str = oops.toString();
+            if (oops instanceof Error)
+            {
+                log.error("FATAL - probably installation or environment", oops);
+                ret.abort = true;
+            }
+            else if (oops instanceof NullPointerException)
+            {
+                log.error("BUG", oops);
+                ret.abort = true;
+            }
+            else if (oops instanceof BadSqlGrammarException)
+            {
+                log.error("BUG", oops);
+                BadSqlGrammarException bad = (BadSqlGrammarException) oops;
+                SQLException sex1 = bad.getSQLException();
 
-                            if (!skipped)
-                            {
-                                // track the harvest state progress
-                                harvestState.put(state);
-                            }
-                            
-                            // track the fail
-                            if (putSkip)
-                            {
-                                log.info("put: " + skip);
-                                harvestSkip.put(skip);
-                            }
-                            
-                            // TBD: delete previous version of obs?
-                            destObservationDAO.delete(o.getID());
-                            log.debug("committing HarvestSkip transaction");
-                            destObservationDAO.getTransactionManager().commitTransaction();
-                            log.debug("commit HarvestSkip: OK");
+                if (sex1 != null)
+                {
+                    log.error("CAUSE", sex1);
+                    SQLException sex2 = sex1.getNextException();
+                    log.error("NEXT CAUSE", sex2);
+                }
+                ret.abort = true;
+            }
+            else if (oops instanceof DataAccessResourceFailureException)
+            {
+                log.error("SEVERE PROBLEM - probably out of space in database", oops);
+                ret.abort = true;
+            }
+            else if (oops instanceof DataIntegrityViolationException
+                    && str.contains("duplicate key value violates unique constraint \"i_observationuri\""))
+            {
+                log.error("CONTENT PROBLEM - duplicate observation: " + format(o.getID()) + " "
+                        + o.getURI().getURI().toASCIIString());
+                ret.handled++;
+            }
+            else if  (oops instanceof UncategorizedSQLException)
+            {
+                if (str.contains("spherepoly_from_array"))
+                {
+                    log.error("UNDETECTED illegal polygon: " + o.getURI());
+                    ret.handled++;
+                }
+                else
+                    log.error("unexpected exception", oops);
+            }
+            else if (oops instanceof IllegalArgumentException
+                    && str.contains("CaomValidator") && str.contains("keywords"))
+            {
+                log.error("CONTENT PROBLEM - invalid keywords: " + format(o.getID()) + " "
+                        + o.getURI().getURI().toASCIIString());
+                ret.handled++;
+            }
+            else
+                log.error("unexpected exception", oops);
+        }
+        finally
+        {
+            if (!ok && !dryrun)
+            {
+                log.warn("failed to insert " + o + ": " + lastMsg);
+                skipMsg = o + ": " + lastMsg;
+                lastMsg = null;
+                w.destDAO.getTransactionManager().rollbackTransaction();
+                log.warn("rollback: OK");
+                
+                try
+                {
+                    log.debug("starting HarvestSkip transaction");
+                    boolean putSkip = true;
+                    HarvestSkip skip = w.skipDAO.get(source, cname, o.getID());
+                    if (skip == null)
+                        skip = new HarvestSkip(source, cname, o.getID(), skipMsg);
+                    else
+                    {
+                        if (skipMsg != null && !skipMsg.equals(skip.errorMessage))
+                        {
+                            skip.errorMessage = skipMsg; // possible update
                         }
-                        catch(Throwable oops)
+                        else
                         {
-                            log.warn("failed to insert HarvestSkip", oops);
-                            destObservationDAO.getTransactionManager().rollbackTransaction();
-                            log.warn("rollback HarvestSkip: OK");
-                            ret.abort = true;
+                            log.info("no change in status: " + hs);
+                            putSkip = false; // avoid timestamp update
                         }
-                        ret.failed++;
                     }
+                    
 
-                    if (interactive)
-                    {
-                        try
-                        {
-                            String str = "";
-                            while (str != null)
-                            {
-                                System.out.print("\n\n(n=next, q=quit): ");
-                                str = stdin.readLine();
-                                if ("n".equals(str))
-                                    break;
-                                else if ("q".equals(str))
-                                {
-                                    ret.abort = true;
-                                    break;
-                                }
-                                else
-                                    System.out.println("unexpected input: " + str);
-                            }
-                        }
-                        catch (IOException e)
-                        {
+                    w.destDAO.getTransactionManager().startTransaction();
 
-                        }
+                    if (!skipped && w.stateDAO != null && !w.grouped)
+                    {
+                        // track the harvest state progress
+                        w.stateDAO.put(state);
                     }
+                    
+                    // track the fail
+                    if (putSkip)
+                    {
+                        log.info("put: " + skip);
+                        w.skipDAO.put(skip);
+                    }
+                    
+                    // TBD: delete previous version of obs?
+                    w.destDAO.delete(o.getID());
+                    log.debug("committing HarvestSkip transaction");
+                    w.destDAO.getTransactionManager().commitTransaction();
+                    log.debug("commit HarvestSkip: OK");
+                    done = true;
+                }
+                catch(Throwable oops)
+                {
+                    log.warn("failed to insert HarvestSkip", oops);
+                    w.destDAO.getTransactionManager().rollbackTransaction();
+                    log.warn("rollback HarvestSkip: OK");
+                    ret.abort = true;
+                }
+                ret.failed++;
+            }
+            if (w.grouped)
+            {
+                w.groupNum++;
+                if (done && o != null)
+                {
+                    w.doneID = o.getID();
+                    w.doneLastModified = o.getMaxLastModified();
                 }
-                if (ret.abort)
-                    return ret;
             }
-            if (ret.found < expectedNum)
-                ret.done = true;
         }
-        finally
+        return done;
+    }
+
+    private boolean bulkLoad(List<SkippedWrapper<Observation>> entityList, HarvestState state)
+    {
+        long t = System.currentTimeMillis();
+        Date prevLastModified = state.curLastModified;
+        UUID prevID = state.curID;
+        try
         {
-            tTransaction = System.currentTimeMillis() - t;
-            log.debug("time to get HarvestState: " + tState + "ms");
-            log.debug("time to run ObservationListQuery: " + tQuery + "ms");
-            log.debug("time to run transactions: " + tTransaction + "ms");
+            List<Observation> obs = new ArrayList<Observation>(entityList.size());
+            for (SkippedWrapper<Observation> ow : entityList)
+            {
+                // temporary validation hack to avoid tickmarks in the keywords columns
+                CaomValidator.validateKeywords(ow.entity);
+                obs.add(ow.entity);
+            }
+            Observation last = obs.get(obs.size() - 1);
+            
+            log.debug("starting transaction");
+            destObservationDAO.getTransactionManager().startTransaction();
+            destObservationDAO.load(obs);
+            state.curLastModified = last.getMaxLastModified();
+            state.curID = last.getID();
+            harvestState.put(state);
+            log.debug("committing transaction");
+            destObservationDAO.getTransactionManager().commitTransaction();
+            log.debug("commit: OK");
+            
+            log.info("load: " + obs.size() + " " + Observation.class.getSimpleName() 
+                    + " " + format(last.getMaxLastModified()) + " " + (System.currentTimeMillis() - t) + "ms");
+            return true;
+        }
+        catch(Throwable oops)
+        {
+            log.warn("bulk load failed, falling back to put: " + oops);
+            log.debug("bulk load failure", oops);
+            if (destObservationDAO.getTransactionManager().isOpen())
+            {
+                destObservationDAO.getTransactionManager().rollbackTransaction();
+                log.warn("rollback: OK");
+            }
+            state.curLastModified = prevLastModified;
+            state.curID = prevID;
+            return false;
         }
-        return ret;
     }
-
+    
     private String computeTreeSize(Observation o)
     {
         StringBuilder sb = new StringBuilder();
@@ -548,24 +1273,16 @@ public class ObservationHarvester extends Harvester
         sb.append(numP).append("]");
         return sb.toString();
     }
+    // skip mode only: observation batches use keyset paging and cannot loop
     private void detectLoop(List<SkippedWrapper<Observation>> entityList)
     {
         if (entityList.size() < 2)
             return;
         SkippedWrapper<Observation> start = entityList.get(0);
         SkippedWrapper<Observation> end = entityList.get(entityList.size() - 1);
-        if (skipped)
-        {
-            if (start.skip.lastModified.equals(end.skip.lastModified))
-                throw new RuntimeException("detected infinite harvesting loop: "
-                    + HarvestSkip.class.getSimpleName() + " at " + format(start.skip.lastModified));
-            return;
-        }
-        if (start.entity.getMaxLastModified().equals(end.entity.getMaxLastModified()))
-        {
+        if (start.skip.lastModified.equals(end.skip.lastModified))
             throw new RuntimeException("detected infinite harvesting loop: "
-                    + entityClass.getSimpleName() + " at " + format(start.entity.getMaxLastModified()));
-        }
+                + HarvestSkip.class.getSimpleName() + " at " + format(start.skip.lastModified));
     }
     
     private List<SkippedWrapper<Observation>> wrap(List<Observation> obsList)
@@ -584,9 +1301,20 @@ public class ObservationHarvester extends Harvester
         log.info("harvest window (skip): " + format(start) + " [" + batchSize + "]");
         List<HarvestSkip> skip = harvestSkip.get(source, cname, start);
         List<SkippedWrapper<Observation>> ret = new ArrayList<SkippedWrapper<Observation>>(skip.size());
+        if (skip.isEmpty())
+            return ret;
+        
+        // get all the skipped observations in as few queries as possible
+        List<UUID> ids = new ArrayList<UUID>(skip.size());
+        for (HarvestSkip hs : skip)
+            ids.add(hs.getSkipID());
+        Map<UUID,Observation> found = new HashMap<UUID,Observation>();
+        for (Observation o : srcObservationDAO.getByID(ids))
+            found.put(o.getID(), o);
+        
         for (HarvestSkip hs : skip)
         {
-            Observation o = srcObservationDAO.get(hs.getSkipID());
+            Observation o = found.get(hs.getSkipID()); // null: deleted from source
             ret.add(new SkippedWrapper<Observation>(o, hs));
         }
         return ret;
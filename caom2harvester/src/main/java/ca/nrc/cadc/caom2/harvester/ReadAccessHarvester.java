@@ -59,6 +59,8 @@ public class ReadAccessHarvester extends Harvester
     private void init()
         throws IOException
     {
+        if (initialized)
+            return;
         Map<String,Object> config1 = getConfigDAO(src);
         Map<String,Object> config2 = getConfigDAO(dest);
         
@@ -72,6 +74,7 @@ public class ReadAccessHarvester extends Harvester
         destAccessDAO.setComputeLastModified(false); // copy as-is
         
         initHarvestState(destAccessDAO.getDataSource(), entityClass);
+        this.initialized = true;
     }
 
     private void close()
@@ -92,10 +95,12 @@ public class ReadAccessHarvester extends Harvester
             throw new RuntimeException("failed to init connections and state", oops);
         }
 
-        boolean go = true;
+        this.found = 0;
+        boolean go = !isStopped();
         while (go)
         {
             Progress num = doit();
+            found += num.found;
             if (num.found > 0)
                 log.info("finished batch: " + num);
             if (!skipped && num.failed > num.found/2) // more than half failed
@@ -109,11 +114,14 @@ public class ReadAccessHarvester extends Harvester
             full = false; // do not start at min(lastModified) again
             if (dryrun)
                 go = false;
+            if (isStopped())
+                go = false;
             //go = false;// single loop for testing
         }
         try
         {
-            close();
+            if (!keepAlive)
+                close();
         }
         catch(Throwable oops)
         {
@@ -189,6 +197,11 @@ public class ReadAccessHarvester extends Harvester
             ListIterator<SkippedWrapper<ReadAccess>> iter = entityList.listIterator();
             while ( iter.hasNext() )
             {
+                if (isStopped())
+                {
+                    log.info("stopped: " + entityList.size() + " remaining in batch");
+                    return ret;
+                }
                 SkippedWrapper<ReadAccess> sra = iter.next();
                 ReadAccess ra = sra.entity;
                 HarvestSkip hs = sra.skip;
@@ -71,6 +71,7 @@ package ca.nrc.cadc.caom2;
 
 
 import java.util.Date;
+import java.util.UUID;
 
 /**
  * Wrapper class to support listing observations in incremental mode.
@@ -84,12 +85,19 @@ public class ObservationState
     private final String collection;
     private final String observationID;
     private final Date maxLastModified;
+    private final UUID id;
     
     public ObservationState(String collection, String observationID, Date maxlastModified) 
+    { 
+        this(collection, observationID, maxlastModified, null);
+    }
+    
+    public ObservationState(String collection, String observationID, Date maxlastModified, UUID id) 
     { 
         this.collection = collection;
         this.observationID = observationID;
         this.maxLastModified = maxlastModified;
+        this.id = id;
     }
 
     public String getCollection()
@@ -107,6 +115,15 @@ public class ObservationState
         return maxLastModified;
     }
 
+    /**
+     * @return the observation ID; together with maxLastModified this is the 
+     * key for paging through a list
+     */
+    public UUID getID()
+    {
+        return id;
+    }
+
     @Override
     public String toString()
     {
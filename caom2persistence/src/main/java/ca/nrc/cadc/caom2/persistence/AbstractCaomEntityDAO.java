@@ -83,6 +83,7 @@ import java.util.List;
 import java.util.UUID;
 import org.apache.log4j.Logger;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 
 /**
@@ -93,6 +94,12 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
 {
     private static final Logger log = Logger.getLogger(AbstractCaomEntityDAO.class);
     protected boolean computeLastModified = true;
+    
+    // non-null: load observation children with one query per level instead of a join
+    protected SplitQueryLoader splitQueryLoader;
+    
+    // true: delete an entity and all descendants with one statement per table
+    protected boolean subtreeDelete = false;
 
     protected AbstractCaomEntityDAO() { }
 
@@ -109,6 +116,11 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
     {
         this.computeLastModified = computeLastModified;
     }
+    
+    void setSubtreeDelete(boolean subtreeDelete)
+    {
+        this.subtreeDelete = subtreeDelete;
+    }
 
     public T get(UUID id)
     {
@@ -151,6 +163,26 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
      * @return
      */
     protected List<T> getList(Class<T> c, Date minlastModified, Date maxLastModified, Integer batchSize, int depth)
+    {
+        return getList(c, minlastModified, null, maxLastModified, batchSize, depth);
+    }
+    
+    /**
+     * Get batch of Observations after the key (minLastModified, afterID) in 
+     * (maxLastModified, obsID) order. Consecutive batches do not overlap when the 
+     * next batch starts after the last observation of the previous one, even if 
+     * many observations have the same maxLastModified. The batch may be larger than 
+     * batchSize when observations at the end have the same maxLastModified.
+     * 
+     * @param c
+     * @param minlastModified
+     * @param afterID ID of the last observation in the previous batch, null to start at minLastModified
+     * @param maxLastModified
+     * @param batchSize
+     * @param depth
+     * @return 
+     */
+    protected List<T> getList(Class<T> c, Date minlastModified, UUID afterID, Date maxLastModified, Integer batchSize, int depth)
     {
         checkInit();
 
@@ -163,11 +195,8 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
 
             // find the range of timestamps that gives batchSize entities
             Date endDate = maxLastModified;
-            String sql = gen.getSelectLastModifiedRangeSQL(c, minlastModified, maxLastModified, batchSize);
-            if (log.isDebugEnabled())
-                log.debug("GET SQL: " + Util.formatSQL(sql));
-
-            Object o = jdbc.query(sql, gen.getTimestampRowMapper());
+            PreparedStatementCreator psc = gen.getSelectLastModifiedRangeStatement(c, minlastModified, afterID, maxLastModified, batchSize);
+            Object o = jdbc.query(psc, gen.getTimestampRowMapper());
             if (o instanceof List)
             {
                 List mlm = (List) o;
@@ -178,11 +207,11 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
             }
 
             // now query for the specified range of dates
-            sql = gen.getObservationSelectSQL(c, minlastModified, endDate, depth);
-            if (log.isDebugEnabled())
-                log.debug("GET SQL: " + Util.formatSQL(sql));
-
-            Object result = jdbc.query(sql, gen.getObservationExtractor());
+            int queryDepth = depth;
+            if (splitQueryLoader != null)
+                queryDepth = 1;
+            psc = gen.getObservationSelectStatement(c, minlastModified, afterID, endDate, queryDepth);
+            Object result = jdbc.query(psc, gen.getObservationExtractor());
 
             if (result == null)
                 return new ArrayList<T>(0);
@@ -190,10 +219,14 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
             if (result instanceof List)
             {
                 List obs = (List) result;
+                if (splitQueryLoader != null)
+                    splitQueryLoader.load(obs, depth, jdbc);
                 List<T> ret = new ArrayList<T>(obs.size());
                 ret.addAll(obs);
-                // sort list by maxLastModified
-                Collections.sort(ret, new MaxLastModifiedComparator());
+                // sort list by maxLastModified; keyset queries are already in 
+                // (maxLastModified, obsID) order and that order must be kept
+                if (afterID == null)
+                    Collections.sort(ret, new MaxLastModifiedComparator());
                 return ret;
             }
             throw new RuntimeException("BUG: query returned an unexpected type " + result.getClass().getName());
@@ -248,6 +281,22 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
     }
     
     protected void put(Skeleton cur, T val, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, boolean force)
+    {
+        put(cur, val, parents, jdbc, force, null);
+    }
+    
+    /**
+     * Insert or update an entity. If the batch is not null, the insert or update
+     * is added to the batch and executed when the caller flushes the batch.
+     * 
+     * @param cur current state in the database, null for insert
+     * @param val new state
+     * @param parents ancestors of val, nearest first
+     * @param jdbc
+     * @param force update even if the stateCode has not changed
+     * @param batch optional batch of deferred puts
+     */
+    protected void put(Skeleton cur, T val, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, boolean force, EntityBatch batch)
     {
         if (readOnly)
             throw new UnsupportedOperationException("put in readOnly mode");
@@ -270,8 +319,20 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
             else
                 log.debug("PUT insert: " + val.getClass().getSimpleName() + " " + val.getID());
             EntityPut<T> op = gen.getEntityPut(val.getClass(), isUpdate);
-            op.setValue(val, parents);
-            op.execute(jdbc);
+            if (batch != null && op instanceof BatchEntityPut)
+            {
+                // copy: parents is a stack that changes before the batch is flushed
+                List<CaomEntity> ps = null;
+                if (parents != null)
+                    ps = new ArrayList<CaomEntity>(parents);
+                op.setValue(val, ps);
+                batch.add(val.getClass(), isUpdate, (BatchEntityPut) op);
+            }
+            else
+            {
+                op.setValue(val, parents);
+                op.execute(jdbc);
+            }
         }
         else
             log.debug("PUT skip: " + val.getClass().getSimpleName() + " " + val.getID());
@@ -281,6 +342,15 @@ abstract class AbstractCaomEntityDAO<T extends AbstractCaomEntity> extends Abstr
     {
         if (readOnly)
             throw new UnsupportedOperationException("delete in readOnly mode");
+        if (subtreeDelete)
+        {
+            // fixed number of statements instead of walking the skeleton
+            checkInit();
+            EntityDelete op = gen.getSubtreeDelete(ce.targetClass);
+            op.setID(ce.id);
+            op.execute(jdbc);
+            return;
+        }
         deleteChildren(ce, jdbc);
         deleteSelf(ce, jdbc);
     }
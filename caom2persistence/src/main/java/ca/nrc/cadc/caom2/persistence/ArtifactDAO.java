@@ -98,8 +98,20 @@ class ArtifactDAO extends AbstractCaomEntityDAO<Artifact>
         this.partDAO = new PartDAO(gen, forceUpdate, readOnly);
     }
 
+    @Override
+    void setSubtreeDelete(boolean subtreeDelete)
+    {
+        super.setSubtreeDelete(subtreeDelete);
+        partDAO.setSubtreeDelete(subtreeDelete);
+    }
+
     @Override
     public void put(Skeleton cur, Artifact a, LinkedList<CaomEntity> parents, JdbcTemplate jdbc)
+    {
+        put(cur, a, parents, jdbc, null);
+    }
+    
+    public void put(Skeleton cur, Artifact a, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, EntityBatch batch)
     {
         if (a == null)
             throw new IllegalArgumentException("arg cannot be null");
@@ -134,11 +146,11 @@ class ArtifactDAO extends AbstractCaomEntityDAO<Artifact>
                 for (Part p : a.getParts())
                     pairs.add(new Pair<Part>(null, p));
 
-            super.put(cur, a, parents, jdbc);
+            super.put(cur, a, parents, jdbc, false, batch);
 
             parents.push(a);
             for (Pair<Part> p : pairs)
-                partDAO.put(p.cur, p.val, parents, jdbc);
+                partDAO.put(p.cur, p.val, parents, jdbc, batch);
             parents.pop();
         }
         finally
@@ -112,10 +112,32 @@ public class BaseObservationExtractor implements ObservationExtractor
 
     public List<Observation> extractObservations(ResultSet rs)
         throws SQLException
+    {
+        final List<Observation> ret = new ArrayList<Observation>();
+        extractObservations(rs, new ResultHandler<Observation>()
+        {
+            public void handle(Observation o)
+            {
+                ret.add(o);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Extract observations and pass each one to the handler as soon as all of
+     * its rows have been consumed. The ResultSet must be ordered so that all rows 
+     * for an observation are contiguous.
+     * 
+     * @param rs
+     * @param handler
+     * @throws SQLException 
+     */
+    public void extractObservations(ResultSet rs, ResultHandler<Observation> handler)
+        throws SQLException
     {
         int ncol = rs.getMetaData().getColumnCount();
         log.debug("extractData: ncol=" +  ncol);
-        List<Observation> ret = new ArrayList<Observation>();
         Observation curObs = null;
         Plane curPlane = null;
         Artifact curArtifact = null;
@@ -132,10 +154,16 @@ public class BaseObservationExtractor implements ObservationExtractor
             if ( curObs == null || !curObs.getID().equals(obs.getID()) )
             {
                 if (curObs != null) // found first row of next observation
+                {
                     log.debug("END observation: " + curObs.getID());
+                    handler.handle(curObs);
+                }
                 
                 curObs = obs;
-                ret.add(curObs);
+                curPlane = null;
+                curArtifact = null;
+                curPart = null;
+                curChunk = null;
                 log.debug("START observation: " + curObs.getID());
             }
             // else: obs content repeated due to join -- ignore it
@@ -233,7 +261,10 @@ public class BaseObservationExtractor implements ObservationExtractor
                 }
             }
         }
-       
-        return ret;
+        if (curObs != null)
+        {
+            log.debug("END observation: " + curObs.getID());
+            handler.handle(curObs);
+        }
     }
 }
@@ -157,7 +157,10 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
@@ -165,11 +168,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -203,8 +208,6 @@ public class BaseSQLGenerator implements SQLGenerator
     static final String SIMPLE_TYPE = "S";
     static final String COMPOSITE_TYPE = "C";
 
-    private Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
-
     protected String database;
     protected String schema;
     protected boolean useIntegerForBoolean = true; // TAP default
@@ -233,7 +236,10 @@ public class BaseSQLGenerator implements SQLGenerator
 
     //protected final Map<Class,String> alternateLastModifiedColumn = new TreeMap<Class,String>(new ClassComp());
 
-    protected DateFormat dateFormat = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
+    // parameterized select templates keyed by query shape (class, depth, skeleton, optional predicates)
+    private final Map<String,String> sqlTemplates = new ConcurrentHashMap<String,String>();
+    
+    private static final String PARAM = "?";
     
     private BaseSQLGenerator() { }
     
@@ -560,7 +566,7 @@ public class BaseSQLGenerator implements SQLGenerator
         columnMap.put(PlaneMetaReadAccessSkeleton.class, new String[] { "lastModified", "stateCode", "readAccessID" });
         columnMap.put(PlaneDataReadAccessSkeleton.class, new String[] { "lastModified", "stateCode", "readAccessID" });
         
-        columnMap.put(ObservationState.class, new String[] { "collection", "observationID", "maxLastModified" });
+        columnMap.put(ObservationState.class, new String[] { "collection", "observationID", "maxLastModified", "obsID" });
     }
 
     public boolean persistTransientState()
@@ -578,6 +584,46 @@ public class BaseSQLGenerator implements SQLGenerator
     }
 
     public String getSelectSQL(ObservationURI uri, int depth, boolean skeleton)
+    {
+        return getSelectSQLImpl(depth, skeleton, literal(uri.getCollection()), literal(uri.getObservationID()));
+    }
+    
+    public PreparedStatementCreator getSelectStatement(ObservationURI uri, int depth, boolean skeleton)
+    {
+        String key = "uri:" + depth + ":" + skeleton;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectSQLImpl(depth, skeleton, PARAM, PARAM);
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, uri.getCollection(), uri.getObservationID());
+    }
+    
+    // select the ObservationState of a single observation: one row and no join
+    public PreparedStatementCreator getStateSelectStatement(ObservationURI uri)
+    {
+        String key = "state:uri";
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            String alias = getAlias(ObservationState.class);
+            StringBuilder sb = new StringBuilder();
+            sb.append("SELECT ");
+            sb.append(getColumns(ObservationState.class));
+            sb.append(" FROM ");
+            sb.append(getFrom(ObservationState.class));
+            sb.append(" WHERE ");
+            sb.append(alias).append(".collection = ").append(PARAM);
+            sb.append(" AND ");
+            sb.append(alias).append(".observationID = ").append(PARAM);
+            sql = sb.toString();
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, uri.getCollection(), uri.getObservationID());
+    }
+    
+    private String getSelectSQLImpl(int depth, boolean skeleton, String collection, String observationID)
     {
         StringBuilder sb = new StringBuilder();
         String alias = getAlias(Observation.class);
@@ -589,11 +635,11 @@ public class BaseSQLGenerator implements SQLGenerator
         sb.append(alias);
         // TODO: use uri column directly in future
         sb.append(".").append("collection").append(" = ");
-        sb.append(literal(uri.getCollection()));
+        sb.append(collection);
         sb.append(" AND ");
         sb.append(alias);
         sb.append(".").append("observationID").append(" = ");
-        sb.append(literal(uri.getObservationID()));
+        sb.append(observationID);
         String orderBy = getOrderColumns(depth);
         if (skeleton)
             orderBy = getSkeletonOrderColumns(depth);
@@ -605,6 +651,23 @@ public class BaseSQLGenerator implements SQLGenerator
         return sb.toString();
     }
     public String getSelectSQL(UUID id, int depth, boolean skeleton)
+    {
+        return getSelectSQLImpl(depth, skeleton, literal(id));
+    }
+    
+    public PreparedStatementCreator getSelectStatement(UUID id, int depth, boolean skeleton)
+    {
+        String key = "id:" + depth + ":" + skeleton;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectSQLImpl(depth, skeleton, PARAM);
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, id);
+    }
+    
+    private String getSelectSQLImpl(int depth, boolean skeleton, String id)
     {
         StringBuilder sb = new StringBuilder();
         String alias = getAlias(Observation.class);
@@ -620,7 +683,7 @@ public class BaseSQLGenerator implements SQLGenerator
         else
             sb.append(getPrimaryKeyColumn(Observation.class));
         sb.append(" = ");
-        sb.append(literal(id));
+        sb.append(id);
         String orderBy = getOrderColumns(depth);
         if (skeleton)
             orderBy = getSkeletonOrderColumns(depth);
@@ -632,13 +695,132 @@ public class BaseSQLGenerator implements SQLGenerator
         return sb.toString();
     }
 
+    // select Observation(s) in a collection from a list of observationID values
+    public PreparedStatementCreator getSelectStatement(String collection, List<String> observationIDs, int depth)
+    {
+        int n = getInListSize(observationIDs.size());
+        String key = "uris:" + depth + ":" + n;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectInListSQLImpl(depth, true, n);
+            sqlTemplates.put(key, sql);
+        }
+        Object[] values = new Object[n + 1];
+        values[0] = collection;
+        padValues(observationIDs, values, 1);
+        return new SelectStatementCreator(sql, values);
+    }
+    
+    // select Observation(s) from a list of IDs
+    public PreparedStatementCreator getSelectStatement(List<UUID> ids, int depth)
+    {
+        int n = getInListSize(ids.size());
+        String key = "ids:" + depth + ":" + n;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectInListSQLImpl(depth, false, n);
+            sqlTemplates.put(key, sql);
+        }
+        Object[] values = new Object[n];
+        padValues(ids, values, 0);
+        return new SelectStatementCreator(sql, values);
+    }
+    
+    // IN-list templates are generated for a few sizes (powers of 2) and the values
+    // padded by repeating the last one so the number of distinct templates stays small
+    private int getInListSize(int num)
+    {
+        if (num == 0)
+            throw new IllegalArgumentException("IN list cannot be empty");
+        int ret = 8;
+        while (ret < num)
+            ret *= 2;
+        return ret;
+    }
+    
+    private void padValues(List<?> vals, Object[] dest, int offset)
+    {
+        Object last = null;
+        for (int i = offset; i < dest.length; i++)
+        {
+            int j = i - offset;
+            if (j < vals.size())
+                last = vals.get(j);
+            dest[i] = last;
+        }
+    }
+    
+    private String getSelectInListSQLImpl(int depth, boolean byURI, int num)
+    {
+        StringBuilder sb = new StringBuilder();
+        String alias = getAlias(Observation.class);
+        sb.append("SELECT ");
+        sb.append(getObservationSelect(depth, false));
+        sb.append(" WHERE ");
+        if (byURI)
+        {
+            sb.append(alias).append(".collection = ").append(PARAM);
+            sb.append(" AND ");
+            sb.append(alias).append(".observationID");
+        }
+        else
+            sb.append(alias).append(".").append(getPrimaryKeyColumn(Observation.class));
+        sb.append(" IN (");
+        for (int i = 0; i < num; i++)
+        {
+            if (i > 0)
+                sb.append(",");
+            sb.append(PARAM);
+        }
+        sb.append(")");
+        String orderBy = getOrderColumns(depth);
+        if (orderBy != null)
+        {
+            sb.append(" ORDER BY ");
+            sb.append(orderBy);
+        }
+        return sb.toString();
+    }
+
     // select batchSize Observation.maxLastModified, starting at minLastModified and in maxLastModified order
     public String getSelectLastModifiedRangeSQL(Class c, Date minLastModified, Date maxLastModified, Integer batchSize)
+    {
+        return getSelectLastModifiedRangeSQL(c, minLastModified, null, maxLastModified, batchSize);
+    }
+    
+    // keyset variant: start after (minLastModified, afterID) in (maxLastModified, obsID) order
+    public String getSelectLastModifiedRangeSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize)
+    {
+        checkKeyset(minLastModified, afterID);
+        return getSelectLastModifiedRangeSQLImpl(c, optLiteral(minLastModified), optLiteral(afterID), optLiteral(maxLastModified), batchSize);
+    }
+    
+    public PreparedStatementCreator getSelectLastModifiedRangeStatement(Class c, Date minLastModified, Date maxLastModified, Integer batchSize)
+    {
+        return getSelectLastModifiedRangeStatement(c, minLastModified, null, maxLastModified, batchSize);
+    }
+    
+    public PreparedStatementCreator getSelectLastModifiedRangeStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize)
+    {
+        checkKeyset(minLastModified, afterID);
+        String key = "range:" + c.getSimpleName() + ":" + (minLastModified != null) + ":" + (afterID != null) 
+                + ":" + (maxLastModified != null) + ":" + batchSize;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectLastModifiedRangeSQLImpl(c, param(minLastModified), param(afterID), param(maxLastModified), batchSize);
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, keysetValues(minLastModified, afterID, maxLastModified));
+    }
+    
+    private String getSelectLastModifiedRangeSQLImpl(Class c, String minLastModified, String afterID, String maxLastModified, Integer batchSize)
     {
         if (!Observation.class.equals(c))
             throw new UnsupportedOperationException("incremental list query for " + c.getSimpleName());
 
-        DateFormat df = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
         String top = getTopConstraint(batchSize);
         String limit = getLimitConstraint(batchSize);
 
@@ -655,9 +837,7 @@ public class BaseSQLGenerator implements SQLGenerator
         if (minLastModified != null)
         {
             sb.append(" WHERE ");
-            sb.append(alias).append(".maxLastModified >= '");
-            sb.append(df.format(minLastModified));
-            sb.append("'");
+            appendKeyset(sb, alias, "maxLastModified", minLastModified, afterID);
         }
         if (maxLastModified != null)
         {
@@ -665,12 +845,13 @@ public class BaseSQLGenerator implements SQLGenerator
                 sb.append(" WHERE ");
             else
                 sb.append(" AND ");
-            sb.append(alias).append(".maxLastModified <= '");
-            sb.append(df.format(maxLastModified));
-            sb.append("'");
+            sb.append(alias).append(".maxLastModified <= ");
+            sb.append(maxLastModified);
         }
         sb.append(" ORDER BY ");
         sb.append(alias).append(".maxLastModified");
+        if (afterID != null)
+            sb.append(",").append(alias).append(".").append(getPrimaryKeyColumn(Observation.class));
         if (limit != null && limit.length() > 0)
         {
             sb.append(" ");
@@ -690,7 +871,40 @@ public class BaseSQLGenerator implements SQLGenerator
     @Override
     public String getSelectSQL(Class c, Date minLastModified, Date maxLastModified, Integer batchSize, String collection)
     {
-        DateFormat df = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
+        return getSelectSQL(c, minLastModified, null, maxLastModified, batchSize, collection);
+    }
+    
+    // afterID: keyset paging of ObservationState in (maxLastModified, obsID) order
+    @Override
+    public String getSelectSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize, String collection)
+    {
+        checkKeyset(minLastModified, afterID);
+        return getSelectSQLImpl(c, optLiteral(collection), optLiteral(minLastModified), optLiteral(afterID), optLiteral(maxLastModified), batchSize);
+    }
+    
+    public PreparedStatementCreator getSelectStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize, String collection)
+    {
+        checkKeyset(minLastModified, afterID);
+        String key = "list:" + c.getSimpleName() + ":" + (collection != null) + ":" + (minLastModified != null) 
+                + ":" + (afterID != null) + ":" + (maxLastModified != null) + ":" + batchSize;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getSelectSQLImpl(c, param(collection), param(minLastModified), param(afterID), param(maxLastModified), batchSize);
+            sqlTemplates.put(key, sql);
+        }
+        Object[] kv = keysetValues(minLastModified, afterID, maxLastModified);
+        Object[] values = new Object[kv.length + 1];
+        values[0] = collection;
+        System.arraycopy(kv, 0, values, 1, kv.length);
+        return new SelectStatementCreator(sql, values);
+    }
+    
+    private String getSelectSQLImpl(Class c, String collection, String minLastModified, String afterID, String maxLastModified, Integer batchSize)
+    {
+        if (afterID != null && !ObservationState.class.equals(c))
+            throw new UnsupportedOperationException("keyset list query for " + c.getSimpleName());
+        
         String top = getTopConstraint(batchSize);
         String limit = getLimitConstraint(batchSize);
 
@@ -716,26 +930,25 @@ public class BaseSQLGenerator implements SQLGenerator
         {
             sb.append(predCombine);
             predCombine = " AND ";
-            sb.append(alias).append(".collection = '").append(collection).append("'");
+            sb.append(alias).append(".collection = ").append(collection);
         }
         if (minLastModified != null)
         {
             sb.append(predCombine);
             predCombine = " AND ";
-            sb.append(alias).append(".").append(lastModifiedColumn).append(" >= '");
-            sb.append(df.format(minLastModified));
-            sb.append("'");
+            appendKeyset(sb, alias, lastModifiedColumn, minLastModified, afterID);
         }
         if (maxLastModified != null)
         {
             sb.append(predCombine);
             predCombine = " AND ";
-            sb.append(alias).append(".").append(lastModifiedColumn).append(" <= '");
-            sb.append(df.format(maxLastModified));
-            sb.append("'");
+            sb.append(alias).append(".").append(lastModifiedColumn).append(" <= ");
+            sb.append(maxLastModified);
         }
         sb.append(" ORDER BY ");
         sb.append(alias).append(".").append(lastModifiedColumn);
+        if (ObservationState.class.equals(c))
+            sb.append(",").append(alias).append(".").append(getPrimaryKeyColumn(Observation.class));
         if (limit != null && limit.length() > 0)
         {
             sb.append(" ");
@@ -746,12 +959,41 @@ public class BaseSQLGenerator implements SQLGenerator
 
     // select Observation(s) with maxLastmodified in [minLastModified,maxLastModified]
     public String getObservationSelectSQL(Class c, Date minLastModified, Date maxLastModified, int depth)
+    {
+        return getObservationSelectSQL(c, minLastModified, null, maxLastModified, depth);
+    }
+    
+    // keyset variant: observations after (minLastModified, afterID) in (maxLastModified, obsID) order
+    public String getObservationSelectSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, int depth)
+    {
+        checkKeyset(minLastModified, afterID);
+        return getObservationSelectSQLImpl(c, optLiteral(minLastModified), optLiteral(afterID), optLiteral(maxLastModified), depth);
+    }
+    
+    public PreparedStatementCreator getObservationSelectStatement(Class c, Date minLastModified, Date maxLastModified, int depth)
+    {
+        return getObservationSelectStatement(c, minLastModified, null, maxLastModified, depth);
+    }
+    
+    public PreparedStatementCreator getObservationSelectStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, int depth)
+    {
+        checkKeyset(minLastModified, afterID);
+        String key = "obs:" + c.getSimpleName() + ":" + (minLastModified != null) + ":" + (afterID != null) 
+                + ":" + (maxLastModified != null) + ":" + depth;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getObservationSelectSQLImpl(c, param(minLastModified), param(afterID), param(maxLastModified), depth);
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, keysetValues(minLastModified, afterID, maxLastModified));
+    }
+    
+    private String getObservationSelectSQLImpl(Class c, String minLastModified, String afterID, String maxLastModified, int depth)
     {
         if (!Observation.class.equals(c))
             throw new UnsupportedOperationException("incremental list query for " + c.getSimpleName());
 
-        DateFormat df = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
-
         StringBuilder sb = new StringBuilder();
         String alias = getAlias(Observation.class);
         sb.append("SELECT ");
@@ -760,9 +1002,7 @@ public class BaseSQLGenerator implements SQLGenerator
         if (minLastModified != null)
         {
             sb.append(" WHERE ");
-            sb.append(alias).append(".maxLastModified >= '");
-            sb.append(df.format(minLastModified));
-            sb.append("'");
+            appendKeyset(sb, alias, "maxLastModified", minLastModified, afterID);
             and = true;
         }
         if (maxLastModified != null)
@@ -771,12 +1011,21 @@ public class BaseSQLGenerator implements SQLGenerator
                 sb.append(" AND ");
             else
                 sb.append(" WHERE ");
-            sb.append(alias).append(".maxLastModified <= '");
-            sb.append(df.format(maxLastModified));
-            sb.append("'");
+            sb.append(alias).append(".maxLastModified <= ");
+            sb.append(maxLastModified);
         }
         String orderBy = getOrderColumns(depth);
-        if (orderBy != null)
+        if (afterID != null)
+        {
+            // keyset page: observations in the same order as the keyset
+            sb.append(" ORDER BY ");
+            sb.append(alias).append(".maxLastModified,");
+            if (orderBy != null)
+                sb.append(orderBy); // starts with obsID
+            else
+                sb.append(alias).append(".").append(getPrimaryKeyColumn(Observation.class));
+        }
+        else if (orderBy != null)
         {
             sb.append(" ORDER BY ");
             sb.append(orderBy);
@@ -784,6 +1033,238 @@ public class BaseSQLGenerator implements SQLGenerator
         return sb.toString();
     }
 
+    // select Observation(s) with maxLastModified in [minLastModified,maxLastModified] in maxLastModified order
+    public String getObservationIteratorSQL(String collection, Date minLastModified, Date maxLastModified, int depth)
+    {
+        return getObservationIteratorSQLImpl(optLiteral(collection), optLiteral(minLastModified), optLiteral(maxLastModified), depth);
+    }
+    
+    public PreparedStatementCreator getObservationIteratorStatement(String collection, Date minLastModified, Date maxLastModified, int depth)
+    {
+        String key = "iterator:" + (collection != null) + ":" + (minLastModified != null) + ":" + (maxLastModified != null) + ":" + depth;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            sql = getObservationIteratorSQLImpl(param(collection), param(minLastModified), param(maxLastModified), depth);
+            sqlTemplates.put(key, sql);
+        }
+        return new SelectStatementCreator(sql, collection, minLastModified, maxLastModified);
+    }
+    
+    private String getObservationIteratorSQLImpl(String collection, String minLastModified, String maxLastModified, int depth)
+    {
+        StringBuilder sb = new StringBuilder();
+        String alias = getAlias(Observation.class);
+        sb.append("SELECT ");
+        sb.append(getObservationSelect(depth, false));
+        String predCombine = " WHERE ";
+        if (collection != null)
+        {
+            sb.append(predCombine);
+            predCombine = " AND ";
+            sb.append(alias).append(".collection = ");
+            sb.append(collection);
+        }
+        if (minLastModified != null)
+        {
+            sb.append(predCombine);
+            predCombine = " AND ";
+            sb.append(alias).append(".maxLastModified >= ");
+            sb.append(minLastModified);
+        }
+        if (maxLastModified != null)
+        {
+            sb.append(predCombine);
+            predCombine = " AND ";
+            sb.append(alias).append(".maxLastModified <= ");
+            sb.append(maxLastModified);
+        }
+        // maxLastModified first gives harvest order; the rest keeps the rows
+        // of each observation together for the extractor
+        sb.append(" ORDER BY ");
+        sb.append(alias).append(".maxLastModified,");
+        String orderBy = getOrderColumns(depth); // starts with obsID
+        if (orderBy != null)
+            sb.append(orderBy);
+        else
+            sb.append(alias).append(".obsID");
+        return sb.toString();
+    }
+
+    // select children of class c by foreign key: used to load one level of the tree at a time
+    public String getChildSelectSQL(Class c, Collection<UUID> parentIDs)
+    {
+        if (parentIDs == null || parentIDs.isEmpty())
+            throw new IllegalArgumentException("parentIDs cannot be null or empty");
+        
+        StringBuilder sb = new StringBuilder();
+        String alias = getAlias(c);
+        sb.append("SELECT ");
+        sb.append(getColumns(c));
+        sb.append(" FROM ");
+        sb.append(getFrom(c));
+        sb.append(" WHERE ");
+        sb.append(alias).append(".").append(getForeignKeyColumn(c));
+        sb.append(" IN (");
+        for (UUID id : parentIDs)
+        {
+            sb.append(literal(id));
+            sb.append(",");
+        }
+        sb.setCharAt(sb.length() - 1, ')');
+        return sb.toString();
+    }
+    
+    // parameterized equivalent of getChildSelectSQL with a padded IN-list
+    public PreparedStatementCreator getChildSelectStatement(Class c, List<UUID> parentIDs)
+    {
+        if (parentIDs == null || parentIDs.isEmpty())
+            throw new IllegalArgumentException("parentIDs cannot be null or empty");
+        
+        int n = getInListSize(parentIDs.size());
+        String key = "children:" + c.getSimpleName() + ":" + n;
+        String sql = sqlTemplates.get(key);
+        if (sql == null)
+        {
+            StringBuilder sb = new StringBuilder();
+            String alias = getAlias(c);
+            sb.append("SELECT ");
+            sb.append(getColumns(c));
+            sb.append(" FROM ");
+            sb.append(getFrom(c));
+            sb.append(" WHERE ");
+            sb.append(alias).append(".").append(getForeignKeyColumn(c));
+            sb.append(" IN (");
+            for (int i = 0; i < n; i++)
+            {
+                if (i > 0)
+                    sb.append(",");
+                sb.append(PARAM);
+            }
+            sb.append(")");
+            sql = sb.toString();
+            sqlTemplates.put(key, sql);
+        }
+        Object[] values = new Object[n];
+        padValues(parentIDs, values, 0);
+        return new SelectStatementCreator(sql, values);
+    }
+
+    // literal value for an optional predicate: null means no predicate
+    private String optLiteral(Object value)
+    {
+        if (value == null)
+            return null;
+        if (value instanceof Date)
+        {
+            DateFormat df = DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC);
+            return "'" + df.format((Date) value) + "'";
+        }
+        return literal(value);
+    }
+    
+    // parameter marker for an optional predicate: null means no predicate
+    private String param(Object value)
+    {
+        if (value == null)
+            return null;
+        return PARAM;
+    }
+    
+    private void checkKeyset(Date minLastModified, UUID afterID)
+    {
+        if (afterID != null && minLastModified == null)
+            throw new IllegalArgumentException("keyset query: afterID requires minLastModified");
+    }
+    
+    /**
+     * Append a predicate for rows after the key (minLastModified, afterID) in
+     * (lastModified, obsID) order. The leading range predicate lets the database use 
+     * the lastModified index; without afterID this is the plain inclusive lower bound.
+     */
+    private void appendKeyset(StringBuilder sb, String alias, String lastModifiedColumn, 
+            String minLastModified, String afterID)
+    {
+        sb.append(alias).append(".").append(lastModifiedColumn).append(" >= ");
+        sb.append(minLastModified);
+        if (afterID != null)
+        {
+            sb.append(" AND (");
+            sb.append(alias).append(".").append(lastModifiedColumn).append(" > ");
+            sb.append(minLastModified);
+            sb.append(" OR ");
+            sb.append(alias).append(".").append(getPrimaryKeyColumn(Observation.class)).append(" > ");
+            sb.append(afterID);
+            sb.append(")");
+        }
+    }
+    
+    // values in the same order as the markers from appendKeyset and the upper bound
+    private Object[] keysetValues(Date minLastModified, UUID afterID, Date maxLastModified)
+    {
+        Date repeat = null;
+        if (afterID != null)
+            repeat = minLastModified;
+        return new Object[] { minLastModified, repeat, afterID, maxLastModified };
+    }
+    
+    /**
+     * PreparedStatementCreator for the parameterized select templates. Values are bound
+     * in order; null values are skipped because the corresponding (optional) predicate
+     * is not in the template.
+     */
+    private class SelectStatementCreator implements PreparedStatementCreator
+    {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
+        private final String sql;
+        private final Object[] values;
+        
+        SelectStatementCreator(String sql, Object... values)
+        {
+            this.sql = sql;
+            this.values = values;
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) 
+            throws SQLException
+        {
+            log.debug("SELECT SQL: " + sql);
+            PreparedStatement ps = conn.prepareStatement(sql);
+            StringBuilder sb = null;
+            if (log.isDebugEnabled())
+                sb = new StringBuilder("values: ");
+            int col = 1;
+            for (Object v : values)
+            {
+                if (v == null)
+                    continue;
+                if (v instanceof UUID)
+                {
+                    if (useLongForUUID)
+                        safeSetLongUUID(sb, ps, col++, (UUID) v);
+                    else
+                        safeSetUUID(sb, ps, col++, (UUID) v);
+                }
+                else if (v instanceof Date)
+                    safeSetDate(sb, ps, col++, (Date) v, UTC_CAL);
+                else if (v instanceof String)
+                    safeSetString(sb, ps, col++, (String) v);
+                else
+                    throw new IllegalArgumentException("BUG: unexpected parameter type " + v.getClass().getName());
+            }
+            if (sb != null)
+                log.debug(sb.toString());
+            return ps;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return sql;
+        }
+    }
+    
     protected String getTopConstraint(Integer batchSize)
     {
         return null;
@@ -968,6 +1449,163 @@ public class BaseSQLGenerator implements SQLGenerator
         return new BaseEntityDelete(c, primaryKey);
     }
 
+    public EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> c)
+    {
+        return new SubtreeDelete(getSubtreeDeleteSQL(c), 1);
+    }
+    
+    public EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> c, List<UUID> ids)
+    {
+        int n = getInListSize(ids.size());
+        SubtreeDelete op = new SubtreeDelete(getSubtreeDeleteSQL(c, n), n);
+        op.ids = ids;
+        return op;
+    }
+    
+    /**
+     * Generate parameterized statements to delete an entity and all descendants, 
+     * deepest table first. Descendants are found through the denormalized planeID
+     * column where possible so each statement is a simple delete or uses a subselect 
+     * on a parent column. The planeID column is indexed in the child tables of the
+     * PostgreSQL schema only; the Sybase schema only indexes the parent foreign keys
+     * so these statements would scan the chunk and part tables there.
+     * 
+     * @param c class of the root entity
+     * @return delete statements with a single ID parameter
+     */
+    List<String> getSubtreeDeleteSQL(Class c)
+    {
+        return getSubtreeDeleteSQL(c, 1);
+    }
+    
+    /**
+     * Generate parameterized statements to delete a list of entities and all descendants, 
+     * deepest table first. Each statement has one IN-list with the specified number of
+     * ID parameters.
+     * 
+     * @param c class of the root entities
+     * @param num number of IDs per statement
+     * @return delete statements with num ID parameters
+     */
+    List<String> getSubtreeDeleteSQL(Class c, int num)
+    {
+        if (Observation.class.isAssignableFrom(c))
+            c = Observation.class;
+        
+        String obsID = getPrimaryKeyColumn(Observation.class);
+        String planeID = getPrimaryKeyColumn(Plane.class);
+        String artifactID = getPrimaryKeyColumn(Artifact.class);
+        String partID = getPrimaryKeyColumn(Part.class);
+        
+        List<String> ret = new ArrayList<String>();
+        if (Observation.class.equals(c))
+        {
+            String planes = planeID + " IN (SELECT " + planeID + " FROM " + getTable(Plane.class) 
+                    + " WHERE " + match(obsID, num) + ")";
+            ret.add(getDeleteSQL(Chunk.class, planes));
+            ret.add(getDeleteSQL(Part.class, planes));
+            ret.add(getDeleteSQL(Artifact.class, planes));
+            ret.add(getDeleteSQL(Plane.class, match(obsID, num)));
+            ret.add(getDeleteSQL(Observation.class, match(obsID, num)));
+        }
+        else if (Plane.class.equals(c))
+        {
+            String plane = match(planeID, num);
+            ret.add(getDeleteSQL(Chunk.class, plane));
+            ret.add(getDeleteSQL(Part.class, plane));
+            ret.add(getDeleteSQL(Artifact.class, plane));
+            ret.add(getDeleteSQL(Plane.class, plane));
+        }
+        else if (Artifact.class.equals(c))
+        {
+            String parts = partID + " IN (SELECT " + partID + " FROM " + getTable(Part.class) 
+                    + " WHERE " + match(artifactID, num) + ")";
+            ret.add(getDeleteSQL(Chunk.class, parts));
+            ret.add(getDeleteSQL(Part.class, match(artifactID, num)));
+            ret.add(getDeleteSQL(Artifact.class, match(artifactID, num)));
+        }
+        else if (Part.class.equals(c))
+        {
+            ret.add(getDeleteSQL(Chunk.class, match(partID, num)));
+            ret.add(getDeleteSQL(Part.class, match(partID, num)));
+        }
+        else if (Chunk.class.equals(c))
+            ret.add(getDeleteSQL(Chunk.class, match(getPrimaryKeyColumn(Chunk.class), num)));
+        else
+            throw new UnsupportedOperationException("getSubtreeDeleteSQL: " + c.getName());
+        return ret;
+    }
+    
+    private String getDeleteSQL(Class c, String where)
+    {
+        return "DELETE FROM " + getTable(c) + " WHERE " + where;
+    }
+    
+    private String match(String column, int num)
+    {
+        if (num == 1)
+            return column + " = " + PARAM;
+        StringBuilder sb = new StringBuilder();
+        sb.append(column).append(" IN (");
+        for (int i = 0; i < num; i++)
+        {
+            if (i > 0)
+                sb.append(",");
+            sb.append(PARAM);
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+    
+    // delete entities and all descendants with one statement per table; the ID list
+    // is padded by repeating the last one to fill the IN-list
+    private class SubtreeDelete implements EntityDelete<AbstractCaomEntity>
+    {
+        private List<String> sql;
+        private int num;
+        private List<UUID> ids;
+        
+        SubtreeDelete(List<String> sql, int num)
+        {
+            this.sql = sql;
+            this.num = num;
+        }
+        
+        public void execute(JdbcTemplate jdbc)
+        {
+            final Object[] values = new Object[num];
+            padValues(ids, values, 0);
+            PreparedStatementSetter pss = new PreparedStatementSetter()
+            {
+                public void setValues(PreparedStatement ps) throws SQLException
+                {
+                    for (int i = 0; i < values.length; i++)
+                    {
+                        if (useLongForUUID)
+                            safeSetLongUUID(null, ps, i + 1, (UUID) values[i]);
+                        else
+                            safeSetUUID(null, ps, i + 1, (UUID) values[i]);
+                    }
+                }
+            };
+            for (String s : sql)
+            {
+                int n = jdbc.update(s, pss);
+                log.debug("delete: " + s + " " + ids + " " + n);
+            }
+        }
+
+        public void setID(UUID id)
+        {
+            this.ids = Collections.singletonList(id);
+        }
+
+        public void setValue(AbstractCaomEntity value)
+        {
+            throw new UnsupportedOperationException(); 
+        }
+    }
+    
     // delete single entity by primary key or foreign key
     private class BaseEntityDelete implements EntityDelete<AbstractCaomEntity>
     {
@@ -1078,8 +1716,10 @@ public class BaseSQLGenerator implements SQLGenerator
         }
     }
     
-    private class ObservationPut implements EntityPut<Observation>, PreparedStatementCreator
+    private class ObservationPut implements BatchEntityPut<Observation>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         boolean update;
         Observation obs;
 
@@ -1092,19 +1732,22 @@ public class BaseSQLGenerator implements SQLGenerator
         
         public void setValue(Observation obs, List<CaomEntity> unused) { this.obs = obs; }
 
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        public String getSQL()
         {
-            String sql = null;
             if (update)
-                sql = getUpdateSQL(Observation.class);
-            else
-                sql = getInsertSQL(Observation.class);
+                return getUpdateSQL(Observation.class);
+            return getInsertSQL(Observation.class);
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        {
+            String sql = getSQL();
             PreparedStatement prep = conn.prepareStatement(sql);
             log.debug(sql);
             loadValues(prep);
             return prep;
         }
-        private void loadValues(PreparedStatement ps)
+        public void loadValues(PreparedStatement ps)
             throws SQLException
         {
             if (obs == null)
@@ -1259,8 +1902,10 @@ public class BaseSQLGenerator implements SQLGenerator
         }
     }
 
-    private class PlanePut implements EntityPut<Plane> , PreparedStatementCreator
+    private class PlanePut implements BatchEntityPut<Plane>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private boolean update;
         private Plane plane;
         private List<CaomEntity> parents;
@@ -1278,19 +1923,22 @@ public class BaseSQLGenerator implements SQLGenerator
             this.parents = parents;
         }
 
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        public String getSQL()
         {
-            String sql = null;
             if (update)
-                sql = getUpdateSQL(Plane.class);
-            else
-                sql = getInsertSQL(Plane.class);
+                return getUpdateSQL(Plane.class);
+            return getInsertSQL(Plane.class);
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        {
+            String sql = getSQL();
             PreparedStatement prep = conn.prepareStatement(sql);
             log.debug(sql);
             loadValues(prep);
             return prep;
         }
-        private void loadValues(PreparedStatement ps)
+        public void loadValues(PreparedStatement ps)
             throws SQLException
         {
             if (plane == null)
@@ -1484,8 +2132,10 @@ public class BaseSQLGenerator implements SQLGenerator
         }
     }
 
-    private class ArtifactPut implements EntityPut<Artifact> , PreparedStatementCreator
+    private class ArtifactPut implements BatchEntityPut<Artifact>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private boolean update;
         private Artifact artifact;
         private List<CaomEntity> parents;
@@ -1503,19 +2153,22 @@ public class BaseSQLGenerator implements SQLGenerator
             this.parents = parents;
         }
 
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        public String getSQL()
         {
-            String sql = null;
             if (update)
-                sql = getUpdateSQL(Artifact.class);
-            else
-                sql = getInsertSQL(Artifact.class);
+                return getUpdateSQL(Artifact.class);
+            return getInsertSQL(Artifact.class);
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        {
+            String sql = getSQL();
             PreparedStatement prep = conn.prepareStatement(sql);
             log.debug(sql);
             loadValues(prep);
             return prep;
         }
-        private void loadValues(PreparedStatement ps)
+        public void loadValues(PreparedStatement ps)
             throws SQLException
         {
             if (artifact == null)
@@ -1562,8 +2215,10 @@ public class BaseSQLGenerator implements SQLGenerator
         }
     }
 
-    private class PartPut implements EntityPut<Part>, PreparedStatementCreator
+    private class PartPut implements BatchEntityPut<Part>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private boolean update;
         private Part part;
         private List<CaomEntity> parents;
@@ -1581,19 +2236,22 @@ public class BaseSQLGenerator implements SQLGenerator
             this.parents = parents;
         }
 
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        public String getSQL()
         {
-            String sql = null;
             if (update)
-                sql = getUpdateSQL(Part.class);
-            else
-                sql = getInsertSQL(Part.class);
+                return getUpdateSQL(Part.class);
+            return getInsertSQL(Part.class);
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        {
+            String sql = getSQL();
             PreparedStatement prep = conn.prepareStatement(sql);
             log.debug(sql);
             loadValues(prep);
             return prep;
         }
-        private void loadValues(PreparedStatement ps)
+        public void loadValues(PreparedStatement ps)
             throws SQLException
         {
             if (part == null)
@@ -1646,8 +2304,10 @@ public class BaseSQLGenerator implements SQLGenerator
         }
     }
 
-    private class ChunkPut implements EntityPut<Chunk>, PreparedStatementCreator
+    private class ChunkPut implements BatchEntityPut<Chunk>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private boolean update;
         private Chunk chunk;
         private List<CaomEntity> parents;
@@ -1665,19 +2325,22 @@ public class BaseSQLGenerator implements SQLGenerator
             this.parents = parents;
         }
 
-        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        public String getSQL()
         {
-            String sql = null;
             if (update)
-                sql = getUpdateSQL(Chunk.class);
-            else
-                sql = getInsertSQL(Chunk.class);
+                return getUpdateSQL(Chunk.class);
+            return getInsertSQL(Chunk.class);
+        }
+
+        public PreparedStatement createPreparedStatement(Connection conn) throws SQLException
+        {
+            String sql = getSQL();
             PreparedStatement prep = conn.prepareStatement(sql);
             log.debug(sql);
             loadValues(prep);
             return prep;
         }
-        private void loadValues(PreparedStatement ps)
+        public void loadValues(PreparedStatement ps)
             throws SQLException
         {
             if (chunk == null)
@@ -2092,6 +2755,8 @@ public class BaseSQLGenerator implements SQLGenerator
 
     private class ReadAccessPut implements EntityPut<ReadAccess>, PreparedStatementCreator
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private boolean update;
         private ReadAccess ra;
         
@@ -2860,9 +3525,17 @@ public class BaseSQLGenerator implements SQLGenerator
         return new DeletedEntityMapper(c);
     }
 
+    // debug output only: the generator is shared by concurrent DAOs and DateFormat is not thread safe
+    private static String formatDate(Date d)
+    {
+        if (d == null)
+            return null;
+        return DateUtil.getDateFormat(DateUtil.ISO_DATE_FORMAT, DateUtil.UTC).format(d);
+    }
+
     public RowMapper getTimestampRowMapper()
     {
-        return new TimestampRowMapper(UTC_CAL);
+        return new TimestampRowMapper(Calendar.getInstance(DateUtil.UTC));
     }
     
     private static class ClassComp implements Comparator<Class>
@@ -2883,6 +3556,8 @@ public class BaseSQLGenerator implements SQLGenerator
 
     class ObservationMapper implements PartialRowMapper<Observation>
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private int columnCount;
 
         /**
@@ -3060,9 +3735,11 @@ public class BaseSQLGenerator implements SQLGenerator
             }
 
             Date lastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: observation.lastModified = " + dateFormat.format(lastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: observation.lastModified = " + formatDate(lastModified));
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: observation.maxLastModified = " + dateFormat.format(maxLastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: observation.maxLastModified = " + formatDate(maxLastModified));
             Integer stateCode = Util.getInteger(rs, col++);
             log.debug("found: observation.stateCode = " + stateCode);
             UUID id = Util.getUUID(rs, col++);
@@ -3189,7 +3866,8 @@ public class BaseSQLGenerator implements SQLGenerator
             Date lastModified = Util.getDate(rs, col++, UTC_CAL);
             log.debug("found: plane.lastModified = " + lastModified);
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: plane.maxLastModified = " + dateFormat.format(maxLastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: plane.maxLastModified = " + formatDate(maxLastModified));
             Integer stateCode = Util.getInteger(rs, col++);
             log.debug("found: plane.stateCode = " + stateCode);
             UUID id = Util.getUUID(rs, col++);
@@ -3206,6 +3884,8 @@ public class BaseSQLGenerator implements SQLGenerator
 
     class ArtifactMapper implements PartialRowMapper<Artifact>
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         public int getColumnCount()
         {
             return columnMap.get(Artifact.class).length;
@@ -3264,7 +3944,8 @@ public class BaseSQLGenerator implements SQLGenerator
             Date lastModified = Util.getDate(rs, col++, UTC_CAL);
             log.debug("found artifact.lastModified = " + lastModified);
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: artifact.maxLastModified = " + dateFormat.format(maxLastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: artifact.maxLastModified = " + formatDate(maxLastModified));
             Integer stateCode = Util.getInteger(rs, col++);
             log.debug("found: artifact.stateCode = " + stateCode);
             UUID id = Util.getUUID(rs, col++);
@@ -3281,6 +3962,8 @@ public class BaseSQLGenerator implements SQLGenerator
 
     class PartMapper implements PartialRowMapper<Part>
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         public int getColumnCount()
         {
             return columnMap.get(Part.class).length;
@@ -3326,7 +4009,8 @@ public class BaseSQLGenerator implements SQLGenerator
             Date lastModified = Util.getDate(rs, col++, UTC_CAL);
             log.debug("found: part.lastModified = " + lastModified);
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: part.maxLastModified = " + dateFormat.format(maxLastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: part.maxLastModified = " + formatDate(maxLastModified));
             Integer stateCode = Util.getInteger(rs, col++);
             log.debug("found: part.stateCode = " + stateCode);
             UUID id = Util.getUUID(rs, col++);
@@ -3343,6 +4027,8 @@ public class BaseSQLGenerator implements SQLGenerator
 
     class ChunkMapper implements PartialRowMapper<Chunk>
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         public int getColumnCount()
         {
             return columnMap.get(Chunk.class).length;
@@ -3593,7 +4279,8 @@ public class BaseSQLGenerator implements SQLGenerator
             Date lastModified = Util.getDate(rs, col++, UTC_CAL);
             log.debug("found: chunk.lastModified = " + lastModified);
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
-            log.debug("found: chunk.maxLastModified = " + dateFormat.format(maxLastModified));
+            if (log.isDebugEnabled())
+                log.debug("found: chunk.maxLastModified = " + formatDate(maxLastModified));
             Integer stateCode = Util.getInteger(rs, col++);
             log.debug("found: chunk.stateCode = " + stateCode);
             UUID id = Util.getUUID(rs, col++);
@@ -3610,6 +4297,8 @@ public class BaseSQLGenerator implements SQLGenerator
     
     private class DeletedEntityMapper implements RowMapper
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private Class<? extends DeletedEntity> c;
         public DeletedEntityMapper(Class<? extends DeletedEntity> c)
         {
@@ -3639,6 +4328,8 @@ public class BaseSQLGenerator implements SQLGenerator
     
     class ReadAccessMapper implements RowMapper
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         Class<? extends ReadAccess> entityClass;
         
         ReadAccessMapper(Class<? extends ReadAccess> entityClass)
@@ -3680,6 +4371,8 @@ public class BaseSQLGenerator implements SQLGenerator
     
     class ObservationStateMapper implements RowMapper
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         @Override
         public Object mapRow(ResultSet rs, int i) 
             throws SQLException
@@ -3689,14 +4382,17 @@ public class BaseSQLGenerator implements SQLGenerator
             String collection = rs.getString(col++);
             String observationID = rs.getString(col++);
             Date maxLastModified = Util.getDate(rs, col++, UTC_CAL);
+            UUID id = Util.getUUID(rs, col++);
 
-            return new ObservationState(collection, observationID, maxLastModified);
+            return new ObservationState(collection, observationID, maxLastModified, id);
         }
     }
 
 
     private class SkeletonExtractor implements ResultSetExtractor
     {
+        private final Calendar UTC_CAL = Calendar.getInstance(DateUtil.UTC);
+
         private Class<? extends Skeleton> c;
         public SkeletonExtractor(Class<? extends Skeleton> c)
         {
@@ -93,6 +93,11 @@ class ChunkDAO extends AbstractCaomEntityDAO<Chunk>
 
     @Override
     public void put(Skeleton cur, Chunk c, LinkedList<CaomEntity> parents, JdbcTemplate jdbc)
+    {
+        put(cur, c, parents, jdbc, null);
+    }
+    
+    public void put(Skeleton cur, Chunk c, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, EntityBatch batch)
     {
         if (c == null)
             throw new IllegalArgumentException("arg cannot be null");
@@ -101,7 +106,7 @@ class ChunkDAO extends AbstractCaomEntityDAO<Chunk>
 
         try
         {
-            super.put(cur, c, parents, jdbc);
+            super.put(cur, c, parents, jdbc, false, batch);
         }
         finally
         {
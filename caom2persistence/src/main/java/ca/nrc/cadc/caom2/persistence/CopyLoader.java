@@ -0,0 +1,355 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2011.                            (c) 2011.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.persistence;
+
+import ca.nrc.cadc.caom2.AbstractCaomEntity;
+import ca.nrc.cadc.caom2.Artifact;
+import ca.nrc.cadc.caom2.CaomEntity;
+import ca.nrc.cadc.caom2.Chunk;
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.Part;
+import ca.nrc.cadc.caom2.Plane;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.util.PGobject;
+
+/**
+ * Bulk insert of new observations using the PostgreSQL COPY protocol. Rows are 
+ * encoded in COPY text format from the values the EntityPut classes would bind to
+ * an insert statement, so the loaded rows are identical to those written by put().
+ * Values of the spoint, spoly, polygon, and tsvector columns are sent as the text 
+ * representation of the type and parsed by the server.
+ * 
+ * @author pdowler
+ */
+class CopyLoader
+{
+    private static final Logger log = Logger.getLogger(CopyLoader.class);
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64*1024;
+    
+    private static final Class[] ORDER = 
+    { 
+        Observation.class, Plane.class, Artifact.class, Part.class, Chunk.class 
+    };
+    
+    private final PostgreSQLGenerator gen;
+
+    CopyLoader(PostgreSQLGenerator gen)
+    {
+        this.gen = gen;
+    }
+    
+    /**
+     * Insert the observations with one COPY per table. The caller is responsible for 
+     * transaction management and for computing lastModified and transient state.
+     * 
+     * @param obs new observations
+     * @param con connection
+     * @throws SQLException 
+     */
+    void load(List<Observation> obs, Connection con)
+        throws SQLException
+    {
+        CopyManager cm = getCopyManager(con);
+        for (int i = 0; i < ORDER.length; i++)
+        {
+            long t = System.currentTimeMillis();
+            String sql = gen.getCopySQL(ORDER[i]);
+            log.debug(sql);
+            CopyIn cin = cm.copyIn(sql);
+            boolean ok = false;
+            try
+            {
+                RowWriter w = new RowWriter(cin);
+                LinkedList<CaomEntity> parents = new LinkedList<CaomEntity>();
+                for (Observation o : obs)
+                    addRows(o, 0, i, parents, w);
+                w.flush();
+                long n = cin.endCopy();
+                ok = true;
+                long dt = System.currentTimeMillis() - t;
+                log.debug("load: " + ORDER[i].getSimpleName() + " " + n + " rows " + dt + "ms");
+            }
+            finally
+            {
+                if (!ok && cin.isActive())
+                    cin.cancelCopy();
+            }
+        }
+    }
+    
+    private CopyManager getCopyManager(Connection con)
+        throws SQLException
+    {
+        if (con instanceof PGConnection)
+            return ((PGConnection) con).getCopyAPI();
+        if (con.isWrapperFor(PGConnection.class))
+            return con.unwrap(PGConnection.class).getCopyAPI();
+        throw new UnsupportedOperationException("COPY requires a PostgreSQL connection, found: " + con.getClass().getName());
+    }
+    
+    // add rows for entities at the target depth below e
+    private void addRows(CaomEntity e, int depth, int target, LinkedList<CaomEntity> parents, RowWriter w)
+        throws SQLException
+    {
+        if (depth == target)
+        {
+            w.add((AbstractCaomEntity) e, parents);
+            return;
+        }
+        parents.push(e);
+        for (CaomEntity child : getChildren(e))
+            addRows(child, depth + 1, target, parents, w);
+        parents.pop();
+    }
+    
+    private Collection<? extends CaomEntity> getChildren(CaomEntity e)
+    {
+        if (e instanceof Observation)
+            return ((Observation) e).getPlanes();
+        if (e instanceof Plane)
+            return ((Plane) e).getArtifacts();
+        if (e instanceof Artifact)
+            return ((Artifact) e).getParts();
+        if (e instanceof Part)
+            return ((Part) e).getChunks();
+        return Collections.EMPTY_LIST;
+    }
+    
+    // encode rows and stream them to the server in BUFFER_SIZE chunks
+    private class RowWriter
+    {
+        private final CopyIn cin;
+        private final RowEncoder enc = new RowEncoder();
+        private final StringBuilder sb = new StringBuilder(BUFFER_SIZE);
+        
+        RowWriter(CopyIn cin)
+        {
+            this.cin = cin;
+        }
+        
+        void add(AbstractCaomEntity val, List<CaomEntity> parents)
+            throws SQLException
+        {
+            BatchEntityPut op = (BatchEntityPut) gen.getEntityPut(val.getClass(), false);
+            op.setValue(val, parents);
+            op.loadValues(enc.getPreparedStatement());
+            enc.encodeRow(sb);
+            if (sb.length() >= BUFFER_SIZE)
+                flush();
+        }
+        
+        void flush()
+            throws SQLException
+        {
+            if (sb.length() == 0)
+                return;
+            byte[] buf = sb.toString().getBytes(UTF8);
+            cin.writeToCopy(buf, 0, buf.length);
+            sb.setLength(0);
+        }
+    }
+    
+    /**
+     * Captures the values bound to a PreparedStatement and encodes them as one row
+     * in COPY text format.
+     */
+    static class RowEncoder implements InvocationHandler
+    {
+        private final PreparedStatement ps;
+        private final List<Object> values = new ArrayList<Object>();
+        
+        RowEncoder()
+        {
+            this.ps = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), 
+                    new Class[] { PreparedStatement.class }, this);
+        }
+
+        PreparedStatement getPreparedStatement()
+        {
+            return ps;
+        }
+        
+        public Object invoke(Object proxy, Method m, Object[] args)
+            throws Throwable
+        {
+            String name = m.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+            {
+                int col = ((Integer) args[0]).intValue();
+                Object val = args[1];
+                if ("setNull".equals(name))
+                    val = null;
+                else if (val instanceof Timestamp)
+                {
+                    Calendar cal = null;
+                    if (args.length == 3)
+                        cal = (Calendar) args[2];
+                    val = format((Timestamp) val, cal);
+                }
+                while (values.size() < col)
+                    values.add(null);
+                values.set(col - 1, val);
+                return null;
+            }
+            if ("toString".equals(name))
+                return RowEncoder.class.getSimpleName();
+            if ("hashCode".equals(name))
+                return new Integer(System.identityHashCode(proxy));
+            if ("equals".equals(name))
+                return Boolean.valueOf(proxy == args[0]);
+            throw new UnsupportedOperationException(name);
+        }
+        
+        /**
+         * Append the captured values as a row and reset.
+         * 
+         * @param sb 
+         */
+        void encodeRow(StringBuilder sb)
+        {
+            for (int i = 0; i < values.size(); i++)
+            {
+                if (i > 0)
+                    sb.append('\t');
+                encode(values.get(i), sb);
+            }
+            sb.append('\n');
+            values.clear();
+        }
+        
+        private void encode(Object val, StringBuilder sb)
+        {
+            if (val instanceof PGobject) // spoint, spoly, polygon
+                val = ((PGobject) val).getValue();
+            
+            if (val == null)
+                sb.append("\\N");
+            else if (val instanceof Boolean)
+                sb.append(((Boolean) val).booleanValue() ? "t" : "f");
+            else if (val instanceof byte[])
+            {
+                byte[] b = (byte[]) val;
+                sb.append("\\\\x");
+                for (int i = 0; i < b.length; i++)
+                {
+                    sb.append(Character.forDigit((b[i] >> 4) & 0xF, 16));
+                    sb.append(Character.forDigit(b[i] & 0xF, 16));
+                }
+            }
+            else
+                escape(val.toString(), sb);
+        }
+        
+        private void escape(String s, StringBuilder sb)
+        {
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                switch (c)
+                {
+                    case '\\': sb.append("\\\\"); break;
+                    case '\t': sb.append("\\t"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    default: sb.append(c);
+                }
+            }
+        }
+        
+        private String format(Timestamp ts, Calendar cal)
+        {
+            DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            if (cal != null)
+                df.setTimeZone(cal.getTimeZone());
+            return df.format(ts);
+        }
+    }
+}
@@ -85,14 +85,26 @@ import ca.nrc.cadc.caom2.persistence.skel.PlaneSkeleton;
 import ca.nrc.cadc.caom2.persistence.skel.Skeleton;
 import ca.nrc.cadc.caom2.util.CaomValidator;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.dao.DataAccessException;
 
 /**
@@ -104,15 +116,55 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
 {
     private static final Logger log = Logger.getLogger(DatabaseObservationDAO.class);
 
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    
     private PlaneDAO planeDAO;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private ObservationCache cache;
+    private boolean batchPut = false;
+    private CopyLoader copyLoader;
     
     public DatabaseObservationDAO() { }
+    
+    /**
+     * Create a DAO that shares the SQLGenerator, DataSource, and observation cache of a 
+     * configured DAO. This avoids the DataSource lookup and SQLGenerator setup of 
+     * setConfig so applications can create a DAO per request from a shared template; 
+     * each DAO has its own TransactionManager.
+     * 
+     * @param template a DAO that has been configured with setConfig
+     */
+    public DatabaseObservationDAO(DatabaseObservationDAO template)
+    {
+        template.checkInit();
+        this.gen = template.gen;
+        this.dataSource = template.dataSource;
+        this.forceUpdate = template.forceUpdate;
+        this.readOnly = template.readOnly;
+        this.computeLastModified = template.computeLastModified;
+        this.splitQueryLoader = template.splitQueryLoader;
+        this.fetchSize = template.fetchSize;
+        this.cache = template.cache;
+        this.batchPut = template.batchPut;
+        this.copyLoader = template.copyLoader;
+        this.planeDAO = new PlaneDAO(gen, forceUpdate, readOnly);
+        if (template.subtreeDelete)
+        {
+            setSubtreeDelete(true);
+            planeDAO.setSubtreeDelete(true);
+        }
+    }
 
     @Override
     public Map<String, Class> getParams()
     {
         Map<String,Class> ret = super.getParams();
         ret.put("schemaPrefixHack", Boolean.class);
+        ret.put("fetchSize", Integer.class);
+        ret.put("splitQuery", Boolean.class);
+        ret.put("cacheSize", Integer.class);
+        ret.put("batchPut", Boolean.class);
+        ret.put("subtreeDelete", Boolean.class);
         return ret;
     }
 
@@ -120,7 +172,38 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
     public void setConfig(Map<String,Object> config)
     {
         super.setConfig(config);
+        Integer fs = (Integer) config.get("fetchSize");
+        if (fs != null)
+            this.fetchSize = fs.intValue();
+        Boolean split = (Boolean) config.get("splitQuery");
+        if (split != null && split.booleanValue())
+        {
+            if ( !(gen instanceof BaseSQLGenerator) )
+                throw new IllegalArgumentException("splitQuery requires a BaseSQLGenerator, found: " + gen.getClass().getName());
+            this.splitQueryLoader = new SplitQueryLoader((BaseSQLGenerator) gen);
+        }
+        Integer cs = (Integer) config.get("cacheSize");
+        if (cs != null && cs.intValue() > 0)
+            this.cache = new ObservationCache(cs.longValue());
+        Boolean bp = (Boolean) config.get("batchPut");
+        if (bp != null)
+            this.batchPut = bp.booleanValue();
+        if (gen instanceof PostgreSQLGenerator)
+            this.copyLoader = new CopyLoader((PostgreSQLGenerator) gen);
         this.planeDAO = new PlaneDAO(gen, forceUpdate, readOnly);
+        Boolean sd = (Boolean) config.get("subtreeDelete");
+        if (sd != null && sd.booleanValue())
+        {
+            // the subtree delete statements find descendants by planeID, which is
+            // only indexed in the child tables of the PostgreSQL schema
+            if (gen instanceof PostgreSQLGenerator)
+            {
+                setSubtreeDelete(true);
+                planeDAO.setSubtreeDelete(true);
+            }
+            else
+                log.warn("subtreeDelete not supported with " + gen.getClass().getName() + ": ignored");
+        }
     }
     
     /**
@@ -150,17 +233,102 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
         return null;
     }
 
+    @Override
+    public ObservationState getState(ObservationURI uri)
+    {
+        if (uri == null)
+            throw new IllegalArgumentException("uri cannot be null");
+        checkInit();
+        log.debug("getState: " + uri);
+        long t = System.currentTimeMillis();
+        try
+        {
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            List result = jdbc.query(gen.getStateSelectStatement(uri), gen.getObservationStateMapper());
+            if (result.isEmpty())
+                return null;
+            return (ObservationState) result.get(0);
+        }
+        finally
+        {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("getState: " + uri + " " + dt + "ms");
+        }
+    }
+
     @Override
     public Observation get(UUID id)
     {
         if (id == null)
             throw new IllegalArgumentException("id cannot be null");
+        if (cache != null)
+            return getCached(null, id);
         return get(null, id, SQLGenerator.MAX_DEPTH);
     }
+    
+    /**
+     * Get the observation cache. The cache is enabled by setting the cacheSize 
+     * config parameter to the maximum number of entities (observations, planes,
+     * artifacts, parts, and chunks) to keep in memory.
+     * 
+     * @return the cache or null if caching is not enabled
+     */
+    public ObservationCache getCache()
+    {
+        return cache;
+    }
 
     public List<ObservationState> getObservationList(String collection, Date minLastModified, Date maxLastModified, Integer batchSize)
+    {
+        final List<ObservationState> ret = new ArrayList<ObservationState>();
+        getObservationList(collection, minLastModified, maxLastModified, batchSize, new ResultHandler<ObservationState>()
+        {
+            public void handle(ObservationState s)
+            {
+                ret.add(s);
+            }
+        });
+        return ret;
+    }
+    
+    /**
+     * Stream observation states in order of increasing maxLastModified timestamp to the 
+     * handler. Rows are read through a forward-only cursor with the configured fetchSize 
+     * and each state is passed to the handler as soon as its row has been read.
+     * 
+     * @param collection
+     * @param minLastModified
+     * @param maxLastModified
+     * @param batchSize
+     * @param handler 
+     */
+    @Override
+    public void getObservationList(String collection, Date minLastModified, Date maxLastModified, Integer batchSize,
+            final ResultHandler<ObservationState> handler)
+    {
+        getObservationList(collection, minLastModified, null, maxLastModified, batchSize, handler);
+    }
+    
+    /**
+     * Stream a page of observation states in (maxLastModified, obsID) order to the 
+     * handler. The next page starts after the maxLastModified and ID of the last state 
+     * in this page so pages never overlap, even when many observations have the same 
+     * maxLastModified.
+     * 
+     * @param collection
+     * @param minLastModified required if afterID is specified
+     * @param afterID ID of the last observation in the previous page, null for the first page
+     * @param maxLastModified
+     * @param batchSize
+     * @param handler 
+     */
+    @Override
+    public void getObservationList(String collection, Date minLastModified, UUID afterID, Date maxLastModified, 
+            Integer batchSize, final ResultHandler<ObservationState> handler)
     {
         checkInit();
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
         log.debug("getObservationStates: " + collection + " " + batchSize);
         
         // input check since this is a string
@@ -170,14 +338,46 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
         
         try
         {
-            String sql = gen.getSelectSQL(ObservationState.class, minLastModified, maxLastModified, batchSize, collection);
+            final PreparedStatementCreator psc = gen.getSelectStatement(ObservationState.class, minLastModified, afterID, maxLastModified, batchSize, collection);
             
             if (log.isDebugEnabled())
-                log.debug("GET: " + Util.formatSQL(sql));
+                log.debug("GET: " + Util.formatSQL(psc.toString()));
 
+            final RowMapper mapper = gen.getObservationStateMapper();
             JdbcTemplate jdbc = new JdbcTemplate(dataSource);
-            List result = jdbc.query(sql, gen.getObservationStateMapper());
-            return (List<ObservationState>) result;
+            jdbc.execute(new ConnectionCallback()
+            {
+                public Object doInConnection(Connection con) 
+                    throws SQLException, DataAccessException
+                {
+                    // the postgresql driver only uses a cursor (fetchSize) when autoCommit is off
+                    boolean autoCommit = con.getAutoCommit();
+                    if (autoCommit)
+                        con.setAutoCommit(false);
+                    PreparedStatement st = null;
+                    ResultSet rs = null;
+                    try
+                    {
+                        st = psc.createPreparedStatement(con); // forward-only, read-only
+                        st.setFetchSize(fetchSize);
+                        rs = st.executeQuery();
+                        int row = 0;
+                        while (rs.next())
+                            handler.handle((ObservationState) mapper.mapRow(rs, row++));
+                        return null;
+                    }
+                    finally
+                    {
+                        JdbcUtils.closeResultSet(rs);
+                        JdbcUtils.closeStatement(st);
+                        if (autoCommit)
+                        {
+                            con.commit(); // read-only
+                            con.setAutoCommit(true);
+                        }
+                    }
+                }
+            });
         }
         finally
         {
@@ -212,6 +412,107 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
         return super.getList(c, minlastModified, maxLastModified, batchSize, depth);
     }
     
+    /**
+     * Get the next batch of complete observations after (minLastModified, afterID) in 
+     * (maxLastModified, obsID) order. 
+     * 
+     * @param c
+     * @param minlastModified
+     * @param afterID ID of the last observation in the previous batch, null to start at minLastModified
+     * @param maxLastModified
+     * @param batchSize
+     * @return 
+     */
+    public List<Observation> getList(Class<Observation> c, Date minlastModified, UUID afterID, Date maxLastModified, Integer batchSize)
+    {
+        return super.getList(c, minlastModified, afterID, maxLastModified, batchSize, SQLGenerator.MAX_DEPTH);
+    }
+    
+    /**
+     * Stream observations with maxLastModified in [minLastModified,maxLastModified] to 
+     * the handler in maxLastModified order. Rows are read through a forward-only cursor 
+     * with the configured fetchSize (default: 1000 rows) so memory use is bounded by 
+     * the largest single observation instead of the size of the result. Each observation
+     * is passed to the handler as soon as its last row has been read; the cursor stays
+     * open while the handler runs.
+     * 
+     * @param collection optional collection constraint
+     * @param minLastModified optional lower bound (inclusive)
+     * @param maxLastModified optional upper bound (inclusive)
+     * @param depth 1 (observation only) to SQLGenerator.MAX_DEPTH (complete)
+     * @param handler 
+     */
+    @Override
+    public void iterate(String collection, Date minLastModified, Date maxLastModified, int depth, 
+            final ResultHandler<Observation> handler)
+    {
+        checkInit();
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
+        if (depth < SQLGenerator.MIN_DEPTH || depth > SQLGenerator.MAX_DEPTH)
+            throw new IllegalArgumentException("invalid depth: " + depth);
+        if (collection != null)
+            CaomValidator.assertValidPathComponent(DatabaseObservationDAO.class, "collection", collection);
+        log.debug("ITERATE: " + collection + " " + minLastModified + " " + maxLastModified + " " + depth);
+        long t = System.currentTimeMillis();
+
+        try
+        {
+            int queryDepth = depth;
+            if (splitQueryLoader != null)
+                queryDepth = 1;
+            final PreparedStatementCreator psc = gen.getObservationIteratorStatement(collection, minLastModified, maxLastModified, queryDepth);
+            
+            final ObservationExtractor extractor = (ObservationExtractor) gen.getObservationExtractor();
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            jdbc.execute(new ConnectionCallback()
+            {
+                public Object doInConnection(Connection con) 
+                    throws SQLException, DataAccessException
+                {
+                    // the postgresql driver only uses a cursor (fetchSize) when autoCommit is off
+                    boolean autoCommit = con.getAutoCommit();
+                    if (autoCommit)
+                        con.setAutoCommit(false);
+                    PreparedStatement st = null;
+                    ResultSet rs = null;
+                    try
+                    {
+                        st = psc.createPreparedStatement(con);
+                        st.setFetchSize(fetchSize);
+                        rs = st.executeQuery();
+                        if (splitQueryLoader != null)
+                        {
+                            // load children with the same connection while the cursor is open
+                            JdbcTemplate cjdbc = new JdbcTemplate(new SingleConnectionDataSource(con, true));
+                            SplitQueryHandler sqh = new SplitQueryHandler(cjdbc, depth, handler);
+                            extractor.extractObservations(rs, sqh);
+                            sqh.flush();
+                        }
+                        else
+                            extractor.extractObservations(rs, handler);
+                        return null;
+                    }
+                    finally
+                    {
+                        JdbcUtils.closeResultSet(rs);
+                        JdbcUtils.closeStatement(st);
+                        if (autoCommit)
+                        {
+                            con.commit(); // read-only
+                            con.setAutoCommit(true);
+                        }
+                    }
+                }
+            });
+        }
+        finally
+        {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("ITERATE: " + collection + " " + depth + " " + dt + "ms");
+        }
+    }
+    
     /**
      * Get a stored observation by URI.
      *
@@ -223,8 +524,234 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
     {
         if (uri == null)
             throw new IllegalArgumentException("uri cannot be null");
+        if (cache != null)
+            return getCached(uri, null);
         return get(uri, null, SQLGenerator.MAX_DEPTH);
     }
+    
+    /**
+     * Get a stored observation by URI to non-standard depth. The observation cache is
+     * only used for complete observations (depth = SQLGenerator.MAX_DEPTH).
+     * 
+     * @param uri
+     * @param depth
+     * @return the observation with children to the specified depth
+     */
+    @Override
+    public Observation get(ObservationURI uri, int depth)
+    {
+        if (uri == null)
+            throw new IllegalArgumentException("uri cannot be null");
+        if (depth < 1 || depth > SQLGenerator.MAX_DEPTH)
+            throw new IllegalArgumentException("invalid depth: " + depth);
+        if (depth == SQLGenerator.MAX_DEPTH)
+            return get(uri);
+        return get(uri, null, depth);
+    }
+    
+    // get a complete observation from the cache after checking that it is still current
+    private Observation getCached(ObservationURI uri, UUID id)
+    {
+        checkInit();
+        Observation ret;
+        if (uri != null)
+            ret = cache.get(uri);
+        else
+            ret = cache.get(id);
+        
+        if (ret != null)
+        {
+            long t = System.currentTimeMillis();
+            try
+            {
+                // revalidate with the observation row only: any change to the observation
+                // or its children changes maxLastModified and/or stateCode
+                JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+                PreparedStatementCreator psc = gen.getSelectStatement(ret.getID(), 1, true);
+                ObservationSkeleton cur = (ObservationSkeleton) jdbc.query(psc, new ObservationSkeletonExtractor());
+                if (cur != null
+                        && cur.maxLastModified != null && ret.getMaxLastModified() != null
+                        && cur.maxLastModified.getTime() == ret.getMaxLastModified().getTime()
+                        && cur.stateCode != null 
+                        && cur.stateCode.intValue() == ret.getStateCode(gen.persistTransientState()))
+                {
+                    log.debug("GET: cache hit " + ret.getURI());
+                    return ret;
+                }
+                log.debug("GET: cache stale " + ret.getURI());
+                cache.invalidate(ret.getURI());
+            }
+            finally
+            {
+                long dt = System.currentTimeMillis() - t;
+                log.debug("GET: revalidate " + ret.getURI() + " " + dt + "ms");
+            }
+        }
+        
+        ret = get(uri, id, SQLGenerator.MAX_DEPTH);
+        if (ret != null)
+            cache.put(ret);
+        return ret;
+    }
+
+    /**
+     * Get stored observations by URI. Observations are returned in no particular
+     * order and URIs that are not found are silently skipped.
+     * 
+     * @param uris
+     * @return list of complete observations
+     */
+    @Override
+    public List<Observation> getByURI(Collection<ObservationURI> uris)
+    {
+        final List<Observation> ret = new ArrayList<Observation>(uris.size());
+        getByURI(uris, SQLGenerator.MAX_DEPTH, new ResultHandler<Observation>()
+        {
+            public void handle(Observation o)
+            {
+                ret.add(o);
+            }
+        });
+        return ret;
+    }
+    
+    /**
+     * Get stored observations by URI and pass each one to the handler as soon as it 
+     * has been extracted. This executes one query per collection and MAX_IN_LIST
+     * URIs.
+     * 
+     * @param uris
+     * @param depth
+     * @param handler 
+     */
+    @Override
+    public void getByURI(Collection<ObservationURI> uris, int depth, ResultHandler<Observation> handler)
+    {
+        checkInit();
+        if (uris == null || handler == null)
+            throw new IllegalArgumentException("args cannot be null");
+        log.debug("GET: " + uris.size() + " uris");
+        long t = System.currentTimeMillis();
+        
+        try
+        {
+            // group by collection: collection = ? AND observationID IN (...)
+            Map<String,List<String>> byCollection = new TreeMap<String,List<String>>();
+            for (ObservationURI uri : uris)
+            {
+                List<String> ids = byCollection.get(uri.getCollection());
+                if (ids == null)
+                {
+                    ids = new ArrayList<String>();
+                    byCollection.put(uri.getCollection(), ids);
+                }
+                ids.add(uri.getObservationID());
+            }
+            
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            for (Map.Entry<String,List<String>> me : byCollection.entrySet())
+            {
+                List<String> ids = me.getValue();
+                for (int i = 0; i < ids.size(); i += SplitQueryLoader.MAX_IN_LIST)
+                {
+                    List<String> keys = ids.subList(i, Math.min(i + SplitQueryLoader.MAX_IN_LIST, ids.size()));
+                    int queryDepth = depth;
+                    if (splitQueryLoader != null)
+                        queryDepth = 1;
+                    PreparedStatementCreator psc = gen.getSelectStatement(me.getKey(), keys, queryDepth);
+                    query(psc, depth, handler, jdbc);
+                }
+            }
+        }
+        finally
+        {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("GET: " + uris.size() + " uris " + dt + "ms");
+        }
+    }
+    
+    /**
+     * Get stored observations by ID. Observations are returned in no particular
+     * order and IDs that are not found are silently skipped.
+     * 
+     * @param ids
+     * @return list of complete observations
+     */
+    @Override
+    public List<Observation> getByID(Collection<UUID> ids)
+    {
+        final List<Observation> ret = new ArrayList<Observation>(ids.size());
+        getByID(ids, SQLGenerator.MAX_DEPTH, new ResultHandler<Observation>()
+        {
+            public void handle(Observation o)
+            {
+                ret.add(o);
+            }
+        });
+        return ret;
+    }
+    
+    /**
+     * Get stored observations by ID and pass each one to the handler as soon as it 
+     * has been extracted. This executes one query per MAX_IN_LIST IDs.
+     * 
+     * @param ids
+     * @param depth
+     * @param handler 
+     */
+    public void getByID(Collection<UUID> ids, int depth, ResultHandler<Observation> handler)
+    {
+        checkInit();
+        if (ids == null || handler == null)
+            throw new IllegalArgumentException("args cannot be null");
+        log.debug("GET: " + ids.size() + " ids");
+        long t = System.currentTimeMillis();
+        
+        try
+        {
+            List<UUID> all = new ArrayList<UUID>(ids);
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            for (int i = 0; i < all.size(); i += SplitQueryLoader.MAX_IN_LIST)
+            {
+                List<UUID> keys = all.subList(i, Math.min(i + SplitQueryLoader.MAX_IN_LIST, all.size()));
+                int queryDepth = depth;
+                if (splitQueryLoader != null)
+                    queryDepth = 1;
+                PreparedStatementCreator psc = gen.getSelectStatement(keys, queryDepth);
+                query(psc, depth, handler, jdbc);
+            }
+        }
+        finally
+        {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("GET: " + ids.size() + " ids " + dt + "ms");
+        }
+    }
+    
+    // execute a bounded (IN-list) observation query and pass the results to the handler
+    private void query(PreparedStatementCreator psc, int depth, final ResultHandler<Observation> handler, JdbcTemplate jdbc)
+    {
+        final ObservationExtractor extractor = (ObservationExtractor) gen.getObservationExtractor();
+        if (splitQueryLoader == null)
+        {
+            jdbc.query(psc, new ResultSetExtractor()
+            {
+                public Object extractData(ResultSet rs) 
+                    throws SQLException, DataAccessException
+                {
+                    extractor.extractObservations(rs, handler);
+                    return null;
+                }
+            });
+        }
+        else
+        {
+            List<Observation> obs = (List<Observation>) jdbc.query(psc, extractor);
+            splitQueryLoader.load(obs, depth, jdbc);
+            for (Observation o : obs)
+                handler.handle(o);
+        }
+    }
 
     private Observation get(ObservationURI uri, UUID id, int depth)
     {
@@ -236,17 +763,17 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
 
         try
         {
-            String sql;
+            int queryDepth = depth;
+            if (splitQueryLoader != null)
+                queryDepth = 1;
+            PreparedStatementCreator psc;
             if (uri != null)
-                sql = gen.getSelectSQL(uri, depth);
+                psc = gen.getSelectStatement(uri, queryDepth, false);
             else
-                sql = gen.getSelectSQL(id, depth, false);
-            
-            if (log.isDebugEnabled())
-                log.debug("GET: " + Util.formatSQL(sql));
+                psc = gen.getSelectStatement(id, queryDepth, false);
 
             JdbcTemplate jdbc = new JdbcTemplate(dataSource);
-            Object result = jdbc.query(sql, gen.getObservationExtractor());
+            Object result = jdbc.query(psc, gen.getObservationExtractor());
             if (result == null)
                 return null;
             if (result instanceof List)
@@ -256,6 +783,8 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
                     return null;
                 if (obs.size() > 1)
                     throw new RuntimeException("BUG: get " + uri + " query returned " + obs.size() + " observations");
+                if (splitQueryLoader != null)
+                    splitQueryLoader.load(obs, depth, jdbc);
                 Object o = obs.get(0);
                 if (o instanceof Observation)
                 {
@@ -275,7 +804,10 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
     }
 
     /**
-     * Store an observation.
+     * Store an observation. If the batchPut config parameter is true, inserts
+     * and updates of planes, artifacts, parts, and chunks are grouped by class
+     * and executed as JDBC batches after obsolete children have been deleted 
+     * and the observation itself has been stored.
      * 
      * @param obs
      */
@@ -289,6 +821,11 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             throw new IllegalArgumentException("arg cannot be null");
         log.debug("PUT: " + obs.getURI() + ", planes: " + obs.getPlanes().size());
         long t = System.currentTimeMillis();
+        if (cache != null)
+        {
+            cache.remove(obs.getURI());
+            cache.remove(obs.getID());
+        }
 
         boolean txnOpen = false;
         try
@@ -302,9 +839,8 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             //       and if they do not get(uri) they can get a duplicate observation error
             //       if they violate unique keys... but if it was by uri, it would be the same
             //       result as if they skipped the get(uri)
-            String sql = gen.getSelectSQL(obs.getID(), SQLGenerator.MAX_DEPTH, true);
-            log.debug("PUT: " + sql);
-            ObservationSkeleton cur = (ObservationSkeleton) jdbc.query(sql, new ObservationSkeletonExtractor());
+            PreparedStatementCreator psc = gen.getSelectStatement(obs.getID(), SQLGenerator.MAX_DEPTH, true);
+            ObservationSkeleton cur = (ObservationSkeleton) jdbc.query(psc, new ObservationSkeletonExtractor());
 
             boolean updateMax = false;
             if (computeLastModified)
@@ -339,10 +875,15 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             super.put(cur, obs, null, jdbc, updateMax);
 
             // insert/update children
+            EntityBatch batch = null;
+            if (batchPut)
+                batch = new EntityBatch();
             LinkedList<CaomEntity> parents = new LinkedList<CaomEntity>();
             parents.push(obs);
             for (Pair<Plane> p : pairs)
-                planeDAO.put(p.cur, p.val, parents, jdbc);
+                planeDAO.put(p.cur, p.val, parents, jdbc, batch);
+            if (batch != null)
+                batch.flush(jdbc);
             
             log.debug("committing transaction");
             getTransactionManager().commitTransaction();
@@ -370,6 +911,94 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
         }
     }
 
+    /**
+     * @return true if load(List) is supported by the underlying database
+     */
+    public boolean isBulkLoadSupported()
+    {
+        return (copyLoader != null);
+    }
+    
+    /**
+     * Bulk insert of new observations. This uses the PostgreSQL COPY protocol to 
+     * insert all the rows of each table in one operation; it does not check for or
+     * delete existing content so it is only suitable for an empty destination (e.g.
+     * the initial harvest of a collection). Any existing observation or child entity 
+     * causes a failure and the whole list is rolled back.
+     * 
+     * @param obs new observations
+     */
+    public void load(final List<Observation> obs)
+    {
+        if (readOnly)
+            throw new UnsupportedOperationException("load in readOnly mode");
+        checkInit();
+        if (copyLoader == null)
+            throw new UnsupportedOperationException("load not supported by " + gen.getClass().getName());
+        if (obs == null)
+            throw new IllegalArgumentException("arg cannot be null");
+        log.debug("LOAD: " + obs.size());
+        long t = System.currentTimeMillis();
+        
+        boolean txnOpen = false;
+        try
+        {
+            // same preparation as put(): no current state
+            for (Observation o : obs)
+            {
+                if (cache != null)
+                    cache.remove(o.getURI());
+                if (computeLastModified)
+                    updateLastModified(o, null);
+                for (Plane p : o.getPlanes())
+                {
+                    p.clearTransientState();
+                    if (gen.persistTransientState())
+                        p.computeTransientState(o);
+                }
+            }
+            
+            log.debug("starting transaction");
+            getTransactionManager().startTransaction();
+            txnOpen = true;
+            
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            jdbc.execute(new ConnectionCallback()
+            {
+                public Object doInConnection(Connection con) 
+                    throws SQLException, DataAccessException
+                {
+                    copyLoader.load(obs, con);
+                    return null;
+                }
+            });
+            
+            log.debug("committing transaction");
+            getTransactionManager().commitTransaction();
+            log.debug("commit: OK");
+            txnOpen = false;
+        }
+        catch(DataAccessException e)
+        {
+            log.debug("failed to load " + obs.size() + " observations: ", e);
+            getTransactionManager().rollbackTransaction();
+            log.debug("rollback: OK");
+            txnOpen = false;
+            throw e;
+        }
+        finally
+        {
+            if (txnOpen)
+            {
+                log.error("BUG - open transaction in finally");
+                getTransactionManager().rollbackTransaction();
+                log.error("rollback: OK");
+            }
+            long dt = System.currentTimeMillis() - t;
+            log.debug("LOAD: " + obs.size() + " " + dt + "ms");
+        }
+    }
+
     /**
      * Delete a stored observation by URI.
      *
@@ -385,6 +1014,8 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             throw new IllegalArgumentException("uri cannot be null");
         log.debug("DELETE: " + uri);
         long t = System.currentTimeMillis();
+        if (cache != null)
+            cache.remove(uri);
 
         boolean txnOpen = false;
         try
@@ -394,9 +1025,11 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             txnOpen = true;
             
             JdbcTemplate jdbc = new JdbcTemplate(dataSource);
-            String sql = gen.getSelectSQL(uri, SQLGenerator.MAX_DEPTH, true);
-            log.debug("DELETE: " + sql);
-            ObservationSkeleton skel = (ObservationSkeleton) jdbc.query(sql, gen.getSkeletonExtractor(ObservationSkeleton.class));
+            int depth = SQLGenerator.MAX_DEPTH;
+            if (subtreeDelete)
+                depth = 1; // only need the ID
+            PreparedStatementCreator psc = gen.getSelectStatement(uri, depth, true);
+            ObservationSkeleton skel = (ObservationSkeleton) jdbc.query(psc, gen.getSkeletonExtractor(ObservationSkeleton.class));
             if (skel != null)
                 delete(skel, jdbc);
             else
@@ -437,6 +1070,8 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             throw new IllegalArgumentException("id cannot be null");
         log.debug("DELETE: " + id);
         long t = System.currentTimeMillis();
+        if (cache != null)
+            cache.remove(id);
 
         boolean txnOpen = false;
         try
@@ -446,13 +1081,22 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             txnOpen = true;
             
             JdbcTemplate jdbc = new JdbcTemplate(dataSource);
-            String sql = gen.getSelectSQL(id, SQLGenerator.MAX_DEPTH, true);
-            log.debug("DELETE: " + sql);
-            ObservationSkeleton skel = (ObservationSkeleton) jdbc.query(sql, gen.getSkeletonExtractor(ObservationSkeleton.class));
-            if (skel != null)
-                delete(skel, jdbc);
+            if (subtreeDelete)
+            {
+                // no skeleton needed: delete by obsID is a no-op if not found
+                EntityDelete op = gen.getSubtreeDelete(Observation.class);
+                op.setID(id);
+                op.execute(jdbc);
+            }
             else
-                log.debug("DELETE: not found: " + id);
+            {
+                PreparedStatementCreator psc = gen.getSelectStatement(id, SQLGenerator.MAX_DEPTH, true);
+                ObservationSkeleton skel = (ObservationSkeleton) jdbc.query(psc, gen.getSkeletonExtractor(ObservationSkeleton.class));
+                if (skel != null)
+                    delete(skel, jdbc);
+                else
+                    log.debug("DELETE: not found: " + id);
+            }
             
             log.debug("committing transaction");
             getTransactionManager().commitTransaction();
@@ -480,6 +1124,89 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
         }
     }
 
+    /**
+     * Delete a list of stored observations in one transaction. If subtree delete is enabled
+     * (subtreeDelete config parameter with a PostgreSQLGenerator), observations and all their
+     * descendants are deleted with one statement per table for up to MAX_IN_LIST observations
+     * at a time; otherwise each observation skeleton is read and deleted separately because
+     * the set-based statements would scan unindexed child tables. IDs that are not found
+     * are ignored.
+     * 
+     * @param ids 
+     */
+    public void delete(List<UUID> ids)
+    {
+        if (readOnly)
+            throw new UnsupportedOperationException("delete in readOnly mode");
+        checkInit();
+        if (ids == null)
+            throw new IllegalArgumentException("ids cannot be null");
+        if (ids.isEmpty())
+            return;
+        log.debug("DELETE: " + ids.size() + " ids");
+        long t = System.currentTimeMillis();
+        if (cache != null)
+        {
+            for (UUID id : ids)
+                cache.remove(id);
+        }
+
+        boolean txnOpen = false;
+        try
+        {
+            log.debug("starting transaction");
+            getTransactionManager().startTransaction();
+            txnOpen = true;
+            
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            if (subtreeDelete)
+            {
+                for (int i = 0; i < ids.size(); i += SplitQueryLoader.MAX_IN_LIST)
+                {
+                    List<UUID> keys = ids.subList(i, Math.min(i + SplitQueryLoader.MAX_IN_LIST, ids.size()));
+                    EntityDelete op = gen.getSubtreeDelete(Observation.class, keys);
+                    op.execute(jdbc);
+                }
+            }
+            else
+            {
+                for (UUID id : ids)
+                {
+                    PreparedStatementCreator psc = gen.getSelectStatement(id, SQLGenerator.MAX_DEPTH, true);
+                    ObservationSkeleton skel = (ObservationSkeleton) jdbc.query(psc, gen.getSkeletonExtractor(ObservationSkeleton.class));
+                    if (skel != null)
+                        delete(skel, jdbc);
+                    else
+                        log.debug("DELETE: not found: " + id);
+                }
+            }
+            
+            log.debug("committing transaction");
+            getTransactionManager().commitTransaction();
+            log.debug("commit: OK");
+            txnOpen = false;
+        }
+        catch(DataAccessException e)
+        {
+            log.debug("failed to delete " + ids.size() + " ids: ", e);
+            getTransactionManager().rollbackTransaction();
+            log.debug("rollback: OK");
+            txnOpen = false;
+            throw e;
+        }
+        finally
+        {
+            if (txnOpen)
+            {
+                log.error("BUG - open transaction in finally");
+                getTransactionManager().rollbackTransaction();
+                log.error("rollback: OK");
+            }
+            long dt = System.currentTimeMillis() - t;
+            log.debug("DELETE: " + ids.size() + " ids " + dt + "ms");
+        }
+    }
+
     @Override
     protected void deleteChildren(Skeleton s, JdbcTemplate jdbc)
     {
@@ -502,6 +1229,37 @@ public class DatabaseObservationDAO extends AbstractCaomEntityDAO<Observation> i
             log.debug("no children: " + o.id);
     }
 
+    // buffers observations so children are loaded for up to MAX_IN_LIST at a time
+    private class SplitQueryHandler implements ResultHandler<Observation>
+    {
+        private final JdbcTemplate jdbc;
+        private final int depth;
+        private final ResultHandler<Observation> target;
+        private final List<Observation> batch = new ArrayList<Observation>();
+
+        SplitQueryHandler(JdbcTemplate jdbc, int depth, ResultHandler<Observation> target)
+        {
+            this.jdbc = jdbc;
+            this.depth = depth;
+            this.target = target;
+        }
+        
+        public void handle(Observation o)
+        {
+            batch.add(o);
+            if (batch.size() >= SplitQueryLoader.MAX_IN_LIST)
+                flush();
+        }
+        
+        void flush()
+        {
+            splitQueryLoader.load(batch, depth, jdbc);
+            for (Observation o : batch)
+                target.handle(o);
+            batch.clear();
+        }
+    }
+    
     private boolean updateLastModified(Observation o, ObservationSkeleton s)
     {
         if (s != null)
@@ -255,6 +255,22 @@ public class DatabaseReadAccessDAO extends AbstractCaomEntityDAO<ReadAccess>
         }
     }
 
+    /**
+     * Delete a list of tuples. Each tuple is deleted separately because the asset
+     * tables are updated from the current tuple; the caller is responsible for
+     * grouping the deletions in a transaction.
+     * 
+     * @param c
+     * @param ids 
+     */
+    public void delete(Class<? extends ReadAccess> c, List<UUID> ids)
+    {
+        if (c == null || ids == null)
+            throw new IllegalArgumentException("args cannot be null");
+        for (UUID id : ids)
+            delete(c, id);
+    }
+
     private void updateLastModified(ReadAccess ra, Skeleton s)
     {
         boolean updateMax = false;
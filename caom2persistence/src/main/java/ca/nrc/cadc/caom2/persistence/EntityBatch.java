@@ -0,0 +1,175 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2011.                            (c) 2011.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.persistence;
+
+import ca.nrc.cadc.caom2.AbstractCaomEntity;
+import ca.nrc.cadc.caom2.Artifact;
+import ca.nrc.cadc.caom2.Chunk;
+import ca.nrc.cadc.caom2.Part;
+import ca.nrc.cadc.caom2.Plane;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Deferred inserts and updates grouped by entity class. The flush executes one JDBC
+ * batch per class and operation in parent-before-child order so foreign keys are
+ * always satisfied.
+ * 
+ * @author pdowler
+ */
+class EntityBatch
+{
+    private static final Logger log = Logger.getLogger(EntityBatch.class);
+    
+    static final int MAX_BATCH_SIZE = 1000;
+    
+    private static final Class[] ORDER = { Plane.class, Artifact.class, Part.class, Chunk.class };
+    
+    private final Map<Class,List<BatchEntityPut>> inserts = new HashMap<Class,List<BatchEntityPut>>();
+    private final Map<Class,List<BatchEntityPut>> updates = new HashMap<Class,List<BatchEntityPut>>();
+    
+    EntityBatch() { }
+    
+    void add(Class<? extends AbstractCaomEntity> c, boolean isUpdate, BatchEntityPut op)
+    {
+        Map<Class,List<BatchEntityPut>> m = inserts;
+        if (isUpdate)
+            m = updates;
+        List<BatchEntityPut> ops = m.get(c);
+        if (ops == null)
+        {
+            ops = new ArrayList<BatchEntityPut>();
+            m.put(c, ops);
+        }
+        ops.add(op);
+    }
+    
+    boolean isEmpty()
+    {
+        return inserts.isEmpty() && updates.isEmpty();
+    }
+    
+    /**
+     * Execute all deferred puts and clear the batch.
+     * 
+     * @param jdbc 
+     */
+    void flush(JdbcTemplate jdbc)
+    {
+        try
+        {
+            for (Class c : ORDER)
+            {
+                execute(c, updates.get(c), jdbc);
+                execute(c, inserts.get(c), jdbc);
+            }
+        }
+        finally
+        {
+            inserts.clear();
+            updates.clear();
+        }
+    }
+    
+    private void execute(Class c, List<BatchEntityPut> ops, JdbcTemplate jdbc)
+    {
+        if (ops == null || ops.isEmpty())
+            return;
+        
+        long t = System.currentTimeMillis();
+        String sql = ops.get(0).getSQL();
+        log.debug(sql);
+        for (int i = 0; i < ops.size(); i += MAX_BATCH_SIZE)
+        {
+            final List<BatchEntityPut> sub = ops.subList(i, Math.min(i + MAX_BATCH_SIZE, ops.size()));
+            jdbc.batchUpdate(sql, new BatchPreparedStatementSetter()
+            {
+                public void setValues(PreparedStatement ps, int i) throws SQLException
+                {
+                    sub.get(i).loadValues(ps);
+                }
+
+                public int getBatchSize()
+                {
+                    return sub.size();
+                }
+            });
+        }
+        long dt = System.currentTimeMillis() - t;
+        log.debug("flush: " + c.getSimpleName() + " " + ops.size() + " " + dt + "ms");
+    }
+}
@@ -0,0 +1,360 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2011.                            (c) 2011.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.persistence;
+
+import ca.nrc.cadc.caom2.Artifact;
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.ObservationURI;
+import ca.nrc.cadc.caom2.Part;
+import ca.nrc.cadc.caom2.Plane;
+import ca.nrc.cadc.caom2.xml.ObservationParsingException;
+import ca.nrc.cadc.caom2.xml.ObservationReader;
+import ca.nrc.cadc.caom2.xml.ObservationWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.log4j.Logger;
+
+/**
+ * Least-recently-used cache of complete observations. The size of the cache is 
+ * bounded by the total number of entities (observation, planes, artifacts, parts, 
+ * and chunks) in the cached observations rather than by the number of observations 
+ * so a few very large observations cannot exhaust the heap. Observations are kept
+ * as serialized documents and each get returns a new instance, so callers may 
+ * modify the returned observation without affecting the cache or other callers.
+ * 
+ * @author pdowler
+ */
+public class ObservationCache
+{
+    private static final Logger log = Logger.getLogger(ObservationCache.class);
+
+    private final long maxEntities;
+    private long numEntities;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long stale;
+    
+    // access-order for LRU
+    private final LinkedHashMap<ObservationURI,Entry> cache = new LinkedHashMap<ObservationURI,Entry>(16, 0.75f, true);
+    private final Map<UUID,ObservationURI> uris = new HashMap<UUID,ObservationURI>();
+    
+    private static class Entry
+    {
+        UUID id;
+        byte[] doc;
+        int size;
+    }
+    
+    /**
+     * @param maxEntities maximum number of entities to keep in the cache
+     */
+    public ObservationCache(long maxEntities)
+    {
+        if (maxEntities <= 0)
+            throw new IllegalArgumentException("invalid maxEntities: " + maxEntities);
+        this.maxEntities = maxEntities;
+    }
+
+    /**
+     * Get a cached observation. The caller must check that the observation is still
+     * current and call remove() if it is not.
+     * 
+     * @param uri
+     * @return the cached observation or null if not cached
+     */
+    public Observation get(ObservationURI uri)
+    {
+        byte[] doc;
+        synchronized(this)
+        {
+            Entry e = cache.get(uri);
+            if (e == null)
+            {
+                misses++;
+                return null;
+            }
+            hits++;
+            doc = e.doc;
+        }
+        
+        // parse outside the lock: the document is never modified
+        try
+        {
+            ObservationReader r = new ObservationReader(false);
+            return r.read(new ByteArrayInputStream(doc));
+        }
+        catch(ObservationParsingException | IOException ex)
+        {
+            log.warn("get: failed to read cached " + uri + ": " + ex);
+            remove(uri);
+            return null;
+        }
+    }
+    
+    /**
+     * Get a cached observation by ID.
+     * 
+     * @param id
+     * @return the cached observation or null if not cached
+     */
+    public Observation get(UUID id)
+    {
+        ObservationURI uri;
+        synchronized(this)
+        {
+            uri = uris.get(id);
+            if (uri == null)
+            {
+                misses++;
+                return null;
+            }
+        }
+        return get(uri);
+    }
+    
+    /**
+     * Add an observation to the cache and evict least-recently-used observations
+     * until the cache is within the size limit. Observations larger than the 
+     * limit are not cached.
+     * 
+     * @param obs a complete observation; later changes to it do not affect the cache
+     */
+    public void put(Observation obs)
+    {
+        int size = getSize(obs);
+        if (size > maxEntities)
+        {
+            log.debug("put: not caching " + obs.getURI() + " size: " + size);
+            remove(obs.getURI());
+            return;
+        }
+        
+        // serialize outside the lock
+        Entry e = new Entry();
+        e.id = obs.getID();
+        e.size = size;
+        try
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObservationWriter w = new ObservationWriter();
+            w.write(obs, bos);
+            e.doc = bos.toByteArray();
+        }
+        catch(IOException ex)
+        {
+            log.warn("put: failed to write " + obs.getURI() + ": " + ex);
+            remove(obs.getURI());
+            return;
+        }
+        
+        synchronized(this)
+        {
+            remove(obs.getURI());
+            cache.put(obs.getURI(), e);
+            uris.put(e.id, obs.getURI());
+            numEntities += size;
+
+            Iterator<Map.Entry<ObservationURI,Entry>> iter = cache.entrySet().iterator();
+            while (numEntities > maxEntities && iter.hasNext())
+            {
+                Map.Entry<ObservationURI,Entry> old = iter.next();
+                iter.remove();
+                uris.remove(old.getValue().id);
+                numEntities -= old.getValue().size;
+                evictions++;
+                log.debug("put: evicted " + old.getKey());
+            }
+        }
+    }
+    
+    /**
+     * Remove an observation that was found to be out of date.
+     * 
+     * @param uri 
+     */
+    public synchronized void invalidate(ObservationURI uri)
+    {
+        remove(uri);
+        stale++;
+    }
+    
+    /**
+     * Remove an observation from the cache.
+     * 
+     * @param uri 
+     */
+    public synchronized void remove(ObservationURI uri)
+    {
+        Entry e = cache.remove(uri);
+        if (e != null)
+        {
+            uris.remove(e.id);
+            numEntities -= e.size;
+        }
+    }
+    
+    /**
+     * Remove an observation from the cache.
+     * 
+     * @param id 
+     */
+    public synchronized void remove(UUID id)
+    {
+        ObservationURI uri = uris.get(id);
+        if (uri != null)
+            remove(uri);
+    }
+    
+    public synchronized void clear()
+    {
+        cache.clear();
+        uris.clear();
+        numEntities = 0L;
+    }
+    
+    /**
+     * @return number of lookups that found a cached observation, including
+     * those later found to be out of date
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+    
+    /**
+     * @return number of cached observations found to be out of date
+     */
+    public synchronized long getStale()
+    {
+        return stale;
+    }
+    
+    /**
+     * @return number of cached observations
+     */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+    
+    /**
+     * @return number of entities in the cached observations
+     */
+    public synchronized long getNumEntities()
+    {
+        return numEntities;
+    }
+
+    public long getMaxEntities()
+    {
+        return maxEntities;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ObservationCache[" + cache.size() + "," + numEntities + "/" + maxEntities 
+                + ",hits=" + hits + ",misses=" + misses + ",evictions=" + evictions + ",stale=" + stale + "]";
+    }
+    
+    static int getSize(Observation obs)
+    {
+        int ret = 1;
+        for (Plane p : obs.getPlanes())
+        {
+            ret++;
+            for (Artifact a : p.getArtifacts())
+            {
+                ret++;
+                for (Part pa : a.getParts())
+                    ret += 1 + pa.getChunks().size();
+            }
+        }
+        return ret;
+    }
+}
@@ -74,6 +74,7 @@ import java.util.Map;
 import ca.nrc.cadc.caom2.Observation;
 import ca.nrc.cadc.caom2.ObservationState;
 import ca.nrc.cadc.caom2.ObservationURI;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -129,6 +130,15 @@ public interface ObservationDAO
      */
     ObservationURI getURI(UUID id);
     
+    /**
+     * Get the current state of an observation. This is a single-row lookup that
+     * can be used to check if an observation has changed without reading it.
+     * 
+     * @param uri
+     * @return state or null if not found
+     */
+    ObservationState getState(ObservationURI uri);
+    
     /**
      * Get list of observation states in order of increasing maxlastModified timestamp.
      * @param collection
@@ -139,6 +149,46 @@ public interface ObservationDAO
      */
     List<ObservationState> getObservationList(String collection, Date minLastModified, Date maxLastModified, Integer batchSize);
     
+    /**
+     * Stream observation states in order of increasing maxLastModified timestamp to
+     * the handler without accumulating them in memory.
+     * 
+     * @param collection
+     * @param minLastModified
+     * @param maxLastModified
+     * @param batchSize
+     * @param handler 
+     */
+    void getObservationList(String collection, Date minLastModified, Date maxLastModified, Integer batchSize, 
+            ResultHandler<ObservationState> handler);
+    
+    /**
+     * Stream a page of observation states in (maxLastModified, obsID) order to the handler. 
+     * Use the maxLastModified and ID of the last state as minLastModified and afterID to 
+     * get the next page.
+     * 
+     * @param collection
+     * @param minLastModified required if afterID is specified
+     * @param afterID ID of the last observation in the previous page, null for the first page
+     * @param maxLastModified
+     * @param batchSize
+     * @param handler 
+     */
+    void getObservationList(String collection, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize, 
+            ResultHandler<ObservationState> handler);
+    
+    /**
+     * Stream observations in order of increasing maxLastModified timestamp to the
+     * handler without accumulating them in memory.
+     * 
+     * @param collection optional collection constraint
+     * @param minLastModified
+     * @param maxLastModified
+     * @param depth
+     * @param handler 
+     */
+    void iterate(String collection, Date minLastModified, Date maxLastModified, int depth, ResultHandler<Observation> handler);
+    
     /**
      * Get a stored observation by UUID.
      * 
@@ -155,6 +205,44 @@ public interface ObservationDAO
      */
     Observation get(ObservationURI uri);
 
+    /**
+     * Get a stored observation by URI to the specified depth: observation only (depth=1), 
+     * planes (depth=2), artifacts (3), parts (4), or chunks (5 = SQLGenerator.MAX_DEPTH).
+     * Children below the requested depth are not loaded.
+     *
+     * @param uri
+     * @param depth
+     * @return the observation with children to the specified depth
+     */
+    Observation get(ObservationURI uri, int depth);
+
+    /**
+     * Get stored observations by URI in as few round trips as possible.
+     * 
+     * @param uris
+     * @return the complete observations that were found, in no particular order
+     */
+    List<Observation> getByURI(Collection<ObservationURI> uris);
+    
+    /**
+     * Stream stored observations by URI to the handler, to the specified depth. Each
+     * observation is passed to the handler as soon as it has been read. URIs that 
+     * are not found are silently skipped.
+     * 
+     * @param uris
+     * @param depth
+     * @param handler 
+     */
+    void getByURI(Collection<ObservationURI> uris, int depth, ResultHandler<Observation> handler);
+    
+    /**
+     * Get stored observations by UUID in as few round trips as possible.
+     * 
+     * @param ids
+     * @return the complete observations that were found, in no particular order
+     */
+    List<Observation> getByID(Collection<UUID> ids);
+
     /**
      * Store an observation.
      *
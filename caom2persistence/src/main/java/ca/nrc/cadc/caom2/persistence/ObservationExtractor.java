@@ -83,4 +83,7 @@ public interface ObservationExtractor extends ResultSetExtractor
 {
     List<Observation> extractObservations(ResultSet rs)
         throws SQLException;
+
+    void extractObservations(ResultSet rs, ResultHandler<Observation> handler)
+        throws SQLException;
 }
@@ -104,6 +104,7 @@ public class ObservationSkeletonExtractor implements ResultSetExtractor
         ArtifactSkeleton curArtifact = null;
         PartSkeleton curPart = null;
         ChunkSkeleton curChunk = null;
+        int ncol = rs.getMetaData().getColumnCount(); // fewer columns when depth < MAX_DEPTH
         while ( rs.next() )
         {
             if (ret == null)
@@ -129,6 +130,9 @@ public class ObservationSkeletonExtractor implements ResultSetExtractor
             else
                 col += 4; // skip
 
+            if (ncol < col)
+                continue; // depth=1
+
             // plane
             d = Util.getDate(rs, col++, CAL);
             md = Util.getDate(rs, col++, CAL);
@@ -98,8 +98,20 @@ class PartDAO extends AbstractCaomEntityDAO<Part>
         this.chunkDAO = new ChunkDAO(gen, forceUpdate, readOnly);
     }
 
+    @Override
+    void setSubtreeDelete(boolean subtreeDelete)
+    {
+        super.setSubtreeDelete(subtreeDelete);
+        chunkDAO.setSubtreeDelete(subtreeDelete);
+    }
+
     @Override
     public void put(Skeleton cur, Part p, LinkedList<CaomEntity> parents, JdbcTemplate jdbc)
+    {
+        put(cur, p, parents, jdbc, null);
+    }
+    
+    public void put(Skeleton cur, Part p, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, EntityBatch batch)
     {
         if (p == null)
             throw new IllegalArgumentException("arg cannot be null");
@@ -134,11 +146,11 @@ class PartDAO extends AbstractCaomEntityDAO<Part>
                 for (Chunk c : p.getChunks())
                     pairs.add(new Pair<Chunk>(null, c));
 
-            super.put(cur, p, parents, jdbc);
+            super.put(cur, p, parents, jdbc, false, batch);
 
             parents.push(p);
             for (Pair<Chunk> part : pairs)
-                chunkDAO.put(part.cur, part.val, parents, jdbc);
+                chunkDAO.put(part.cur, part.val, parents, jdbc, batch);
             parents.pop();
         }
         finally
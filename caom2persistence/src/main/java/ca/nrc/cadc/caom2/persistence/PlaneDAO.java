@@ -99,8 +99,20 @@ class PlaneDAO extends AbstractCaomEntityDAO<Plane>
         this.artifactDAO = new ArtifactDAO(gen,forceUpdate, readOnly);
     }
 
+    @Override
+    void setSubtreeDelete(boolean subtreeDelete)
+    {
+        super.setSubtreeDelete(subtreeDelete);
+        artifactDAO.setSubtreeDelete(subtreeDelete);
+    }
+
     @Override
     public void put(Skeleton cur, Plane p, LinkedList<CaomEntity> parents, JdbcTemplate jdbc)
+    {
+        put(cur, p, parents, jdbc, null);
+    }
+    
+    public void put(Skeleton cur, Plane p, LinkedList<CaomEntity> parents, JdbcTemplate jdbc, EntityBatch batch)
     {
         if (p == null)
             throw new IllegalArgumentException("arg cannot be null");
@@ -145,11 +157,11 @@ class PlaneDAO extends AbstractCaomEntityDAO<Plane>
                 for (Artifact a : p.getArtifacts())
                     pairs.add(new Pair<Artifact>(null, a));
 
-            super.put(cur, p, parents, jdbc);
+            super.put(cur, p, parents, jdbc, false, batch);
 
             parents.push(p);
             for (Pair<Artifact> a : pairs)
-                artifactDAO.put(a.cur, a.val, parents, jdbc);
+                artifactDAO.put(a.cur, a.val, parents, jdbc, batch);
             parents.pop();
         }
         finally
@@ -157,6 +157,33 @@ public class PostgreSQLGenerator extends BaseSQLGenerator
         return sb.toString();
     }
     
+    /**
+     * Get a COPY statement that reads rows in text format (tab-separated, \N for null)
+     * from STDIN. The columns are in the same order as the insert statement so the 
+     * values bound by the EntityPut for the class can be used as the row content.
+     * 
+     * @param c entity class
+     * @return COPY statement
+     */
+    public String getCopySQL(Class c)
+    {
+        String[] cols = columnMap.get(c);
+        if (cols == null)
+            throw new IllegalArgumentException("unsupported class: " + c.getName());
+        StringBuilder sb = new StringBuilder();
+        sb.append("COPY ");
+        sb.append(getTable(c));
+        sb.append(" (");
+        for (int i = 0; i < cols.length; i++)
+        {
+            if (i > 0)
+                sb.append(",");
+            sb.append(cols[i]);
+        }
+        sb.append(") FROM STDIN");
+        return sb.toString();
+    }
+    
     @Override
     protected String literal(UUID value)
     {
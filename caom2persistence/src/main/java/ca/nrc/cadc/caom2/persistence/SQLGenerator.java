@@ -76,7 +76,9 @@ import ca.nrc.cadc.caom2.access.ReadAccess;
 import ca.nrc.cadc.caom2.persistence.skel.Skeleton;
 import java.net.URI;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -130,11 +132,78 @@ public interface SQLGenerator
     String getSelectSQL(Class c, UUID id);
     
     String getSelectLastModifiedRangeSQL(Class c, Date minLastModified, Date maxLastModified, Integer batchSize);
+    
+    /**
+     * Keyset variant: select rows after (minLastModified, afterID) in (maxLastModified, obsID) 
+     * order. With afterID == null this is the same as the method above.
+     * 
+     * @param c
+     * @param minLastModified required if afterID is specified
+     * @param afterID optional ID of the last observation in the previous page
+     * @param maxLastModified
+     * @param batchSize
+     * @return 
+     */
+    String getSelectLastModifiedRangeSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize);
 
     String getSelectSQL(Class c, Date minLastModified, Date maxLastModified, Integer batchSize);
     String getSelectSQL(Class c, Date minLastModified, Date maxLastModified, Integer batchSize, String collection);
+    
+    /**
+     * Keyset variant for ObservationState: select rows after (minLastModified, afterID)
+     * in (maxLastModified, obsID) order.
+     * 
+     * @param c
+     * @param minLastModified required if afterID is specified
+     * @param afterID optional ID of the last observation in the previous page
+     * @param maxLastModified
+     * @param batchSize
+     * @param collection
+     * @return 
+     */
+    String getSelectSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize, String collection);
 
     String getObservationSelectSQL(Class c, Date minLastModified, Date maxLastModified, int depth);
+    
+    String getObservationSelectSQL(Class c, Date minLastModified, UUID afterID, Date maxLastModified, int depth);
+
+    /**
+     * Get SQL to select Observation(s) with maxLastModified in [minLastModified,maxLastModified]
+     * ordered by maxLastModified (and then by ID) so that complete observations can be 
+     * streamed from a forward-only cursor.
+     * 
+     * @param collection optional collection constraint
+     * @param minLastModified
+     * @param maxLastModified
+     * @param depth
+     * @return 
+     */
+    String getObservationIteratorSQL(String collection, Date minLastModified, Date maxLastModified, int depth);
+
+    // parameterized equivalents of the above: the SQL templates are cached so 
+    // the server can reuse the query plan
+    
+    PreparedStatementCreator getSelectStatement(ObservationURI uri, int depth, boolean skeleton);
+    
+    PreparedStatementCreator getSelectStatement(UUID id, int depth, boolean skeleton);
+    
+    PreparedStatementCreator getStateSelectStatement(ObservationURI uri);
+    
+    PreparedStatementCreator getSelectStatement(String collection, List<String> observationIDs, int depth);
+    
+    PreparedStatementCreator getSelectStatement(List<UUID> ids, int depth);
+    
+    PreparedStatementCreator getSelectStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize, String collection);
+    
+    PreparedStatementCreator getSelectLastModifiedRangeStatement(Class c, Date minLastModified, Date maxLastModified, Integer batchSize);
+    
+    PreparedStatementCreator getSelectLastModifiedRangeStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, Integer batchSize);
+    
+    PreparedStatementCreator getObservationSelectStatement(Class c, Date minLastModified, Date maxLastModified, int depth);
+    
+    PreparedStatementCreator getObservationSelectStatement(Class c, Date minLastModified, UUID afterID, Date maxLastModified, int depth);
+    
+    PreparedStatementCreator getObservationIteratorStatement(String collection, Date minLastModified, Date maxLastModified, int depth);
 
     ResultSetExtractor getObservationExtractor();
     
@@ -153,6 +222,27 @@ public interface SQLGenerator
     EntityPut getEntityPut(Class<? extends AbstractCaomEntity> c, boolean isUpdate);
     
     EntityDelete getEntityDelete(Class<? extends AbstractCaomEntity> c, boolean primaryKey);
+    
+    /**
+     * Get an EntityDelete that removes an entity and all of its descendants with
+     * one statement per table.
+     * 
+     * @param c class of the root entity
+     * @return 
+     */
+    EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> c);
+    
+    /**
+     * Get an EntityDelete that removes a list of entities and all of their 
+     * descendants with one statement per table. The caller must limit the
+     * size of the list (e.g. to SplitQueryLoader.MAX_IN_LIST). Like getSubtreeDelete(Class),
+     * this requires planeID indices in the child tables (PostgreSQL schema only).
+     * 
+     * @param c class of the root entities
+     * @param ids IDs of the root entities
+     * @return 
+     */
+    EntityDelete getSubtreeDelete(Class<? extends AbstractCaomEntity> c, List<UUID> ids);
 
     //String getDeleteSQL(Class c, UUID id, boolean primaryKey);
     
@@ -0,0 +1,212 @@
+/*
+************************************************************************
+*******************  CANADIAN ASTRONOMY DATA CENTRE  *******************
+**************  CENTRE CANADIEN DE DONNÉES ASTRONOMIQUES  **************
+*
+*  (c) 2011.                            (c) 2011.
+*  Government of Canada                 Gouvernement du Canada
+*  National Research Council            Conseil national de recherches
+*  Ottawa, Canada, K1A 0R6              Ottawa, Canada, K1A 0R6
+*  All rights reserved                  Tous droits réservés
+*
+*  NRC disclaims any warranties,        Le CNRC dénie toute garantie
+*  expressed, implied, or               énoncée, implicite ou légale,
+*  statutory, of any kind with          de quelque nature que ce
+*  respect to the software,             soit, concernant le logiciel,
+*  including without limitation         y compris sans restriction
+*  any warranty of merchantability      toute garantie de valeur
+*  or fitness for a particular          marchande ou de pertinence
+*  purpose. NRC shall not be            pour un usage particulier.
+*  liable in any event for any          Le CNRC ne pourra en aucun cas
+*  damages, whether direct or           être tenu responsable de tout
+*  indirect, special or general,        dommage, direct ou indirect,
+*  consequential or incidental,         particulier ou général,
+*  arising from the use of the          accessoire ou fortuit, résultant
+*  software.  Neither the name          de l'utilisation du logiciel. Ni
+*  of the National Research             le nom du Conseil National de
+*  Council of Canada nor the            Recherches du Canada ni les noms
+*  names of its contributors may        de ses  participants ne peuvent
+*  be used to endorse or promote        être utilisés pour approuver ou
+*  products derived from this           promouvoir les produits dérivés
+*  software without specific prior      de ce logiciel sans autorisation
+*  written permission.                  préalable et particulière
+*                                       par écrit.
+*
+*  This file is part of the             Ce fichier fait partie du projet
+*  OpenCADC project.                    OpenCADC.
+*
+*  OpenCADC is free software:           OpenCADC est un logiciel libre ;
+*  you can redistribute it and/or       vous pouvez le redistribuer ou le
+*  modify it under the terms of         modifier suivant les termes de
+*  the GNU Affero General Public        la “GNU Affero General Public
+*  License as published by the          License” telle que publiée
+*  Free Software Foundation,            par la Free Software Foundation
+*  either version 3 of the              : soit la version 3 de cette
+*  License, or (at your option)         licence, soit (à votre gré)
+*  any later version.                   toute version ultérieure.
+*
+*  OpenCADC is distributed in the       OpenCADC est distribué
+*  hope that it will be useful,         dans l’espoir qu’il vous
+*  but WITHOUT ANY WARRANTY;            sera utile, mais SANS AUCUNE
+*  without even the implied             GARANTIE : sans même la garantie
+*  warranty of MERCHANTABILITY          implicite de COMMERCIALISABILITÉ
+*  or FITNESS FOR A PARTICULAR          ni d’ADÉQUATION À UN OBJECTIF
+*  PURPOSE.  See the GNU Affero         PARTICULIER. Consultez la Licence
+*  General Public License for           Générale Publique GNU Affero
+*  more details.                        pour plus de détails.
+*
+*  You should have received             Vous devriez avoir reçu une
+*  a copy of the GNU Affero             copie de la Licence Générale
+*  General Public License along         Publique GNU Affero avec
+*  with OpenCADC.  If not, see          OpenCADC ; si ce n’est
+*  <http://www.gnu.org/licenses/>.      pas le cas, consultez :
+*                                       <http://www.gnu.org/licenses/>.
+*
+*  $Revision: 5 $
+*
+************************************************************************
+*/
+
+package ca.nrc.cadc.caom2.persistence;
+
+import ca.nrc.cadc.caom2.Artifact;
+import ca.nrc.cadc.caom2.Chunk;
+import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.Part;
+import ca.nrc.cadc.caom2.Plane;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Loads the children of a list of observations with one query per level (planes
+ * by obsID, artifacts by planeID, parts by artifactID, chunks by partID) and 
+ * stitches the tree together in memory. The single LEFT OUTER JOIN repeats every 
+ * observation, plane, artifact, and part column once per chunk row; this costs one 
+ * round trip per level (and per MAX_IN_LIST parent keys) instead.
+ * 
+ * @author pdowler
+ */
+class SplitQueryLoader
+{
+    private static final Logger log = Logger.getLogger(SplitQueryLoader.class);
+
+    // max number of parent keys in a single IN list
+    static final int MAX_IN_LIST = 500;
+    
+    private final BaseSQLGenerator gen;
+
+    SplitQueryLoader(BaseSQLGenerator gen)
+    {
+        this.gen = gen;
+    }
+
+    /**
+     * Load children of the specified observations down to the specified depth. The
+     * observations are expected to have no children (loaded with depth 1).
+     * 
+     * @param observations
+     * @param depth
+     * @param jdbc 
+     */
+    void load(List<Observation> observations, int depth, JdbcTemplate jdbc)
+    {
+        if (depth <= 1 || observations.isEmpty())
+            return;
+        
+        log.debug("load: " + observations.size() + " " + depth);
+        long t = System.currentTimeMillis();
+        try
+        {
+            Map<UUID,Observation> obs = new HashMap<UUID,Observation>();
+            for (Observation o : observations)
+                obs.put(o.getID(), o);
+
+            Map<UUID,Plane> planes = new HashMap<UUID,Plane>();
+            for (Child<Plane> c : getChildren(Plane.class, obs.keySet(), gen.getPlaneMapper(), jdbc))
+            {
+                obs.get(c.parentID).getPlanes().add(c.entity);
+                planes.put(c.entity.getID(), c.entity);
+            }
+            if (depth <= 2 || planes.isEmpty())
+                return;
+
+            Map<UUID,Artifact> artifacts = new HashMap<UUID,Artifact>();
+            for (Child<Artifact> c : getChildren(Artifact.class, planes.keySet(), gen.getArtifactMapper(), jdbc))
+            {
+                planes.get(c.parentID).getArtifacts().add(c.entity);
+                artifacts.put(c.entity.getID(), c.entity);
+            }
+            if (depth <= 3 || artifacts.isEmpty())
+                return;
+
+            Map<UUID,Part> parts = new HashMap<UUID,Part>();
+            for (Child<Part> c : getChildren(Part.class, artifacts.keySet(), gen.getPartMapper(), jdbc))
+            {
+                artifacts.get(c.parentID).getParts().add(c.entity);
+                parts.put(c.entity.getID(), c.entity);
+            }
+            if (depth <= 4 || parts.isEmpty())
+                return;
+
+            for (Child<Chunk> c : getChildren(Chunk.class, parts.keySet(), gen.getChunkMapper(), jdbc))
+                parts.get(c.parentID).getChunks().add(c.entity);
+        }
+        finally
+        {
+            long dt = System.currentTimeMillis() - t;
+            log.debug("load: " + observations.size() + " " + depth + " " + dt + "ms");
+        }
+    }
+
+    private <T> List<Child<T>> getChildren(Class c, Collection<UUID> parentIDs, 
+            final PartialRowMapper<T> mapper, JdbcTemplate jdbc)
+    {
+        final List<Child<T>> ret = new ArrayList<Child<T>>();
+        List<UUID> ids = new ArrayList<UUID>(parentIDs);
+        for (int i = 0; i < ids.size(); i += MAX_IN_LIST)
+        {
+            List<UUID> keys = ids.subList(i, Math.min(i + MAX_IN_LIST, ids.size()));
+            PreparedStatementCreator psc = gen.getChildSelectStatement(c, keys);
+            if (log.isDebugEnabled())
+                log.debug("load: " + Util.formatSQL(psc.toString()));
+            
+            jdbc.query(psc, new RowCallbackHandler()
+            {
+                private int row = 0;
+                
+                public void processRow(ResultSet rs) 
+                    throws SQLException
+                {
+                    row++;
+                    UUID parentID = Util.getUUID(rs, 1); // first column is FK
+                    T entity = mapper.mapRow(rs, row, 1);
+                    if (entity != null)
+                        ret.add(new Child<T>(parentID, entity));
+                }
+            });
+        }
+        return ret;
+    }
+    
+    private static class Child<T>
+    {
+        UUID parentID;
+        T entity;
+        
+        Child(UUID parentID, T entity)
+        {
+            this.parentID = parentID;
+            this.entity = entity;
+        }
+    }
+}
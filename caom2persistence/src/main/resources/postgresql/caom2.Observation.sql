@@ -67,8 +67,8 @@ create unique index i_observationURI on caom2.Observation (observationURI)
 create unique index i_observationURI2 on caom2.Observation (collection, observationID)
 ;
 
--- harvesting index for recompute mode of caom2harvester
-create index i_maxLastModified on caom2.Observation (maxLastModified)
+-- harvesting index for caom2harvester and the repo list: (maxLastModified, obsID) is the paging key
+create index i_maxLastModified on caom2.Observation (maxLastModified, obsID)
 ;
 
 -- member join support
@@ -65,8 +65,8 @@ create unique index observationURI on caom2_Observation (collection, observation
 create index lastModified on caom2_Observation (lastModified)
 ;
 
--- primary harvesting index
-create index maxLastModified on caom2_Observation (maxLastModified)
+-- primary harvesting index: (maxLastModified, obsID) is the paging key
+create index maxLastModified on caom2_Observation (maxLastModified, obsID)
 ;
 
 -- reference/join table for composites 
@@ -140,7 +140,9 @@ import ca.nrc.cadc.date.DateUtil;
 import ca.nrc.cadc.util.Log4jInit;
 import java.util.Collection;
 import java.util.UUID;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
  *
@@ -179,6 +181,7 @@ public abstract class AbstractDatabaseObservationDAOTest
 
     boolean deletionTrack;
     boolean useLongForUUID;
+    Map<String,Object> config;
     DatabaseObservationDAO dao;
     TransactionManager txnManager;
 
@@ -195,7 +198,7 @@ public abstract class AbstractDatabaseObservationDAOTest
         this.deletionTrack = deletionTrack;
         try
         {
-            Map<String,Object> config = new TreeMap<String,Object>();
+            this.config = new TreeMap<String,Object>();
             config.put("server", server);
             config.put("database", database);
             config.put("schema", schema);
@@ -304,7 +307,19 @@ public abstract class AbstractDatabaseObservationDAOTest
             Assert.assertEquals(4, result.size());
             for (ObservationState os : result)
                 log.info("found: " + os);
-            
+
+            final List<ObservationState> streamed = new ArrayList<ObservationState>();
+            dao.getObservationList(collection, start, end, batchSize, new ResultHandler<ObservationState>()
+            {
+                public void handle(ObservationState os)
+                {
+                    streamed.add(os);
+                }
+            });
+            Assert.assertEquals(result.size(), streamed.size());
+            for (int i = 0; i < result.size(); i++)
+                Assert.assertEquals(result.get(i).getObservationID(), streamed.get(i).getObservationID());
+
             result = dao.getObservationList(collection, start, mid, batchSize);
             Assert.assertEquals(2, result.size());
             for (ObservationState os : result)
@@ -409,6 +424,8 @@ public abstract class AbstractDatabaseObservationDAOTest
             Observation nobs = dao.get(uuid);
             Assert.assertNull(uuid.toString(), nobs);
             
+            Assert.assertNull(uri.toString(), dao.getState(uri));
+            
             // should return without failing
             dao.delete(uri);
         }
@@ -884,6 +901,502 @@ public abstract class AbstractDatabaseObservationDAOTest
         }
     }
 
+    @Test
+    public void testGetState()
+    {
+        try
+        {
+            Observation orig = getTestObservation(false, 5, false, true);
+            dao.put(orig);
+            
+            ObservationState s = dao.getState(orig.getURI());
+            Assert.assertNotNull(s);
+            Assert.assertEquals(orig.getURI().getCollection(), s.getCollection());
+            Assert.assertEquals(orig.getURI().getObservationID(), s.getObservationID());
+            Assert.assertEquals(orig.getID(), s.getID());
+            Assert.assertEquals(orig.getMaxLastModified(), s.getMaxLastModified());
+            
+            // a change anywhere in the tree changes the state
+            Thread.sleep(10L);
+            orig.getPlanes().iterator().next().dataRelease = new Date();
+            dao.put(orig);
+            ObservationState s2 = dao.getState(orig.getURI());
+            Assert.assertTrue(s2.getMaxLastModified().after(s.getMaxLastModified()));
+            
+            dao.delete(orig.getURI());
+            Assert.assertNull(dao.getState(orig.getURI()));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+    
+    @Test
+    public void testIterate()
+    {
+        try
+        {
+            log.info("testIterate");
+
+            Observation o1 = new SimpleObservation(AbstractDatabaseObservationDAOTest.class.getSimpleName(), "obs1");
+            Observation o2 = new SimpleObservation(AbstractDatabaseObservationDAOTest.class.getSimpleName(), "obsA");
+            Observation o3 = getTestObservation(false, 5, false, true);
+
+            dao.put(o1);
+            Thread.sleep(10L);
+            dao.put(o2);
+            Thread.sleep(10L);
+            dao.put(o3);
+
+            final List<Observation> obs = new ArrayList<Observation>();
+            ResultHandler<Observation> handler = new ResultHandler<Observation>()
+            {
+                public void handle(Observation o)
+                {
+                    obs.add(o);
+                }
+            };
+            
+            dao.iterate(null, null, null, SQLGenerator.MAX_DEPTH, handler);
+            Assert.assertEquals(3, obs.size());
+            Assert.assertEquals(o1.getURI(), obs.get(0).getURI());
+            Assert.assertEquals(o2.getURI(), obs.get(1).getURI());
+            Assert.assertEquals(o3.getURI(), obs.get(2).getURI());
+            testEqual(o3, obs.get(2));
+            
+            obs.clear();
+            dao.iterate(o2.getCollection(), o2.getMaxLastModified(), null, 1, handler);
+            Assert.assertEquals(1, obs.size());
+            Assert.assertEquals(o2.getURI(), obs.get(0).getURI());
+            Assert.assertTrue(obs.get(0).getPlanes().isEmpty());
+            
+            dao.delete(o1.getURI());
+            dao.delete(o2.getURI());
+            dao.delete(o3.getURI());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            if ( txnManager.isOpen() )
+                try { txnManager.rollbackTransaction(); }
+                catch(Throwable t)
+                {
+                    log.error("failed to rollback transaction", t);
+                }
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testMultiGet()
+    {
+        try
+        {
+            Observation o1 = new SimpleObservation(AbstractDatabaseObservationDAOTest.class.getSimpleName(), "obs1");
+            Observation o2 = new SimpleObservation("OTHER", "obs2");
+            Observation o3 = getTestObservation(false, 5, false, true);
+            dao.put(o1);
+            dao.put(o2);
+            dao.put(o3);
+            
+            List<ObservationURI> uris = new ArrayList<ObservationURI>();
+            uris.add(o1.getURI());
+            uris.add(o2.getURI());
+            uris.add(o3.getURI());
+            uris.add(new ObservationURI("OTHER", "no-such-observation"));
+            List<Observation> obs = dao.getByURI(uris);
+            Assert.assertEquals(3, obs.size());
+            for (Observation o : obs)
+            {
+                if (o.getURI().equals(o3.getURI()))
+                    testEqual(o3, o);
+            }
+            
+            List<UUID> ids = new ArrayList<UUID>();
+            ids.add(o1.getID());
+            ids.add(o3.getID());
+            ids.add(genID());
+            obs = dao.getByID(ids);
+            Assert.assertEquals(2, obs.size());
+            for (Observation o : obs)
+            {
+                Assert.assertTrue(o.getID().equals(o1.getID()) || o.getID().equals(o3.getID()));
+                if (o.getID().equals(o3.getID()))
+                    testEqual(o3, o);
+            }
+            
+            dao.delete(o1.getURI());
+            dao.delete(o2.getURI());
+            dao.delete(o3.getURI());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testObservationCache()
+    {
+        try
+        {
+            Map<String,Object> cacheConfig = new TreeMap<String,Object>(config);
+            cacheConfig.put("cacheSize", new Integer(1000));
+            DatabaseObservationDAO cacheDAO = new DatabaseObservationDAO();
+            cacheDAO.setConfig(cacheConfig);
+            ObservationCache cache = cacheDAO.getCache();
+            Assert.assertNotNull(cache);
+            // DAOs created from a template share its cache
+            Assert.assertSame(cache, new DatabaseObservationDAO(cacheDAO).getCache());
+            
+            Observation orig = getTestObservation(false, 5, false, true);
+            dao.put(orig);
+            
+            Observation o1 = cacheDAO.get(orig.getURI());
+            Assert.assertNotNull(o1);
+            Assert.assertEquals(0L, cache.getHits());
+            Assert.assertEquals(1L, cache.getMisses());
+            Assert.assertEquals(1, cache.size());
+            Assert.assertEquals(ObservationCache.getSize(orig), cache.getNumEntities());
+            testEqual(orig, o1);
+            
+            // hits return a new instance that can be modified by the caller
+            Observation o2 = cacheDAO.get(orig.getURI());
+            Assert.assertNotSame(o1, o2);
+            testEqual(orig, o2);
+            Assert.assertEquals(1L, cache.getHits());
+            o2.getPlanes().clear();
+            
+            o2 = cacheDAO.get(orig.getID());
+            testEqual(orig, o2);
+            Assert.assertEquals(2L, cache.getHits());
+            
+            // modify with a different DAO: revalidation detects the change
+            Thread.sleep(10L);
+            orig.getPlanes().add(new Plane("newPlane"));
+            dao.put(orig);
+            o2 = cacheDAO.get(orig.getURI());
+            Assert.assertNotSame(o1, o2);
+            Assert.assertEquals(1L, cache.getStale());
+            testEqual(orig, o2);
+            
+            // put and delete invalidate
+            cacheDAO.put(o2);
+            Assert.assertEquals(0, cache.size());
+            o2 = cacheDAO.get(orig.getURI());
+            Assert.assertEquals(1, cache.size());
+            cacheDAO.delete(orig.getURI());
+            Assert.assertEquals(0, cache.size());
+            Assert.assertNull(cacheDAO.get(orig.getURI()));
+            
+            // eviction by entity count
+            ObservationCache small = new ObservationCache(2L);
+            small.put(new SimpleObservation("TEST", "obs1"));
+            small.put(new SimpleObservation("TEST", "obs2"));
+            small.put(new SimpleObservation("TEST", "obs3"));
+            Assert.assertEquals(2, small.size());
+            Assert.assertEquals(1L, small.getEvictions());
+            Assert.assertNull(small.get(new ObservationURI("TEST", "obs1")));
+            Assert.assertNotNull(small.get(new ObservationURI("TEST", "obs3")));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testTemplateDAO()
+    {
+        try
+        {
+            DatabaseObservationDAO d1 = new DatabaseObservationDAO(dao);
+            DatabaseObservationDAO d2 = new DatabaseObservationDAO(dao);
+            Assert.assertSame(dao.getSQLGenerator(), d1.getSQLGenerator());
+            Assert.assertSame(dao.getDataSource(), d1.getDataSource());
+            Assert.assertNotSame(d1.getTransactionManager(), d2.getTransactionManager());
+            
+            Observation orig = getTestObservation(false, 5, false, true);
+            d1.put(orig);
+            Observation retrieved = d2.get(orig.getURI());
+            Assert.assertNotNull(retrieved);
+            testEqual(orig, retrieved);
+            d2.delete(orig.getURI());
+            Assert.assertNull(dao.get(orig.getURI()));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testBatchPut()
+    {
+        try
+        {
+            Map<String,Object> batchConfig = new TreeMap<String,Object>(config);
+            batchConfig.put("batchPut", Boolean.TRUE);
+            DatabaseObservationDAO batchDAO = new DatabaseObservationDAO();
+            batchDAO.setConfig(batchConfig);
+            
+            Observation orig = getTestObservation(false, 5, false, true);
+            batchDAO.put(orig);
+            Observation retrieved = dao.get(orig.getURI());
+            Assert.assertNotNull(retrieved);
+            testEqual(orig, retrieved);
+            
+            // update: remove a plane, add a plane, and modify a chunk
+            Thread.sleep(10L);
+            Plane rm = orig.getPlanes().iterator().next();
+            orig.getPlanes().remove(rm);
+            Plane p = orig.getPlanes().iterator().next();
+            Artifact a = p.getArtifacts().iterator().next();
+            Part pa = a.getParts().iterator().next();
+            Chunk c = pa.getChunks().iterator().next();
+            c.naxis = new Integer(c.naxis == null ? 2 : c.naxis.intValue() + 1);
+            orig.getPlanes().add(new Plane("batchPlane"));
+            batchDAO.put(orig);
+            retrieved = dao.get(orig.getURI());
+            Assert.assertNotNull(retrieved);
+            testEqual(orig, retrieved);
+            
+            batchDAO.delete(orig.getURI());
+            Assert.assertNull(dao.get(orig.getURI()));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testLoad()
+    {
+        try
+        {
+            if (!dao.isBulkLoadSupported())
+            {
+                log.info("testLoad: skipped for " + dao.getSQLGenerator().getClass().getSimpleName());
+                return;
+            }
+            
+            List<Observation> obs = new ArrayList<Observation>();
+            obs.add(getTestObservation(true, 5, true, true));
+            Observation o3 = new SimpleObservation("TEST", "escapes");
+            o3.instrument = new Instrument("tab\tnewline\nbackslash\\");
+            obs.add(o3);
+            dao.load(obs);
+            
+            for (Observation orig : obs)
+            {
+                Observation retrieved = dao.get(orig.getURI());
+                Assert.assertNotNull(orig.getURI().toString(), retrieved);
+                testEqual(orig, retrieved);
+            }
+            
+            // existing observation: whole list is rolled back
+            List<Observation> dupe = new ArrayList<Observation>();
+            Observation o4 = new SimpleObservation("TEST", "notLoaded");
+            dupe.add(o4);
+            dupe.add(o3);
+            try
+            {
+                dao.load(dupe);
+                Assert.fail("expected exception for duplicate observation");
+            }
+            catch(DataAccessException expected)
+            {
+                log.info("caught expected exception: " + expected);
+            }
+            Assert.assertNull(dao.get(o4.getURI()));
+            Assert.assertFalse(txnManager.isOpen());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSubtreeDelete()
+    {
+        try
+        {
+            Map<String,Object> sdConfig = new TreeMap<String,Object>(config);
+            sdConfig.put("subtreeDelete", Boolean.TRUE);
+            DatabaseObservationDAO sdDAO = new DatabaseObservationDAO();
+            sdDAO.setConfig(sdConfig);
+            
+            // replacement: remove a plane and an artifact
+            Observation orig = getTestObservation(false, 5, false, true);
+            sdDAO.put(orig);
+            Thread.sleep(10L);
+            Plane rm = orig.getPlanes().iterator().next();
+            orig.getPlanes().remove(rm);
+            Plane p = orig.getPlanes().iterator().next();
+            Artifact a = p.getArtifacts().iterator().next();
+            p.getArtifacts().remove(a);
+            sdDAO.put(orig);
+            Observation retrieved = dao.get(orig.getURI());
+            Assert.assertNotNull(retrieved);
+            testEqual(orig, retrieved);
+            
+            // delete by ID
+            sdDAO.delete(orig.getID());
+            Assert.assertNull(dao.get(orig.getURI()));
+            
+            // delete by URI
+            orig = getTestObservation(false, 5, false, true);
+            sdDAO.put(orig);
+            sdDAO.delete(orig.getURI());
+            Assert.assertNull(dao.get(orig.getURI()));
+            
+            // no orphans left behind
+            JdbcTemplate jdbc = new JdbcTemplate(dao.getDataSource());
+            SQLGenerator gen = dao.getSQLGenerator();
+            for (Class c : ENTITY_CLASSES)
+            {
+                int n = jdbc.queryForInt("SELECT count(*) FROM " + gen.getTable(c));
+                Assert.assertEquals(c.getSimpleName(), 0, n);
+            }
+            
+            // not found is a no-op
+            sdDAO.delete(orig.getID());
+            sdDAO.delete(orig.getURI());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testDeleteList()
+    {
+        try
+        {
+            Map<String,Object> sdConfig = new TreeMap<String,Object>(config);
+            sdConfig.put("subtreeDelete", Boolean.TRUE);
+            DatabaseObservationDAO sdDAO = new DatabaseObservationDAO();
+            sdDAO.setConfig(sdConfig);
+            
+            DatabaseObservationDAO[] daos = new DatabaseObservationDAO[] { dao, sdDAO };
+            for (DatabaseObservationDAO d : daos)
+            {
+                Observation o1 = getTestObservation(false, 5, false, true);
+                Observation o2 = new SimpleObservation(AbstractDatabaseObservationDAOTest.class.getSimpleName(), "obs1");
+                o2.getPlanes().add(new Plane("plane1"));
+                Observation o3 = new SimpleObservation("OTHER", "obs2");
+                d.put(o1);
+                d.put(o2);
+                d.put(o3);
+                
+                List<UUID> ids = new ArrayList<UUID>();
+                ids.add(o1.getID());
+                ids.add(o2.getID());
+                ids.add(o3.getID());
+                ids.add(genID()); // not found is ignored
+                d.delete(ids);
+                Assert.assertNull(dao.get(o1.getURI()));
+                Assert.assertNull(dao.get(o2.getURI()));
+                Assert.assertNull(dao.get(o3.getURI()));
+                
+                // no orphans left behind
+                JdbcTemplate jdbc = new JdbcTemplate(dao.getDataSource());
+                SQLGenerator gen = dao.getSQLGenerator();
+                for (Class c : ENTITY_CLASSES)
+                {
+                    int n = jdbc.queryForInt("SELECT count(*) FROM " + gen.getTable(c));
+                    Assert.assertEquals(c.getSimpleName(), 0, n);
+                }
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSplitQueryBenchmark()
+    {
+        try
+        {
+            Map<String,Object> splitConfig = new TreeMap<String,Object>(config);
+            splitConfig.put("splitQuery", Boolean.TRUE);
+            DatabaseObservationDAO splitDAO = new DatabaseObservationDAO();
+            splitDAO.setConfig(splitConfig);
+            
+            // planes, artifacts/plane, parts/artifact, chunks/part
+            int[][] shapes = 
+            {
+                { 1, 1, 1, 1 },     // tiny
+                { 20, 1, 1, 1 },    // wide
+                { 1, 1, 1, 200 },   // deep
+                { 4, 4, 4, 10 }     // bushy
+            };
+            int num = 5;
+            for (int[] shape : shapes)
+            {
+                Observation orig = new SimpleObservation("TEST", "SplitQueryBenchmark");
+                for (int p = 0; p < shape[0]; p++)
+                {
+                    Plane pl = new Plane("plane" + p);
+                    orig.getPlanes().add(pl);
+                    for (int a = 0; a < shape[1]; a++)
+                    {
+                        Artifact ar = new Artifact(new URI("http://www.example.com/stuff/plane" + p + "/" + a), 
+                                ProductType.SCIENCE, ReleaseType.DATA);
+                        pl.getArtifacts().add(ar);
+                        for (int i = 0; i < shape[2]; i++)
+                        {
+                            Part pa = new Part("part" + i);
+                            ar.getParts().add(pa);
+                            for (int c = 0; c < shape[3]; c++)
+                                pa.getChunks().add(new Chunk());
+                        }
+                    }
+                }
+                dao.put(orig);
+
+                long joinTime = 0L;
+                long splitTime = 0L;
+                for (int i = 0; i < num; i++)
+                {
+                    long t = System.currentTimeMillis();
+                    Observation join = dao.get(orig.getURI());
+                    joinTime += System.currentTimeMillis() - t;
+                    
+                    t = System.currentTimeMillis();
+                    Observation split = splitDAO.get(orig.getURI());
+                    splitTime += System.currentTimeMillis() - t;
+                    
+                    testEqual(orig, join);
+                    testEqual(orig, split);
+                }
+                log.info("testSplitQueryBenchmark: " + shape[0] + "x" + shape[1] + "x" + shape[2] + "x" + shape[3]
+                        + " join: " + (joinTime / num) + "ms split: " + (splitTime / num) + "ms");
+                
+                dao.delete(orig.getURI());
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testPutObservationDeleteChildren()
     {
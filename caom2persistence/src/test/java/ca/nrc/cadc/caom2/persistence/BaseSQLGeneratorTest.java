@@ -76,6 +76,7 @@ import ca.nrc.cadc.caom2.DeletedObservationMetaReadAccess;
 import ca.nrc.cadc.caom2.DeletedPlaneDataReadAccess;
 import ca.nrc.cadc.caom2.DeletedPlaneMetaReadAccess;
 import ca.nrc.cadc.caom2.Observation;
+import ca.nrc.cadc.caom2.ObservationState;
 import ca.nrc.cadc.caom2.ObservationURI;
 import ca.nrc.cadc.caom2.Part;
 import ca.nrc.cadc.caom2.Plane;
@@ -85,7 +86,9 @@ import ca.nrc.cadc.caom2.access.PlaneMetaReadAccess;
 import ca.nrc.cadc.date.DateUtil;
 import ca.nrc.cadc.util.Log4jInit;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -206,6 +209,146 @@ public class BaseSQLGeneratorTest
         }
     }
 
+    @Test
+    public void testKeysetSQL()
+    {
+        try
+        {
+            Date d1 = new Date();
+            UUID id = new UUID(0L, 666L);
+            String alias = gen.getAlias(Observation.class);
+            String keyset = " OR " + alias + ".obsID > ";
+            
+            String sql = gen.getSelectLastModifiedRangeSQL(Observation.class, d1, id, null, 10);
+            log.debug("SQL: " + sql);
+            Assert.assertTrue(sql, sql.contains(keyset));
+            Assert.assertTrue(sql, sql.contains(" ORDER BY " + alias + ".maxLastModified," + alias + ".obsID"));
+            
+            sql = gen.getObservationSelectSQL(Observation.class, d1, id, null, SQLGenerator.MAX_DEPTH);
+            log.debug("SQL: " + sql);
+            Assert.assertTrue(sql, sql.contains(keyset));
+            Assert.assertTrue(sql, sql.contains(" ORDER BY " + alias + ".maxLastModified," + alias + ".obsID"));
+            
+            String salias = gen.getAlias(ObservationState.class);
+            sql = gen.getSelectSQL(ObservationState.class, d1, id, null, 10, "FOO");
+            log.debug("SQL: " + sql);
+            Assert.assertTrue(sql, sql.contains(" OR " + salias + ".obsID > "));
+            Assert.assertTrue(sql, sql.contains(" ORDER BY " + salias + ".maxLastModified," + salias + ".obsID"));
+            
+            // no afterID: no keyset predicate
+            sql = gen.getSelectLastModifiedRangeSQL(Observation.class, d1, null, null, 10);
+            Assert.assertFalse(sql, sql.contains(keyset));
+            
+            try
+            {
+                sql = gen.getSelectLastModifiedRangeSQL(Observation.class, null, id, null, 10);
+                Assert.fail("expected IllegalArgumentException, got: " + sql);
+            }
+            catch(IllegalArgumentException expected)
+            {
+                log.debug("caught expected: " + expected);
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSelectObservationIteratorSQL()
+    {
+        try
+        {
+            Date d = new Date();
+            for (int i=1; i<=5; i++)
+            {
+                String sql = gen.getObservationIteratorSQL("FOO", null, d, i);
+                Assert.assertNotNull(sql);
+                log.debug("SQL [" + sql.length() + "] " + sql);
+                
+                for (int t=0; t<i; t++)
+                    Assert.assertTrue(tables[t], sql.contains(tables[t]));
+                for (int t=i; t<5; t++)
+                    Assert.assertFalse(tables[t], sql.contains(tables[t]));
+                
+                String orderBy = sql.substring(sql.indexOf(" ORDER BY "));
+                Assert.assertTrue(orderBy, orderBy.startsWith(" ORDER BY " + gen.getAlias(Observation.class) + ".maxLastModified"));
+                Assert.assertTrue(orderBy, orderBy.contains(gen.getAlias(Observation.class) + ".obsID"));
+                Assert.assertTrue(sql, sql.contains("collection = 'FOO'"));
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSelectObservationStatement()
+    {
+        try
+        {
+            ObservationURI uri1 = new ObservationURI("FOO", "obs1");
+            ObservationURI uri2 = new ObservationURI("BAR", "obs2");
+            for (int i=1; i<=5; i++)
+            {
+                String sql1 = gen.getSelectStatement(uri1, i, false).toString();
+                String sql2 = gen.getSelectStatement(uri2, i, false).toString();
+                log.debug("SQL [" + sql1.length() + "] " + sql1);
+                Assert.assertEquals("same template", sql1, sql2);
+                Assert.assertFalse(sql1, sql1.contains("FOO"));
+                Assert.assertTrue(sql1, sql1.contains("collection = ?"));
+                Assert.assertTrue(sql1, sql1.contains("observationID = ?"));
+                
+                String sql3 = gen.getSelectStatement(uri1, i, true).toString();
+                Assert.assertFalse("skeleton template", sql1.equals(sql3));
+            }
+            
+            Date d1 = new Date();
+            Date d2 = new Date(d1.getTime() + 1000L);
+            String sql = gen.getObservationSelectStatement(Observation.class, d1, d2, SQLGenerator.MAX_DEPTH).toString();
+            log.debug("SQL: " + sql);
+            Assert.assertTrue(sql, sql.contains("maxLastModified >= ?"));
+            Assert.assertTrue(sql, sql.contains("maxLastModified <= ?"));
+            
+            sql = gen.getObservationSelectStatement(Observation.class, d1, null, SQLGenerator.MAX_DEPTH).toString();
+            log.debug("SQL: " + sql);
+            Assert.assertTrue(sql, sql.contains("maxLastModified >= ?"));
+            Assert.assertFalse(sql, sql.contains("maxLastModified <= ?"));
+            
+            // observation list: collection, keyset, and dates are parameters
+            UUID id = new UUID(0L, 123L);
+            String salias = gen.getAlias(ObservationState.class);
+            sql = gen.getSelectStatement(ObservationState.class, d1, id, d2, 10, "FOO").toString();
+            log.debug("SQL: " + sql);
+            Assert.assertFalse(sql, sql.contains("FOO"));
+            Assert.assertTrue(sql, sql.contains(salias + ".collection = ?"));
+            Assert.assertTrue(sql, sql.contains(" OR " + salias + ".obsID > ?"));
+            Assert.assertTrue(sql, sql.contains("maxLastModified <= ?"));
+            Assert.assertEquals("same template", sql, 
+                    gen.getSelectStatement(ObservationState.class, d2, new UUID(0L, 456L), d2, 10, "BAR").toString());
+            
+            // child select: padded IN-list of parameters
+            List<UUID> ids = new ArrayList<UUID>();
+            for (int i = 0; i < 5; i++)
+                ids.add(new UUID(0L, i));
+            String csql = gen.getChildSelectStatement(Plane.class, ids).toString();
+            log.debug("SQL: " + csql);
+            Assert.assertFalse(csql, csql.contains(ids.get(0).toString()));
+            Assert.assertTrue(csql, csql.contains("IN (?,?,?,?,?,?,?,?)"));
+            ids.add(new UUID(0L, 99L));
+            Assert.assertEquals("same template", csql, gen.getChildSelectStatement(Plane.class, ids).toString());
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testSelectReadAccessSQL()
     {
@@ -330,6 +473,63 @@ public class BaseSQLGeneratorTest
         }
     }
 
+    @Test
+    public void testSubtreeDeleteSQL()
+    {
+        try
+        {
+            // one statement per table from the root down
+            for (int i=0; i<5; i++)
+            {
+                List<String> sql = gen.getSubtreeDeleteSQL(clz[i]);
+                Assert.assertEquals(5 - i, sql.size());
+                for (int n=0; n<sql.size(); n++)
+                {
+                    String s = sql.get(n);
+                    log.debug("SQL [" + s.length() + "] " + s);
+                    Assert.assertTrue(s, s.startsWith("DELETE FROM " + tables[4 - n] + " "));
+                    Assert.assertEquals(s, 1, s.split("\\?", -1).length - 1); // one parameter
+                }
+                Assert.assertTrue(sql.get(sql.size() - 1), sql.get(sql.size() - 1).contains(pk[i] + " = ?"));
+            }
+            
+            // observation: descendants by planeID
+            List<String> sql = gen.getSubtreeDeleteSQL(Observation.class);
+            Assert.assertTrue(sql.get(0), sql.get(0).contains("planeID IN (SELECT planeID"));
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
+    @Test
+    public void testSubtreeDeleteListSQL()
+    {
+        try
+        {
+            // one IN-list per statement
+            for (int i=0; i<5; i++)
+            {
+                List<String> sql = gen.getSubtreeDeleteSQL(clz[i], 8);
+                Assert.assertEquals(5 - i, sql.size());
+                for (String s : sql)
+                {
+                    log.debug("SQL [" + s.length() + "] " + s);
+                    Assert.assertEquals(s, 8, s.split("\\?", -1).length - 1);
+                    Assert.assertFalse(s, s.contains(" = ?"));
+                }
+                Assert.assertTrue(sql.get(sql.size() - 1), sql.get(sql.size() - 1).contains(pk[i] + " IN (?,?,"));
+            }
+        }
+        catch(Exception unexpected)
+        {
+            log.error("unexpected exception", unexpected);
+            Assert.fail("unexpected exception: " + unexpected);
+        }
+    }
+
     @Test
     public void testSelectMinMaxLastModifiedSQL()
     {